@@ -0,0 +1,169 @@
+import { callFunction, resolveIdentifier } from "../runtime/builtins";
+import {
+  add,
+  divide,
+  equals,
+  factorial,
+  isTruthy,
+  modulo,
+  multiply,
+  power,
+  RuntimeValue,
+  stringify,
+  subtract,
+  toNumber,
+} from "../runtime/values";
+import { BinaryOperator, CompareOperator, Expr, NodeKind, Program, Statement, UnaryOperator } from "./nodes";
+
+export function applyBinary(operator: BinaryOperator, left: RuntimeValue, right: RuntimeValue): RuntimeValue {
+  switch (operator) {
+    case BinaryOperator.Add:
+      return add(left, right);
+    case BinaryOperator.Subtract:
+      return subtract(left, right);
+    case BinaryOperator.Multiply:
+      return multiply(left, right);
+    case BinaryOperator.Divide:
+      return divide(left, right);
+    case BinaryOperator.Modulo:
+      return modulo(left, right);
+    case BinaryOperator.Power:
+      return power(left, right);
+    case BinaryOperator.And:
+      return isTruthy(left) && isTruthy(right);
+    case BinaryOperator.Or:
+      return isTruthy(left) || isTruthy(right);
+  }
+}
+
+export function applyCompare(operator: CompareOperator, left: RuntimeValue, right: RuntimeValue): boolean {
+  switch (operator) {
+    case CompareOperator.Equal:
+      return equals(left, right);
+    case CompareOperator.NotEqual:
+      return !equals(left, right);
+    case CompareOperator.Less:
+      return toNumber(left, "comparison") < toNumber(right, "comparison");
+    case CompareOperator.LessEqual:
+      return toNumber(left, "comparison") <= toNumber(right, "comparison");
+    case CompareOperator.Greater:
+      return toNumber(left, "comparison") > toNumber(right, "comparison");
+    case CompareOperator.GreaterEqual:
+      return toNumber(left, "comparison") >= toNumber(right, "comparison");
+  }
+}
+
+export function applyUnary(operator: UnaryOperator, value: RuntimeValue): RuntimeValue {
+  switch (operator) {
+    case UnaryOperator.Negate:
+      return multiply(-1, value);
+    case UnaryOperator.Not:
+      return !isTruthy(value);
+    case UnaryOperator.Factorial:
+      return factorial(value);
+  }
+}
+
+// 直接遍历紧凑 AST 的求值器, 语义与 Caluctor 相同
+export class AstEvaluator {
+  private readonly temps: RuntimeValue[] = [];
+
+  // variables: 直接在调用方的变量表上求值, define/assign 的结果写回其中; print: print 语句的输出去向
+  constructor(
+    initialVariables?: Record<string, RuntimeValue>,
+    private readonly variables = new Map<string, RuntimeValue>(),
+    private readonly print: (line: string) => void = (line) => console.log(line),
+  ) {
+    if (initialVariables) {
+      for (const [key, value] of Object.entries(initialVariables)) {
+        this.variables.set(key, value);
+      }
+    }
+  }
+
+  public run(program: Program): RuntimeValue | undefined {
+    let result: RuntimeValue | undefined;
+    for (const statement of program.statements) {
+      result = this.execute(statement);
+    }
+    return result;
+  }
+
+  public execute(statement: Statement): RuntimeValue | undefined {
+    switch (statement.kind) {
+      case NodeKind.Define: {
+        if (this.variables.has(statement.name)) {
+          throw new Error(`Variable '${statement.name}' already defined`);
+        }
+        const value = this.evaluate(statement.value);
+        this.variables.set(statement.name, value);
+        return value;
+      }
+      case NodeKind.Assign: {
+        if (!this.variables.has(statement.name)) {
+          throw new Error(`Variable '${statement.name}' is not defined`);
+        }
+        const value = this.evaluate(statement.value);
+        this.variables.set(statement.name, value);
+        return value;
+      }
+      case NodeKind.Equation:
+        return equals(this.evaluate(statement.left), this.evaluate(statement.right));
+      case NodeKind.Print: {
+        const value = this.evaluate(statement.value);
+        this.print(stringify(value));
+        return value;
+      }
+      case NodeKind.ExprStmt:
+        return this.evaluate(statement.value);
+      case NodeKind.Empty:
+        return undefined;
+    }
+  }
+
+  public evaluate(expr: Expr): RuntimeValue {
+    switch (expr.kind) {
+      case NodeKind.Literal:
+        return expr.value;
+      case NodeKind.VarRef:
+        return resolveIdentifier(this.variables, expr.name);
+      case NodeKind.UnaryOp:
+        return applyUnary(expr.operator, this.evaluate(expr.operand));
+      case NodeKind.BinaryOp: {
+        const left = this.evaluate(expr.left);
+        if (expr.operator === BinaryOperator.Or && isTruthy(left)) {
+          return true;
+        }
+        if (expr.operator === BinaryOperator.And && !isTruthy(left)) {
+          return false;
+        }
+        return applyBinary(expr.operator, left, this.evaluate(expr.right));
+      }
+      case NodeKind.CompareChain: {
+        const { operands, operators } = expr;
+        let current = this.evaluate(operands[0]);
+        for (let i = 0; i < operators.length; i += 1) {
+          const next = this.evaluate(operands[i + 1]);
+          if (!applyCompare(operators[i], current, next)) {
+            return false;
+          }
+          current = next;
+        }
+        return true;
+      }
+      case NodeKind.Call:
+        return callFunction(this.variables, expr.name, expr.args.map((arg) => this.evaluate(arg)));
+      case NodeKind.VectorLit:
+        return expr.items.map((item) => this.evaluate(item));
+      case NodeKind.MatrixLit:
+        return expr.rows.map((row) => row.map((item) => this.evaluate(item)));
+      case NodeKind.Bind: {
+        const value = this.evaluate(expr.value);
+        this.temps[expr.slot] = value;
+        return value;
+      }
+      case NodeKind.TempRef:
+        return this.temps[expr.slot];
+    }
+  }
+}
@@ -0,0 +1,274 @@
+import { ParseTree } from "antlr4ts/tree/ParseTree";
+import { TerminalNode } from "antlr4ts/tree/TerminalNode";
+import {
+  ArithContext,
+  AtomContext,
+  CalculatorParser,
+  ComparisonContext,
+  ConstantContext,
+  ExprContext,
+  Expr2Context,
+  Expr3Context,
+  ExprListContext,
+  FactorContext,
+  FunctionCallContext,
+  ImplicitMulContext,
+  MatrixContext,
+  ProgramContext,
+  StatementContext,
+  TermContext,
+  UnaryContext,
+  VectorContext,
+} from "../../generated/grammar/CalculatorParser";
+import { decodeImagLiteral, decodeNumberLiteral, numericValueOf } from "../parser/numeric-token";
+import { CONSTANTS } from "../runtime/builtins";
+import {
+  Assign,
+  BinaryOp,
+  BinaryOperator,
+  Call,
+  CompareChain,
+  CompareOperator,
+  Define,
+  Empty,
+  Equation,
+  Expr,
+  ExprStmt,
+  Literal,
+  MatrixLit,
+  Print,
+  Program,
+  Statement,
+  UnaryOp,
+  UnaryOperator,
+  VarRef,
+  VectorLit,
+} from "./nodes";
+
+// 把 CalculatorParser 的语法树降级为紧凑 AST, 语义与 Caluctor 对语法树的求值一致
+export function lowerProgram(ctx: ProgramContext): Program {
+  return new Program(ctx.statement().map(lowerStatement));
+}
+
+export function lowerStatement(ctx: StatementContext): Statement {
+  const define = ctx.defineStmt();
+  if (define) {
+    return new Define(define.ID().text, lowerExpr(define.expr()));
+  }
+  const assignment = ctx.assignment();
+  if (assignment) {
+    return new Assign(assignment.ID().text, lowerExpr(assignment.expr()));
+  }
+  const equation = ctx.equationStmt();
+  if (equation) {
+    const operands = equation.equation().expr();
+    return new Equation(lowerExpr(operands[0]), lowerExpr(operands[1]));
+  }
+  const print = ctx.printStmt();
+  if (print) {
+    return new Print(lowerExpr(print.expr()));
+  }
+  const exprStmt = ctx.exprStmt();
+  if (exprStmt) {
+    return new ExprStmt(lowerExpr(exprStmt.expr()));
+  }
+  return Empty.INSTANCE;
+}
+
+export function lowerExpr(ctx: ExprContext): Expr {
+  const left = ctx.expr();
+  if (left && ctx.OR()) {
+    return new BinaryOp(BinaryOperator.Or, lowerExpr(left), lowerExpr2(ctx.expr2()));
+  }
+  return lowerExpr2(ctx.expr2());
+}
+
+function lowerExpr2(ctx: Expr2Context): Expr {
+  const left = ctx.expr2();
+  if (left && ctx.AND()) {
+    return new BinaryOp(BinaryOperator.And, lowerExpr2(left), lowerExpr3(ctx.expr3()));
+  }
+  return lowerExpr3(ctx.expr3());
+}
+
+function lowerExpr3(ctx: Expr3Context): Expr {
+  const operand = ctx.expr3();
+  if (operand && ctx.NOT()) {
+    return new UnaryOp(UnaryOperator.Not, lowerExpr3(operand));
+  }
+  return lowerComparison(required(ctx.comparison(), ctx));
+}
+
+function lowerComparison(ctx: ComparisonContext): Expr {
+  const children = ctx.children ?? [];
+  if (children.length === 1) {
+    return lowerArith(ctx.arith(0));
+  }
+  const operands: Expr[] = [lowerArith(ctx.arith(0))];
+  const operators: CompareOperator[] = [];
+  for (let i = 1; i < children.length; i += 2) {
+    operators.push(compareOperator(children[i]));
+    operands.push(lowerArith(children[i + 1] as ArithContext));
+  }
+  return new CompareChain(operands, operators);
+}
+
+function compareOperator(node: ParseTree): CompareOperator {
+  const type = node instanceof TerminalNode ? node.symbol.type : -1;
+  switch (type) {
+    case CalculatorParser.EQUAL:
+      return CompareOperator.Equal;
+    case CalculatorParser.NOT_EQUAL:
+      return CompareOperator.NotEqual;
+    case CalculatorParser.LESS:
+      return CompareOperator.Less;
+    case CalculatorParser.LESS_EQUAL:
+      return CompareOperator.LessEqual;
+    case CalculatorParser.GREATER:
+      return CompareOperator.Greater;
+    case CalculatorParser.GREATER_EQUAL:
+      return CompareOperator.GreaterEqual;
+    default:
+      throw new Error(`Unsupported operator '${node.text}'`);
+  }
+}
+
+function lowerArith(ctx: ArithContext): Expr {
+  const left = ctx.arith();
+  if (!left) {
+    return lowerTerm(ctx.term());
+  }
+  const operator = ctx.PLUS() ? BinaryOperator.Add : BinaryOperator.Subtract;
+  return new BinaryOp(operator, lowerArith(left), lowerTerm(ctx.term()));
+}
+
+function lowerTerm(ctx: TermContext): Expr {
+  const left = ctx.term();
+  if (!left) {
+    return lowerFactor(ctx.factor());
+  }
+  const operator = ctx.MULT() ? BinaryOperator.Multiply : ctx.DIV() ? BinaryOperator.Divide : BinaryOperator.Modulo;
+  return new BinaryOp(operator, lowerTerm(left), lowerFactor(ctx.factor()));
+}
+
+function lowerFactor(ctx: FactorContext): Expr {
+  const base = lowerUnary(ctx.unary());
+  const exponent = ctx.factor();
+  if (!exponent || !ctx.POW()) {
+    return base;
+  }
+  return new BinaryOp(BinaryOperator.Power, base, lowerFactor(exponent));
+}
+
+function lowerUnary(ctx: UnaryContext): Expr {
+  const operand = ctx.unary();
+  if (operand && ctx.PLUS()) {
+    // 正号不改变值, 直接去掉
+    return lowerUnary(operand);
+  }
+  if (operand && ctx.MINUS()) {
+    return new UnaryOp(UnaryOperator.Negate, lowerUnary(operand));
+  }
+  return lowerAtom(required(ctx.atom(), ctx));
+}
+
+function lowerAtom(ctx: AtomContext): Expr {
+  const inner = ctx.atom();
+  if (inner) {
+    return new UnaryOp(UnaryOperator.Factorial, lowerAtom(inner));
+  }
+  const implicitMul = ctx.implicitMul();
+  if (implicitMul) {
+    return lowerImplicitMul(implicitMul);
+  }
+  const call = ctx.functionCall();
+  if (call) {
+    return lowerFunctionCall(call);
+  }
+  const vector = ctx.vector();
+  if (vector) {
+    return lowerVector(vector);
+  }
+  const matrix = ctx.matrix();
+  if (matrix) {
+    return new MatrixLit(matrix.row().map((row) => lowerExprList(row.exprList())));
+  }
+  const parenthesized = ctx.expr();
+  if (parenthesized) {
+    return lowerExpr(parenthesized);
+  }
+  const constant = ctx.constant();
+  if (constant) {
+    return new Literal(constantValue(constant));
+  }
+  const id = ctx.ID();
+  if (id) {
+    return new VarRef(id.text);
+  }
+  const imag = ctx.IMAG();
+  if (imag) {
+    return new Literal({ kind: "complex", real: 0, imag: numericValueOf(imag.symbol) ?? decodeImagLiteral(imag.text) });
+  }
+  const number = ctx.NUMBER();
+  if (number) {
+    return new Literal(numberValue(number));
+  }
+  throw new Error(`Unsupported atom: ${ctx.text}`);
+}
+
+// 隐式乘法统一降级为普通乘法
+function lowerImplicitMul(ctx: ImplicitMulContext): Expr {
+  const number = ctx.NUMBER();
+  const ids = ctx.ID();
+  const expr = ctx.expr();
+  if (number && ids.length === 1 && !ctx.LPAREN()) {
+    return new BinaryOp(BinaryOperator.Multiply, new Literal(numberValue(number)), new VarRef(ids[0].text));
+  }
+  if (number && expr) {
+    return new BinaryOp(BinaryOperator.Multiply, new Literal(numberValue(number)), lowerExpr(expr));
+  }
+  const constant = ctx.constant();
+  if (constant && ids.length === 1) {
+    return new BinaryOp(BinaryOperator.Multiply, new Literal(constantValue(constant)), new VarRef(ids[0].text));
+  }
+  if (ids.length === 2 && !ctx.LPAREN()) {
+    return new BinaryOp(BinaryOperator.Multiply, new VarRef(ids[0].text), new VarRef(ids[1].text));
+  }
+  if (ids.length === 1 && expr) {
+    return new BinaryOp(BinaryOperator.Multiply, new VarRef(ids[0].text), lowerExpr(expr));
+  }
+  throw new Error(`Unsupported implicit multiplication: ${ctx.text}`);
+}
+
+function lowerFunctionCall(ctx: FunctionCallContext): Expr {
+  const args = ctx.argList()?.expr().map(lowerExpr) ?? [];
+  return new Call(ctx.ID().text, args);
+}
+
+function lowerVector(ctx: VectorContext): Expr {
+  const list = ctx.exprList();
+  return new VectorLit(list ? lowerExprList(list) : []);
+}
+
+function lowerExprList(ctx: ExprListContext): Expr[] {
+  return ctx.expr().map(lowerExpr);
+}
+
+function numberValue(node: TerminalNode): number {
+  return numericValueOf(node.symbol) ?? decodeNumberLiteral(node.text);
+}
+
+function constantValue(ctx: ConstantContext): number {
+  const value = CONSTANTS.get(ctx.text.toLowerCase());
+  if (value === undefined) {
+    throw new Error(`Unknown constant '${ctx.text}'`);
+  }
+  return value;
+}
+
+function required<T>(value: T | undefined, ctx: ParseTree): T {
+  if (value === undefined) {
+    throw new Error(`Unexpected token '${ctx.text}'`);
+  }
+  return value;
+}
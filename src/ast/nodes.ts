@@ -0,0 +1,201 @@
+import { RuntimeValue } from "../runtime/values";
+
+// 紧凑的不可变语法树: 优先级链上只做转发的 Expr/Expr2/.../Atom 包装层都被去掉,
+// 运算符在降级时就解析成枚举编码, 求值时不再比较 token 文本
+
+export const enum NodeKind {
+  Literal,
+  VarRef,
+  UnaryOp,
+  BinaryOp,
+  CompareChain,
+  Call,
+  VectorLit,
+  MatrixLit,
+  Bind,
+  TempRef,
+  Define,
+  Assign,
+  Equation,
+  Print,
+  ExprStmt,
+  Empty,
+}
+
+export const enum UnaryOperator {
+  Negate,
+  Not,
+  Factorial,
+}
+
+// And/Or 短路求值, 右操作数只在需要时计算
+export const enum BinaryOperator {
+  Add,
+  Subtract,
+  Multiply,
+  Divide,
+  Modulo,
+  Power,
+  And,
+  Or,
+}
+
+export const enum CompareOperator {
+  Equal,
+  NotEqual,
+  Less,
+  LessEqual,
+  Greater,
+  GreaterEqual,
+}
+
+export class Literal {
+  public readonly kind = NodeKind.Literal;
+
+  constructor(public readonly value: RuntimeValue) {}
+}
+
+export class VarRef {
+  public readonly kind = NodeKind.VarRef;
+
+  constructor(public readonly name: string) {}
+}
+
+export class UnaryOp {
+  public readonly kind = NodeKind.UnaryOp;
+
+  constructor(public readonly operator: UnaryOperator, public readonly operand: Expr) {}
+}
+
+export class BinaryOp {
+  public readonly kind = NodeKind.BinaryOp;
+
+  constructor(public readonly operator: BinaryOperator, public readonly left: Expr, public readonly right: Expr) {}
+}
+
+// a < b <= c: operands 比 operators 多一个, 任一比较为假时短路
+export class CompareChain {
+  public readonly kind = NodeKind.CompareChain;
+
+  constructor(public readonly operands: readonly Expr[], public readonly operators: readonly CompareOperator[]) {}
+}
+
+// 内置函数调用, 或者 (name 不是内置函数时) 变量乘以单个参数
+export class Call {
+  public readonly kind = NodeKind.Call;
+
+  constructor(public readonly name: string, public readonly args: readonly Expr[]) {}
+}
+
+export class VectorLit {
+  public readonly kind = NodeKind.VectorLit;
+
+  constructor(public readonly items: readonly Expr[]) {}
+}
+
+export class MatrixLit {
+  public readonly kind = NodeKind.MatrixLit;
+
+  constructor(public readonly rows: readonly (readonly Expr[])[]) {}
+}
+
+// 优化器引入的临时值: Bind 计算 value 并存入临时槽位, 之后的 TempRef 直接读取
+// 同一个槽位的 TempRef 只出现在对应 Bind 之后求值的位置
+export class Bind {
+  public readonly kind = NodeKind.Bind;
+
+  constructor(public readonly slot: number, public readonly value: Expr) {}
+}
+
+export class TempRef {
+  public readonly kind = NodeKind.TempRef;
+
+  constructor(public readonly slot: number) {}
+}
+
+export type Expr = Literal | VarRef | UnaryOp | BinaryOp | CompareChain | Call | VectorLit | MatrixLit | Bind | TempRef;
+
+export class Define {
+  public readonly kind = NodeKind.Define;
+
+  constructor(public readonly name: string, public readonly value: Expr) {}
+}
+
+export class Assign {
+  public readonly kind = NodeKind.Assign;
+
+  constructor(public readonly name: string, public readonly value: Expr) {}
+}
+
+export class Equation {
+  public readonly kind = NodeKind.Equation;
+
+  constructor(public readonly left: Expr, public readonly right: Expr) {}
+}
+
+export class Print {
+  public readonly kind = NodeKind.Print;
+
+  constructor(public readonly value: Expr) {}
+}
+
+export class ExprStmt {
+  public readonly kind = NodeKind.ExprStmt;
+
+  constructor(public readonly value: Expr) {}
+}
+
+// 只有换行的语句, 结果为 undefined
+export class Empty {
+  public readonly kind = NodeKind.Empty;
+
+  public static readonly INSTANCE = new Empty();
+
+  private constructor() {}
+}
+
+export type Statement = Define | Assign | Equation | Print | ExprStmt | Empty;
+
+export class Program {
+  constructor(public readonly statements: readonly Statement[]) {}
+}
+
+export type Node = Expr | Statement;
+
+// 子节点按求值顺序排列
+export function childrenOf(node: Node): readonly Expr[] {
+  switch (node.kind) {
+    case NodeKind.Literal:
+    case NodeKind.VarRef:
+    case NodeKind.TempRef:
+    case NodeKind.Empty:
+      return [];
+    case NodeKind.UnaryOp:
+      return [node.operand];
+    case NodeKind.BinaryOp:
+      return [node.left, node.right];
+    case NodeKind.CompareChain:
+      return node.operands;
+    case NodeKind.Call:
+      return node.args;
+    case NodeKind.VectorLit:
+      return node.items;
+    case NodeKind.MatrixLit:
+      return ([] as Expr[]).concat(...node.rows);
+    case NodeKind.Bind:
+    case NodeKind.Define:
+    case NodeKind.Assign:
+    case NodeKind.Print:
+    case NodeKind.ExprStmt:
+      return [node.value];
+    case NodeKind.Equation:
+      return [node.left, node.right];
+  }
+}
+
+export function countNodes(node: Node | Program): number {
+  if (node instanceof Program) {
+    return node.statements.reduce((total, statement) => total + countNodes(statement), 1);
+  }
+  return childrenOf(node).reduce((total, child) => total + countNodes(child), 1);
+}
@@ -0,0 +1,367 @@
+import { AstEvaluator } from "../ast/evaluator";
+import { BinaryOperator, CompareOperator, Expr, NodeKind, Program, UnaryOperator } from "../ast/nodes";
+import { CONSTANTS, REGISTRY } from "../runtime/builtins";
+import { realDivide, realEquals, realModulo, realMultiply, realNegate, realPower, realTruthy } from "../runtime/real";
+import { BuiltinEntry } from "../runtime/registry";
+import { EPSILON, factorial, RuntimeValue } from "../runtime/values";
+
+// 每次处理的行数, 一个块内所有中间列都能留在缓存里
+const BLOCK_SIZE = 1024;
+
+export type Columns = Readonly<Record<string, Float64Array>>;
+
+// 当前块: 输入列在块内的视图, 以及需要逐行回退的标记
+class Block {
+  public offset = 0;
+  public count = 0;
+  public inputs: Float64Array[] = [];
+  public readonly fallback = new Uint8Array(BLOCK_SIZE);
+  public fallbacks = 0;
+
+  public flag(row: number): void {
+    if (this.fallback[row] === 0) {
+      this.fallback[row] = 1;
+      this.fallbacks += 1;
+    }
+  }
+}
+
+type Kernel = (block: Block) => Float64Array;
+
+// 列式批量求值: 同一个公式作用在成千上万行输入上时, 每个节点对整块数据跑一个紧凑的 Float64Array 循环,
+// 不再逐行遍历语法树, 也不为每个值装箱.
+// 列上只表示实数和布尔 (1/0). 会得到复数、需要报错或依赖短路的行在核函数里只打标记,
+// 块算完后用 AstEvaluator 逐行重算这些行, 所以结果 (包括错误) 与逐行求值一致
+export class BatchProgram {
+  private readonly block = new Block();
+
+  constructor(
+    public readonly program: Program,
+    public readonly inputs: readonly string[],
+    private readonly kernels: readonly Kernel[],
+  ) {}
+
+  // firstRow 只用于错误信息中的行号, 分块并行求值时传入块在整个输入中的起始行
+  public evaluate(columns: Columns, output?: Float64Array, firstRow = 0): Float64Array {
+    const sources = this.inputs.map((name) => {
+      const column = columns[name];
+      if (!column) {
+        throw new Error(`Missing column '${name}'`);
+      }
+      return column;
+    });
+    const rows = sources.length > 0 ? sources[0].length : 0;
+    if (sources.some((column) => column.length !== rows)) {
+      throw new Error("Input columns must have the same length");
+    }
+    const result = output ?? new Float64Array(rows);
+    if (result.length < rows) {
+      throw new Error(`Output column has ${result.length} rows, expected ${rows}`);
+    }
+
+    const block = this.block;
+    for (let offset = 0; offset < rows; offset += BLOCK_SIZE) {
+      const count = Math.min(BLOCK_SIZE, rows - offset);
+      block.offset = offset;
+      block.count = count;
+      block.inputs = sources.map((column) => column.subarray(offset, offset + count));
+      block.fallback.fill(0);
+      block.fallbacks = 0;
+      let values: Float64Array | undefined;
+      for (const kernel of this.kernels) {
+        values = kernel(block);
+      }
+      result.set(values!.subarray(0, count), offset);
+      if (block.fallbacks > 0) {
+        this.fallback(sources, result, block, firstRow);
+      }
+    }
+    return result;
+  }
+
+  private fallback(sources: Float64Array[], result: Float64Array, block: Block, firstRow: number): void {
+    for (let i = 0; i < block.count; i += 1) {
+      if (block.fallback[i] === 0) {
+        continue;
+      }
+      const row = block.offset + i;
+      const variables = new Map<string, RuntimeValue>(this.inputs.map((name, index) => [name, sources[index][row]]));
+      let value: RuntimeValue | undefined;
+      try {
+        value = new AstEvaluator(undefined, variables).run(this.program);
+      } catch (error) {
+        throw new Error(`Row ${firstRow + row}: ${(error as Error).message}`);
+      }
+      if (typeof value === "number") {
+        result[row] = value;
+      } else if (typeof value === "boolean") {
+        result[row] = value ? 1 : 0;
+      } else {
+        throw new Error(`Row ${firstRow + row}: result is not a real number`);
+      }
+    }
+  }
+}
+
+// 把程序编译成按块执行的列核函数. 支持 var 定义 (作为新列) 和表达式语句,
+// 最后一条语句的值是输出; 赋值、打印、向量和非实数字面量不能按列表示, 编译时报错
+export class BatchCompiler {
+  private readonly columns = new Map<string, number>();
+  private readonly defined = new Map<string, Kernel>();
+  private readonly temps: Kernel[] = [];
+
+  private constructor(private readonly inputs: readonly string[]) {
+    inputs.forEach((name, index) => this.columns.set(name, index));
+  }
+
+  public static compile(program: Program, inputs: readonly string[]): BatchProgram {
+    return new BatchCompiler(inputs).compileProgram(program);
+  }
+
+  private compileProgram(program: Program): BatchProgram {
+    const kernels: Kernel[] = [];
+    for (const statement of program.statements) {
+      switch (statement.kind) {
+        case NodeKind.Define: {
+          if (this.columns.has(statement.name) || this.defined.has(statement.name)) {
+            throw new Error(`Variable '${statement.name}' already defined`);
+          }
+          const kernel = this.compileExpr(statement.value);
+          // 定义语句的列在块内计算一次, 后面引用它时直接返回同一列
+          let values = new Float64Array(0);
+          kernels.push((block) => (values = kernel(block)));
+          this.defined.set(statement.name, () => values);
+          break;
+        }
+        case NodeKind.ExprStmt:
+          kernels.push(this.compileExpr(statement.value));
+          break;
+        case NodeKind.Empty:
+          break;
+        default:
+          throw new Error("Batch evaluation supports only definitions and expressions");
+      }
+    }
+    const last = program.statements[program.statements.length - 1];
+    if (!last || (last.kind !== NodeKind.Define && last.kind !== NodeKind.ExprStmt)) {
+      throw new Error("Batch program must end with an expression");
+    }
+    return new BatchProgram(program, this.inputs, kernels);
+  }
+
+  private compileExpr(expr: Expr): Kernel {
+    switch (expr.kind) {
+      case NodeKind.Literal: {
+        const value = expr.value;
+        if (typeof value !== "number" && typeof value !== "boolean") {
+          throw new Error("Batch evaluation supports real-valued formulas only");
+        }
+        return constant(typeof value === "number" ? value : value ? 1 : 0);
+      }
+      case NodeKind.VarRef:
+        return this.variable(expr.name);
+      case NodeKind.UnaryOp:
+        return unary(expr.operator, this.compileExpr(expr.operand));
+      case NodeKind.BinaryOp:
+        return binary(expr.operator, this.compileExpr(expr.left), this.compileExpr(expr.right));
+      case NodeKind.CompareChain: {
+        const operands = expr.operands.map((operand) => this.compileExpr(operand));
+        return compareChain(expr.operators, operands);
+      }
+      case NodeKind.Call: {
+        const args = expr.args.map((arg) => this.compileExpr(arg));
+        // 内置函数优先于同名变量
+        const entry = REGISTRY.lookup(expr.name);
+        if (entry) {
+          if (!entry.pure) {
+            throw new Error(`Function '${expr.name}' is not pure and cannot be evaluated in batch`);
+          }
+          return call(entry, args);
+        }
+        if (args.length === 1 && (this.columns.has(expr.name) || this.defined.has(expr.name) || CONSTANTS.has(expr.name))) {
+          return binary(BinaryOperator.Multiply, this.variable(expr.name), args[0]);
+        }
+        throw new Error(`Unknown function '${expr.name}'`);
+      }
+      case NodeKind.Bind: {
+        const kernel = this.compileExpr(expr.value);
+        let values = new Float64Array(0);
+        this.temps[expr.slot] = () => values;
+        return (block) => (values = kernel(block));
+      }
+      case NodeKind.TempRef:
+        return this.temps[expr.slot];
+      default:
+        throw new Error("Batch evaluation supports real-valued formulas only");
+    }
+  }
+
+  private variable(name: string): Kernel {
+    const index = this.columns.get(name);
+    if (index !== undefined) {
+      return (block) => block.inputs[index];
+    }
+    const defined = this.defined.get(name);
+    if (defined) {
+      return defined;
+    }
+    const value = CONSTANTS.get(name);
+    if (value !== undefined) {
+      return constant(value);
+    }
+    throw new Error(`Identifier '${name}' is not defined`);
+  }
+}
+
+function constant(value: number): Kernel {
+  const values = new Float64Array(BLOCK_SIZE).fill(value);
+  return () => values;
+}
+
+function unary(operator: UnaryOperator, operand: Kernel): Kernel {
+  switch (operator) {
+    case UnaryOperator.Negate:
+      return map1(operand, realNegate);
+    case UnaryOperator.Not:
+      return map1(operand, (value) => (realTruthy(value) ? 0 : 1));
+    case UnaryOperator.Factorial:
+      return map1(operand, (value) => factorial(value) as number);
+  }
+}
+
+function binary(operator: BinaryOperator, left: Kernel, right: Kernel): Kernel {
+  switch (operator) {
+    case BinaryOperator.Add: {
+      const out = new Float64Array(BLOCK_SIZE);
+      return (block) => {
+        const a = left(block);
+        const b = right(block);
+        for (let i = 0; i < block.count; i += 1) {
+          const value = a[i] + b[i];
+          out[i] = value <= EPSILON && value >= -EPSILON ? 0 : value;
+        }
+        return out;
+      };
+    }
+    case BinaryOperator.Subtract: {
+      const out = new Float64Array(BLOCK_SIZE);
+      return (block) => {
+        const a = left(block);
+        const b = right(block);
+        for (let i = 0; i < block.count; i += 1) {
+          const value = a[i] - b[i];
+          out[i] = value <= EPSILON && value >= -EPSILON ? 0 : value;
+        }
+        return out;
+      };
+    }
+    case BinaryOperator.Multiply:
+      return map2(left, right, realMultiply);
+    case BinaryOperator.Divide:
+      return map2(left, right, realDivide);
+    case BinaryOperator.Modulo:
+      return map2(left, right, realModulo);
+    case BinaryOperator.Power:
+      return map2(left, right, realPower);
+    case BinaryOperator.And:
+      // 两侧都整列算出, 核函数不报错也没有副作用; 左侧为假而右侧打了标记的行会多回退一次, 结果不变
+      return map2(left, right, (a, b) => (realTruthy(a) && realTruthy(b) ? 1 : 0));
+    case BinaryOperator.Or:
+      return map2(left, right, (a, b) => (realTruthy(a) || realTruthy(b) ? 1 : 0));
+  }
+}
+
+function compare(operator: CompareOperator, a: number, b: number): boolean {
+  switch (operator) {
+    case CompareOperator.Equal:
+      return realEquals(a, b);
+    case CompareOperator.NotEqual:
+      return !realEquals(a, b);
+    case CompareOperator.Less:
+      return a < b;
+    case CompareOperator.LessEqual:
+      return a <= b;
+    case CompareOperator.Greater:
+      return a > b;
+    case CompareOperator.GreaterEqual:
+      return a >= b;
+  }
+}
+
+function compareChain(operators: readonly CompareOperator[], operands: Kernel[]): Kernel {
+  const out = new Float64Array(BLOCK_SIZE);
+  return (block) => {
+    const columns = operands.map((operand) => operand(block));
+    out.fill(1, 0, block.count);
+    operators.forEach((operator, index) => {
+      const a = columns[index];
+      const b = columns[index + 1];
+      for (let i = 0; i < block.count; i += 1) {
+        if (out[i] !== 0 && !compare(operator, a[i], b[i])) {
+          out[i] = 0;
+        }
+      }
+    });
+    return out;
+  };
+}
+
+// 内置函数逐个元素调用实数入口, 没有实数入口或返回 undefined 的行回退
+function call(entry: BuiltinEntry, args: Kernel[]): Kernel {
+  if (args.length === 1 && entry.unary) {
+    return map1(args[0], entry.unary);
+  }
+  if (args.length === 2 && entry.binary) {
+    return map2(args[0], args[1], entry.binary);
+  }
+  const out = new Float64Array(BLOCK_SIZE);
+  return (block) => {
+    const columns = args.map((arg) => arg(block));
+    for (let i = 0; i < block.count; i += 1) {
+      try {
+        const value = entry.call(columns.map((column) => column[i]));
+        out[i] = typeof value === "number" ? value : fail(block, i);
+      } catch {
+        out[i] = fail(block, i);
+      }
+    }
+    return out;
+  };
+}
+
+// 逐元素计算; 结果为 undefined 或抛出错误的行打上回退标记
+function map1(operand: Kernel, operation: (value: number) => number | undefined): Kernel {
+  const out = new Float64Array(BLOCK_SIZE);
+  return (block) => {
+    const a = operand(block);
+    for (let i = 0; i < block.count; i += 1) {
+      try {
+        out[i] = operation(a[i]) ?? fail(block, i);
+      } catch {
+        out[i] = fail(block, i);
+      }
+    }
+    return out;
+  };
+}
+
+function map2(left: Kernel, right: Kernel, operation: (a: number, b: number) => number | undefined): Kernel {
+  const out = new Float64Array(BLOCK_SIZE);
+  return (block) => {
+    const a = left(block);
+    const b = right(block);
+    for (let i = 0; i < block.count; i += 1) {
+      try {
+        out[i] = operation(a[i], b[i]) ?? fail(block, i);
+      } catch {
+        out[i] = fail(block, i);
+      }
+    }
+    return out;
+  };
+}
+
+function fail(block: Block, row: number): number {
+  block.flag(row);
+  return NaN;
+}
@@ -0,0 +1,54 @@
+import { ParseTree } from "antlr4ts/tree/ParseTree";
+import { AstEvaluator } from "../ast/evaluator";
+import { lowerProgram } from "../ast/lower";
+import { countNodes } from "../ast/nodes";
+import { Caluctor } from "../calculator";
+import { parseProgram } from "../parser/front-end";
+import { stringify } from "../runtime/values";
+import { report, repeat } from "./harness";
+
+// 对比直接访问 CalculatorParser 语法树与遍历降级后的紧凑 AST
+
+function buildScript(statements: number): string {
+  const lines: string[] = ["var a = 1.5", "var b = 2", "var c = 0.25"];
+  for (let i = 0; i < statements; i += 1) {
+    // 顶层的 2a、f(x) 会被切成两条语句, 放在括号里才是隐式乘法和函数调用
+    lines.push(`var v${i} = (3a + b ^ 2 - sin(c) * (a + ${i}) / 4 + max(a, b, ${i % 7}))`);
+    lines.push(`a = a + (v${i} > 1 and b <= 2 or not c == 0) * 0.001`);
+  }
+  lines.push("[a, b; c, (2a)]");
+  return lines.join("\n");
+}
+
+function countTree(tree: ParseTree): number {
+  let count = 1;
+  for (let i = 0; i < tree.childCount; i += 1) {
+    count += countTree(tree.getChild(i));
+  }
+  return count;
+}
+
+export function main() {
+  const tree = parseProgram(buildScript(2000));
+  const program = lowerProgram(tree);
+  const treeNodes = countTree(tree);
+  const astNodes = countNodes(program);
+  console.log(`parse tree nodes: ${treeNodes}, AST nodes: ${astNodes} (${(treeNodes / astNodes).toFixed(1)}x fewer)`);
+
+  const visit = () => stringify(new Caluctor().visit(tree)!);
+  const walk = () => stringify(new AstEvaluator().run(program)!);
+  if (visit() !== walk()) {
+    throw new Error(`results differ: ${visit()} vs ${walk()}`);
+  }
+
+  const rounds = 20;
+  const perRun = (label: string, run: () => string) => {
+    const [, millis] = repeat(rounds, () => run().length);
+    return report(label, millis / rounds, "ms/run");
+  };
+  const visitor = perRun("Caluctor", visit);
+  const evaluator = perRun("AstEvaluator", walk);
+  console.log(`speedup: ${(visitor / evaluator).toFixed(1)}x`);
+}
+
+main();
@@ -0,0 +1,104 @@
+import { AstEvaluator } from "../ast/evaluator";
+import { lowerProgram } from "../ast/lower";
+import { Program } from "../ast/nodes";
+import { BatchCompiler, Columns } from "../batch/batch-compiler";
+import { JsCompiler } from "../compiler/js-compiler";
+import { parseProgram } from "../parser/front-end";
+import { RuntimeValue } from "../runtime/values";
+import { attempt, rate, timed } from "./harness";
+
+// 同一个公式作用在百万行输入上: 逐行遍历语法树、逐行调用编译后的函数、按列批量求值三者对比
+
+const FORMULA = "(3a + b ^ 2 - sin(c))";
+
+// 覆盖回退路径: 短路中会除零的行、Infinity 输入、定义语句和阶乘
+const CHECKS = [
+  "(b == 2 or a / (b - 2) > 1)",
+  "var s = a * b; (s + max(s, c) - abs(c) % 3)",
+  "(not (a < b <= c) and round(c) ^ 3 > -1)",
+  "((a % 5)! + sqrt(b) / (c + 0.5))",
+];
+
+function columns(rows: number): Columns {
+  const a = new Float64Array(rows);
+  const b = new Float64Array(rows);
+  const c = new Float64Array(rows);
+  for (let i = 0; i < rows; i += 1) {
+    a[i] = i % 1000;
+    b[i] = (i % 17) / 4;
+    c[i] = i % 101 === 0 ? Infinity : Math.sin(i) * 10;
+  }
+  return { a, b, c };
+}
+
+function scalar(program: Program, input: Columns, rows: number): Float64Array {
+  const output = new Float64Array(rows);
+  for (let i = 0; i < rows; i += 1) {
+    const variables = new Map<string, RuntimeValue>([
+      ["a", input.a[i]],
+      ["b", input.b[i]],
+      ["c", input.c[i]],
+    ]);
+    const value = new AstEvaluator(undefined, variables).run(program);
+    output[i] = typeof value === "boolean" ? (value ? 1 : 0) : (value as number);
+  }
+  return output;
+}
+
+function check(source: string, input: Columns, rows: number): void {
+  const program = lowerProgram(parseProgram(source));
+  const expected = attempt(() => scalar(program, input, rows));
+  const actual = attempt(() => BatchCompiler.compile(program, ["a", "b", "c"]).evaluate(input));
+  if (typeof expected === "string" || typeof actual === "string") {
+    if (expected !== actual) {
+      throw new Error(`${JSON.stringify(source)}: expected ${expected}, got ${actual}`);
+    }
+    return;
+  }
+  for (let i = 0; i < rows; i += 1) {
+    if (!Object.is(expected[i], actual[i])) {
+      throw new Error(`${JSON.stringify(source)} row ${i}: expected ${expected[i]}, got ${actual[i]}`);
+    }
+  }
+}
+
+function throughput(label: string, rows: number, run: () => Float64Array): number {
+  const [output, millis] = timed(run);
+  let checksum = 0;
+  for (let i = 0; i < rows; i += 1) {
+    checksum += Number.isFinite(output[i]) ? output[i] : 0;
+  }
+  return rate(label, rows, millis, "rows", `(checksum ${checksum.toPrecision(8)})`);
+}
+
+export function main() {
+  const checkRows = 5000;
+  const checkInput = columns(checkRows);
+  for (const source of CHECKS) {
+    check(source, checkInput, checkRows);
+  }
+  // c 中有 Infinity 的行走回退路径, 结果也必须与逐行求值一致
+  check(FORMULA, checkInput, checkRows);
+
+  const rows = 1000000;
+  const input = columns(rows);
+  input.c.forEach((value, i) => (input.c[i] = Number.isFinite(value) ? value : 0));
+  const program = lowerProgram(parseProgram(FORMULA));
+  check(FORMULA, input, 20000);
+
+  const compiled = JsCompiler.compile(program);
+  const batch = BatchCompiler.compile(program, ["a", "b", "c"]);
+  const tree = throughput("AstEvaluator", rows, () => scalar(program, input, rows));
+  throughput("JsCompiler", rows, () => {
+    const output = new Float64Array(rows);
+    for (let i = 0; i < rows; i += 1) {
+      output[i] = compiled.run({ a: input.a[i], b: input.b[i], c: input.c[i] }) as number;
+    }
+    return output;
+  });
+  const output = new Float64Array(rows);
+  const columnar = throughput("BatchCompiler", rows, () => batch.evaluate(input, output));
+  console.log(`batch vs tree: ${(columnar / tree).toFixed(1)}x`);
+}
+
+main();
@@ -0,0 +1,50 @@
+import { AstEvaluator } from "../ast/evaluator";
+import { lowerProgram } from "../ast/lower";
+import { BytecodeCompiler } from "../bytecode/compiler";
+import { disassemble } from "../bytecode/disassembler";
+import { BytecodeInterpreter } from "../bytecode/interpreter";
+import { parseProgram } from "../parser/front-end";
+import { RuntimeValue } from "../runtime/values";
+import { measure, outcome } from "./harness";
+
+// 对比遍历 AST 与寄存器字节码解释器; 同时校验各种语句形式的结果一致
+
+const FORMULA = "(3x + y ^ 2 - sin(x) * (y + 1) / 4 + max(x, y, 2)) * (1 < x <= 1e6 or not y == 0)";
+
+const SCRIPTS = [
+  "var a = 1; a = a + 1; var b = 3 + 1; a + b",
+  "1 < 2 <= 2 != 3; 2 == 2",
+  "var v = [1, 2i, 3]; var m = [1, 2; 3, 4]; [len(v), sum(v), m, -3i]",
+  "((5!) + 2 ^ -2 + 7 % 3 + sqrt(-4))",
+  "(0 and 1 / 0) or (1 or 1 / 0)",
+  "var t = 2; (t(3) + 3t)",
+  "print(2i * 2i)\n\n",
+];
+
+export function main() {
+  const interpreter = new BytecodeInterpreter();
+  for (const source of SCRIPTS) {
+    const program = lowerProgram(parseProgram(source));
+    const expected = outcome(() => new AstEvaluator().run(program));
+    const actual = outcome(() => interpreter.run(BytecodeCompiler.compile(program)));
+    if (expected !== actual) {
+      throw new Error(`${JSON.stringify(source)}: expected ${expected}, got ${actual}`);
+    }
+  }
+
+  const program = lowerProgram(parseProgram(FORMULA));
+  const bytecode = BytecodeCompiler.compile(program, ["x", "y"]);
+  console.log(disassemble(bytecode));
+
+  const variables = new Map<string, RuntimeValue>();
+  const iterations = 2000000;
+  const tree = measure("AstEvaluator", iterations, (x, y) => new AstEvaluator({ x, y }).run(program));
+  const flat = measure("BytecodeInterpreter", iterations, (x, y) => {
+    variables.set("x", x);
+    variables.set("y", y);
+    return interpreter.runWith(bytecode, variables);
+  });
+  console.log(`speedup: ${(flat / tree).toFixed(1)}x`);
+}
+
+main();
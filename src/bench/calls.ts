@@ -0,0 +1,66 @@
+import { AstEvaluator } from "../ast/evaluator";
+import { lowerProgram } from "../ast/lower";
+import { FormulaCache } from "../compiler/formula-cache";
+import { resolveCalls } from "../optimizer/call-resolution";
+import { parseProgram } from "../parser/front-end";
+import { SymbolTable } from "../runtime/symbols";
+import { RuntimeValue, stringify } from "../runtime/values";
+import { measure, outcome } from "./harness";
+
+// ID(expr) 在运行时判断是函数调用还是乘法, 与编译期按符号表解析后的对比
+
+const FORMULA = "(k(x + 1) + k(y - 1) * m(x * y) - k(m(x)) + m(k(2) + sin(x)) + n(y))";
+
+const SCRIPTS = [
+  "var a = 2; (a(3) + a(a(2)))",
+  "(b(3) + 1)",
+  "var c = [1, 2]; (c(2) + abs(-2))",
+  "(d(1)); var d = 4",
+];
+
+export function main() {
+  // 解析结果与运行时判断一致, 包括无法解析时的错误
+  for (const source of SCRIPTS) {
+    const program = lowerProgram(parseProgram(source));
+    const expected = outcome(() => new AstEvaluator().run(program));
+    const actual = outcome(() => new AstEvaluator().run(resolveCalls(program, new SymbolTable())));
+    if (expected !== actual) {
+      throw new Error(`${JSON.stringify(source)}: expected ${expected}, got ${actual}`);
+    }
+  }
+
+  const symbols = new SymbolTable(["k", "m", "n", "x", "y"]);
+  const dynamic = new FormulaCache();
+  const resolved = new FormulaCache(16, symbols);
+  const variables = new Map<string, RuntimeValue>([
+    ["k", 1.5],
+    ["m", -0.25],
+    ["n", 3],
+  ]);
+  const run = (cache: FormulaCache) => (x: number, y: number) => {
+    variables.set("x", x);
+    variables.set("y", y);
+    return cache.get(FORMULA).runWith(variables);
+  };
+  for (let i = 0; i < 1000; i += 1) {
+    const expected = stringify(run(dynamic)(i, i / 7)!);
+    const actual = stringify(run(resolved)(i, i / 7)!);
+    if (expected !== actual) {
+      throw new Error(`results differ for x=${i}: ${expected} vs ${actual}`);
+    }
+  }
+
+  const iterations = 2000000;
+  const before = measure("runtime dispatch", iterations, run(dynamic));
+  const after = measure("resolved", iterations, run(resolved));
+  console.log(`speedup: ${(after / before).toFixed(1)}x`);
+
+  // 普通变量不会使已编译的公式失效, 与内置函数同名的变量才会
+  symbols.define("rate");
+  resolved.get(FORMULA);
+  symbols.define("sin");
+  resolved.get(FORMULA);
+  console.log(`generation ${symbols.generation}, cache ${JSON.stringify(resolved.stats)}`);
+}
+
+main();
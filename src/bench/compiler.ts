@@ -0,0 +1,37 @@
+import { AstEvaluator } from "../ast/evaluator";
+import { lowerProgram } from "../ast/lower";
+import { JsCompiler } from "../compiler/js-compiler";
+import { parseProgram } from "../parser/front-end";
+import { RuntimeValue, stringify } from "../runtime/values";
+import { measure } from "./harness";
+
+// 同一个公式在不断变化的变量下反复求值: 对比遍历 AST 与编译后的 JS 函数
+
+const FORMULA = "(3x + y ^ 2 - sin(x) * (y + 1) / 4 + max(x, y, 2)) * (1 < x <= 1e6 or not y == 0)";
+
+export function main() {
+  const program = lowerProgram(parseProgram(FORMULA));
+  const compiled = JsCompiler.compile(program);
+  const variables = new Map<string, RuntimeValue>();
+
+  const interpret = (x: number, y: number) => new AstEvaluator({ x, y }).run(program);
+  const execute = (x: number, y: number) => {
+    variables.set("x", x);
+    variables.set("y", y);
+    return compiled.runWith(variables);
+  };
+  for (let i = 0; i < 1000; i += 1) {
+    const expected = stringify(interpret(i, i / 7)!);
+    const actual = stringify(execute(i, i / 7)!);
+    if (expected !== actual) {
+      throw new Error(`results differ for x=${i}: ${expected} vs ${actual}`);
+    }
+  }
+
+  const iterations = 2000000;
+  const tree = measure("AstEvaluator", iterations, interpret);
+  const js = measure("JsCompiler", iterations, execute);
+  console.log(`speedup: ${(js / tree).toFixed(1)}x`);
+}
+
+main();
@@ -0,0 +1,116 @@
+import { cpus } from "os";
+import { AstEvaluator } from "../ast/evaluator";
+import { lowerProgram } from "../ast/lower";
+import { Program } from "../ast/nodes";
+import { buildDependencyGraph, DataflowScheduler } from "../parallel/dataflow-scheduler";
+import { WorkerPool } from "../parallel/worker-pool";
+import { parseProgram } from "../parser/front-end";
+import { RuntimeValue, stringify } from "../runtime/values";
+import { outcome, outcomeAsync, timed, timedAsync } from "./harness";
+
+// 扇出很宽的脚本: 许多互不依赖的昂贵定义, 最后汇总. 数据流调度的耗时应接近最长依赖链而不是语句总数;
+// 由廉价定义组成的普通脚本不应因为调度而变慢
+
+const WIDTH = 64;
+
+function heavyScript(): string {
+  const lines: string[] = [];
+  for (let i = 0; i < WIDTH; i += 1) {
+    // 整数指数按逐次相乘计算, 每条定义都要做上百万次复数乘法
+    lines.push(`var v${i} = 1.0000001 ^ ${1000000 + i * 1000}`);
+    if (i % 8 === 7) {
+      lines.push(`print(v${i} - v${i - 1})`);
+    }
+  }
+  lines.push(`var total = ${Array.from({ length: WIDTH }, (_, i) => `v${i}`).join(" + ")}`);
+  lines.push("print(total)");
+  lines.push("total / 64");
+  return lines.join("\n");
+}
+
+function cheapScript(count: number): string {
+  const lines: string[] = ["var c0 = 1.5"];
+  for (let i = 1; i < count; i += 1) {
+    const a = `c${i - 1}`;
+    const b = `c${Math.max(0, i - 7)}`;
+    lines.push(i % 3 === 0 ? `var c${i} = ${a} * 0.5 + ${b} / 3 - sin(${a})` : `var c${i} = (${b} + ${i}) % 97`);
+  }
+  return lines.join("\n");
+}
+
+// 顺序执行与并行执行的输出、变量和错误必须完全一致
+const CHECKS = [
+  "var a = 1; var b = a + 1; print(b); a = 5; var c = a * b; print(c); c",
+  "var a = 2; print(a); var b = 1 / 0; print(3); var d = 4",
+  "var a = 1; var a = 2",
+  "print(1); x = 3",
+  "var k = 3; var m = k(2) + 1; print(m); m",
+];
+
+interface Observed {
+  readonly output: string[];
+  readonly variables: string;
+  readonly result: string;
+}
+
+function observed(output: string[], variables: Map<string, RuntimeValue>, result: string): Observed {
+  return { output, variables: [...variables].map(([name, value]) => `${name}=${stringify(value)}`).join(","), result };
+}
+
+function sequential(program: Program): Observed {
+  const output: string[] = [];
+  const variables = new Map<string, RuntimeValue>();
+  const result = outcome(() => new AstEvaluator(undefined, variables, (line) => output.push(line)).run(program));
+  return observed(output, variables, result);
+}
+
+async function parallel(scheduler: DataflowScheduler, program: Program): Promise<Observed> {
+  const output: string[] = [];
+  const variables = new Map<string, RuntimeValue>();
+  const result = await outcomeAsync(() => scheduler.run(program, variables, (line) => output.push(line)));
+  return observed(output, variables, result);
+}
+
+function compare(source: string, expected: Observed, actual: Observed): void {
+  const left = JSON.stringify(expected);
+  const right = JSON.stringify(actual);
+  if (left !== right) {
+    throw new Error(`${JSON.stringify(source.slice(0, 60))}: expected ${left}, got ${right}`);
+  }
+}
+
+async function time(label: string, scheduler: DataflowScheduler, source: string): Promise<void> {
+  const program = lowerProgram(parseProgram(source));
+  const graph = buildDependencyGraph(program);
+  const [expected, serialMillis] = timed(() => sequential(program));
+  const [actual, parallelMillis] = await timedAsync(() => parallel(scheduler, program));
+  compare(source, expected, actual);
+  console.log(
+    `${label.padEnd(8)} ${String(graph.nodes.length).padStart(6)} statements, critical path ${String(graph.criticalPath).padStart(5)}: ` +
+      `sequential ${serialMillis.toFixed(1)} ms, dataflow ${parallelMillis.toFixed(1)} ms (${(serialMillis / parallelMillis).toFixed(1)}x)`,
+  );
+}
+
+export async function main() {
+  const pool = new WorkerPool(cpus().length);
+  try {
+    // inlineCost 为 0 时每条链都交给线程池, 检查提交顺序; 默认配置下检查本线程路径
+    for (const scheduler of [new DataflowScheduler(pool, { inlineCost: 0 }), new DataflowScheduler(pool)]) {
+      for (const source of CHECKS) {
+        const program = lowerProgram(parseProgram(source));
+        compare(source, sequential(program), await parallel(scheduler, program));
+      }
+    }
+
+    const scheduler = new DataflowScheduler(pool);
+    console.log(`${pool.size} threads`);
+    await time("heavy", scheduler, heavyScript());
+    // 常见的情况: 大量廉价定义, 应在本线程顺序执行, 不比直接求值慢
+    await time("cheap", scheduler, cheapScript(20000));
+    await time("mixed", scheduler, `${heavyScript()}\n${cheapScript(20000)}`);
+  } finally {
+    await pool.close();
+  }
+}
+
+main();
@@ -0,0 +1,74 @@
+import { parseDecimal } from "../parser/decimal-literal";
+import { rate, repeat } from "./harness";
+
+// 对比 parseDecimal 与 Number(substring) 解析 DECIMAL_LITERAL 的速度
+
+// 生成的脚本中常见的字面量形状: 短小数、科学计数法、长尾数
+function buildLiterals(count: number): string {
+  const parts: string[] = [];
+  for (let i = 0; i < count; i += 1) {
+    switch (i % 5) {
+      case 0:
+        parts.push(`${i % 1000}.25`);
+        break;
+      case 1:
+        parts.push(`${(i % 97) + 1}e-${i % 12}`);
+        break;
+      case 2:
+        parts.push(String(Math.sin(i)).replace("-", ""));
+        break;
+      case 3:
+        parts.push(String(i));
+        break;
+      default:
+        parts.push(`.${i % 10000}`);
+        break;
+    }
+  }
+  return parts.join(",");
+}
+
+function boundaries(source: string): Int32Array {
+  const ends: number[] = [];
+  for (let i = source.indexOf(","); i >= 0; i = source.indexOf(",", i + 1)) {
+    ends.push(i);
+  }
+  ends.push(source.length);
+  return Int32Array.from(ends);
+}
+
+export function main() {
+  const count = 1000000;
+  const source = buildLiterals(count);
+  const ends = boundaries(source);
+
+  for (let i = 0, start = 0; i < ends.length; start = ends[i] + 1, i += 1) {
+    const expected = Number(source.substring(start, ends[i]));
+    if (!Object.is(parseDecimal(source, start, ends[i]), expected)) {
+      throw new Error(`literal ${source.substring(start, ends[i])} differs`);
+    }
+  }
+
+  const rounds = 10;
+  const decode = (label: string, run: () => number) => {
+    const [sink, millis] = repeat(rounds, run);
+    return rate(label, count * rounds, millis, "literals", `(checksum ${sink.toPrecision(6)})`);
+  };
+  const number = decode("Number()", () => {
+    let sum = 0;
+    for (let i = 0, start = 0; i < ends.length; start = ends[i] + 1, i += 1) {
+      sum += Number(source.substring(start, ends[i]));
+    }
+    return sum;
+  });
+  const fast = decode("parseDecimal", () => {
+    let sum = 0;
+    for (let i = 0, start = 0; i < ends.length; start = ends[i] + 1, i += 1) {
+      sum += parseDecimal(source, start, ends[i]);
+    }
+    return sum;
+  });
+  console.log(`speedup: ${(fast / number).toFixed(1)}x`);
+}
+
+main();
@@ -0,0 +1,103 @@
+import { cpus } from "os";
+import { RuntimeValue, stringify } from "../runtime/values";
+
+// 各个基准共用的计时与比对工具
+
+// 执行一次 run, 返回结果与耗时 (毫秒)
+export function timed<T>(run: () => T): [T, number] {
+  const begin = process.hrtime.bigint();
+  const value = run();
+  return [value, Number(process.hrtime.bigint() - begin) / 1e6];
+}
+
+export async function timedAsync<T>(run: () => Promise<T>): Promise<[T, number]> {
+  const begin = process.hrtime.bigint();
+  const value = await run();
+  return [value, Number(process.hrtime.bigint() - begin) / 1e6];
+}
+
+// 预热一次后连续执行 rounds 次, 返回这 rounds 次结果之和 (token 数、校验和等) 与总耗时 (毫秒)
+export function repeat(rounds: number, run: () => number): [number, number] {
+  run();
+  return timed(() => {
+    let total = 0;
+    for (let i = 0; i < rounds; i += 1) {
+      total += run();
+    }
+    return total;
+  });
+}
+
+// 按统一的列宽打印一行结果, note 附在行尾 (校验和、第二个指标等)
+export function report(label: string, value: number, unit: string, note = ""): number {
+  console.log(`${label.padEnd(20)} ${value.toFixed(2)} ${unit}${note ? `  ${note}` : ""}`);
+  return value;
+}
+
+// count 个 unit 用时 millis 毫秒, 打印并返回每秒处理的百万个数
+export function rate(label: string, count: number, millis: number, unit: string, note = ""): number {
+  return report(label, count / millis / 1e3, `M ${unit}/s`, note);
+}
+
+// 从 first 开始按 2 的倍数增加到核数的线程数序列, 用于输出扩展曲线
+export function threadCounts(first = 1): number[] {
+  const counts: number[] = [];
+  for (let threads = first; threads < cpus().length; threads *= 2) {
+    counts.push(threads);
+  }
+  counts.push(cpus().length);
+  return counts;
+}
+
+// 每次迭代用同一组输入 x = i % 1000 + firstX, y = (i % 17) / 4 调用 run, 打印每秒求值次数;
+// 结果累加进校验和, 防止求值被当作无用代码优化掉
+export function measure(
+  label: string,
+  iterations: number,
+  run: (x: number, y: number, i: number) => RuntimeValue | undefined,
+  firstX = 0,
+): number {
+  const [checksum, millis] = timed(() => {
+    let sum = 0;
+    for (let i = 0; i < iterations; i += 1) {
+      const value = run((i % 1000) + firstX, (i % 17) / 4, i);
+      sum += typeof value === "number" ? value : 0;
+    }
+    return sum;
+  });
+  return rate(label, iterations, millis, "evals", `(checksum ${checksum.toPrecision(8)})`);
+}
+
+function failure(error: unknown): string {
+  return `error: ${(error as Error).message}`;
+}
+
+function describe(value: RuntimeValue | undefined): string {
+  return value === undefined ? "undefined" : stringify(value);
+}
+
+// 执行 run, 出错时返回错误信息字符串, 让两种实现的错误也能相互比较
+export function attempt<T>(run: () => T): T | string {
+  try {
+    return run();
+  } catch (error) {
+    return failure(error);
+  }
+}
+
+// 把一次执行的结果或错误转成可比较的字符串
+export function outcome(run: () => RuntimeValue | undefined): string {
+  try {
+    return describe(run());
+  } catch (error) {
+    return failure(error);
+  }
+}
+
+export async function outcomeAsync(run: () => Promise<RuntimeValue | undefined>): Promise<string> {
+  try {
+    return describe(await run());
+  } catch (error) {
+    return failure(error);
+  }
+}
@@ -0,0 +1,55 @@
+import { CharStreams, Token } from "antlr4ts";
+import { CalculatorLexer } from "../../generated/grammar/CalculatorLexer";
+import { TableLexer } from "../parser/table-lexer";
+import { rate, repeat } from "./harness";
+
+// 对比 ANTLR 生成的 CalculatorLexer 与表驱动 TableLexer 的吞吐量
+
+function buildScript(statements: number): string {
+  const lines: string[] = [];
+  for (let i = 0; i < statements; i += 1) {
+    lines.push(`var v${i} = [${i}.25, 3e-4, 0x${i.toString(16)}, 0b101] // row ${i}`);
+    lines.push(`print(sin(v${i} * 2.5) + max(${i}, 7) ^ 2 >= 1.5e3 and not 2i != 3);`);
+  }
+  return lines.join("\n");
+}
+
+function antlrTokens(source: string): Token[] {
+  const lexer = new CalculatorLexer(CharStreams.fromString(source));
+  const tokens: Token[] = [];
+  for (;;) {
+    const token = lexer.nextToken();
+    tokens.push(token);
+    if (token.type === Token.EOF) {
+      return tokens;
+    }
+  }
+}
+
+function verify(source: string): void {
+  const expected = antlrTokens(source);
+  const actual = TableLexer.tokenize(source);
+  if (expected.length !== actual.count) {
+    throw new Error(`token count differs: ${expected.length} vs ${actual.count}`);
+  }
+  expected.forEach((token, i) => {
+    if (token.type !== actual.types[i] || token.startIndex !== actual.starts[i] || token.stopIndex !== actual.stops[i] || token.line !== actual.lines[i]) {
+      throw new Error(`token ${i} differs: ${token.toString()}`);
+    }
+  });
+}
+
+export function main() {
+  const source = buildScript(20000);
+  verify(source);
+  const rounds = 5;
+  const lex = (label: string, run: () => number) => {
+    const [tokens, millis] = repeat(rounds, run);
+    return rate(label, tokens, millis, "tokens", `${((source.length * rounds) / millis / 1e3).toFixed(1)} MB/s`);
+  };
+  const antlr = lex("CalculatorLexer", () => antlrTokens(source).length);
+  const table = lex("TableLexer", () => TableLexer.tokenize(source).count);
+  console.log(`speedup: ${(table / antlr).toFixed(1)}x`);
+}
+
+main();
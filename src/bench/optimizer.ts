@@ -0,0 +1,82 @@
+import { AstEvaluator } from "../ast/evaluator";
+import { lowerProgram } from "../ast/lower";
+import { Program } from "../ast/nodes";
+import { BytecodeCompiler } from "../bytecode/compiler";
+import { BytecodeInterpreter } from "../bytecode/interpreter";
+import { JsCompiler } from "../compiler/js-compiler";
+import { DeadDefinitions } from "../optimizer/dead-definitions";
+import { defaultPasses, formatReports, Optimizer } from "../optimizer/optimizer";
+import { OptimizationPass } from "../optimizer/pass";
+import { parseProgram } from "../parser/front-end";
+import { RuntimeValue } from "../runtime/values";
+import { SpecializedProgram } from "../specializing/specialize";
+import { measure, outcome } from "./harness";
+
+// 优化前后结果必须一致 (包括运行时错误), 再看各个 pass 省下的节点数和字节码解释器的速度
+
+const SCRIPTS = [
+  "var a = 1.5; var b = 2; var unused = pi / 2 + 2 ^ 10 - 5!; (a + b) * (a + b) - (a + b) ^ 2",
+  "var x = 3; ((x - 1) ^ 3 + (x - 1) ^ -2 + x ^ 8 + (2i) ^ 2)",
+  "var x = 0; (x == 0 or 1 / x > 2) and (1 / x > 2 or true)",
+  "var y = 2; (1 < y + 1 < (y + 1) * 2 < (y + 1) ^ 2)",
+  "(1 / 0)",
+  "var z = (-1)!",
+  "var k = 1; k = 2; var dead = [1, 2; 3, 4]; sqrt(-4) + cos(0) + max(1, 2, k)",
+  "var q = 2; print(sin(q) + sin(q)); sin(q) == sin(q)",
+];
+
+const FORMULA = [
+  "var s = (sin(x) + cos(y)) ^ 2 / (sin(x) + cos(y) + 1)",
+  "var scale = e ^ 2 * pi / 180",
+  "var unused = 10!",
+  "(s * scale + (x + y) ^ 3 - (x + y) * (x + y) + 2 ^ 10)",
+].join("\n");
+
+// 这里只比较程序结果, 不读取执行后的变量表, 可以加入死定义删除
+function passes(externals: readonly string[] = []): OptimizationPass[] {
+  return [...defaultPasses(), new DeadDefinitions(externals)];
+}
+
+function check(source: string, original: Program, optimized: Program): void {
+  const expected = outcome(() => new AstEvaluator().run(original));
+  const backends: [string, () => RuntimeValue | undefined][] = [
+    ["AstEvaluator", () => new AstEvaluator().run(optimized)],
+    ["JsCompiler", () => JsCompiler.compile(optimized).run()],
+    ["SpecializedProgram", () => SpecializedProgram.from(optimized).run()],
+    ["BytecodeInterpreter", () => new BytecodeInterpreter().run(BytecodeCompiler.compile(optimized))],
+  ];
+  for (const [name, run] of backends) {
+    const actual = outcome(run);
+    if (actual !== expected) {
+      throw new Error(`${JSON.stringify(source)} (${name}): expected ${expected}, got ${actual}`);
+    }
+  }
+}
+
+export function main() {
+  const optimizer = new Optimizer(passes());
+  for (const source of SCRIPTS) {
+    const program = lowerProgram(parseProgram(source));
+    check(source, program, optimizer.optimize(program).program);
+    // 每个 pass 单独关闭时结果也必须一致
+    for (const name of optimizer.passNames) {
+      const partial = new Optimizer(passes()).setEnabled(name, false);
+      check(source, program, partial.optimize(program).program);
+    }
+  }
+
+  const program = lowerProgram(parseProgram(FORMULA));
+  const { program: optimized, reports } = new Optimizer(passes(["x", "y"])).optimize(program);
+  console.log(formatReports(reports));
+
+  const interpreter = new BytecodeInterpreter();
+  const before = BytecodeCompiler.compile(program, ["x", "y"]);
+  const after = BytecodeCompiler.compile(optimized, ["x", "y"]);
+  const iterations = 1000000;
+  const run = (bytecode: typeof before) => (x: number, y: number) => interpreter.run(bytecode, { x, y });
+  const plain = measure("unoptimized", iterations, run(before));
+  const fast = measure("optimized", iterations, run(after));
+  console.log(`speedup: ${(fast / plain).toFixed(1)}x`);
+}
+
+main();
@@ -0,0 +1,61 @@
+import { lowerProgram } from "../ast/lower";
+import { ParallelFrontEnd, splitChunks } from "../parallel/parallel-front-end";
+import { WorkerPool } from "../parallel/worker-pool";
+import { parseProgram } from "../parser/front-end";
+import { threadCounts, timed, timedAsync } from "./harness";
+
+// 几 MB 的脚本: 单线程解析与按语句边界分段并行解析对比, 拼接结果必须与整体解析完全相同
+
+function script(statements: number): string {
+  const lines: string[] = [];
+  for (let i = 0; i < statements; i += 1) {
+    switch (i % 5) {
+      case 0:
+        lines.push(`var v${i} = (${i} + 1) * 2 ^ 3 - sin(${i % 7}) / 4`);
+        break;
+      case 1:
+        // 方括号内的分号不是语句边界
+        lines.push(`var m${i} = [1, 2; 3, max(${i}, 4)]; var w${i} = (v${i - 1} + ${i})`);
+        break;
+      case 2:
+        lines.push(`/* 块注释中的 ; 和\n 换行 */ print(v${i - 2} % 7 == 3 or ${i} > 10)`);
+        break;
+      case 3:
+        lines.push(`v${i - 3} = v${i - 3} + 1 // 行注释; 也不是边界`);
+        break;
+      default:
+        lines.push("");
+        break;
+    }
+  }
+  return lines.join("\n");
+}
+
+export async function main() {
+  const source = script(100000);
+  // 分段拼接后必须还原出原文
+  if (splitChunks(source, 16).map((chunk) => chunk.source).join("") !== source) {
+    throw new Error("Chunks do not reproduce the source");
+  }
+
+  const [expected, serial] = timed(() => JSON.stringify(lowerProgram(parseProgram(source))));
+  console.log(`${(source.length / 1e6).toFixed(1)} MB, single thread ${serial.toFixed(0)} ms`);
+
+  for (const threads of threadCounts(2)) {
+    const pool = new WorkerPool(threads);
+    try {
+      const frontEnd = new ParallelFrontEnd(pool);
+      // 预热: 每个线程建立 DFA 缓存并完成 JIT
+      await frontEnd.parse(source);
+      const [program, millis] = await timedAsync(() => frontEnd.parse(source));
+      if (JSON.stringify(program) !== expected) {
+        throw new Error(`${threads} threads: stitched program differs from a single parse`);
+      }
+      console.log(`${String(threads).padStart(3)} threads ${millis.toFixed(0).padStart(7)} ms  (${(serial / millis).toFixed(1)}x)`);
+    } finally {
+      await pool.close();
+    }
+  }
+}
+
+main();
@@ -0,0 +1,69 @@
+import { lowerProgram } from "../ast/lower";
+import { BatchCompiler } from "../batch/batch-compiler";
+import { WorkerPool } from "../parallel/worker-pool";
+import { parseProgram } from "../parser/front-end";
+import { threadCounts, timedAsync } from "./harness";
+
+// 线程数从 1 翻倍到核数, 分别测按列求值和独立脚本的吞吐, 输出扩展曲线
+
+const FORMULA = "(3a + b ^ 2 - sin(c) + sqrt(abs(a - c)) / (b + 1))";
+
+function columns(rows: number): Record<string, Float64Array> {
+  const a = new Float64Array(new SharedArrayBuffer(rows * 8));
+  const b = new Float64Array(new SharedArrayBuffer(rows * 8));
+  const c = new Float64Array(new SharedArrayBuffer(rows * 8));
+  for (let i = 0; i < rows; i += 1) {
+    a[i] = i % 1000;
+    b[i] = (i % 17) / 4;
+    c[i] = Math.sin(i) * 10;
+  }
+  return { a, b, c };
+}
+
+function scripts(count: number): string[] {
+  return Array.from({ length: count }, (_, i) => `var x = ${i % 97}; var y = x ^ 3 - ${i} / 7; max(x, y, 2) - min(x, y) + sin(y) * (x + 1)!`);
+}
+
+export async function main() {
+  const rows = 8000000;
+  const input = columns(rows);
+  const expected = BatchCompiler.compile(lowerProgram(parseProgram(FORMULA)), Object.keys(input)).evaluate(input);
+  const work = scripts(20000);
+
+  let baseRows = 0;
+  let baseScripts = 0;
+  console.log("threads    M rows/s  speedup    scripts/s  speedup");
+  for (const threads of threadCounts()) {
+    const pool = new WorkerPool(threads);
+    try {
+      // 预热: 让每个线程完成编译和 JIT
+      await pool.evaluateColumns(FORMULA, columns(threads * 65536));
+      await pool.runScripts(work.slice(0, threads * 100));
+
+      const [output, rowMillis] = await timedAsync(() => pool.evaluateColumns(FORMULA, input));
+      const rowRate = rows / rowMillis / 1e3;
+      for (let i = 0; i < rows; i += 1) {
+        if (!Object.is(output[i], expected[i])) {
+          throw new Error(`${threads} threads, row ${i}: expected ${expected[i]}, got ${output[i]}`);
+        }
+      }
+
+      const [results, scriptMillis] = await timedAsync(() => pool.runScripts(work));
+      const scriptRate = work.length / (scriptMillis / 1e3);
+      if (results.length !== work.length || results.some((result) => result.error !== undefined)) {
+        throw new Error(`${threads} threads: scripts failed`);
+      }
+
+      baseRows ||= rowRate;
+      baseScripts ||= scriptRate;
+      console.log(
+        `${String(threads).padStart(7)} ${rowRate.toFixed(2).padStart(11)} ${(rowRate / baseRows).toFixed(2).padStart(7)}x ` +
+          `${scriptRate.toFixed(0).padStart(12)} ${(scriptRate / baseScripts).toFixed(2).padStart(7)}x`,
+      );
+    } finally {
+      await pool.close();
+    }
+  }
+}
+
+main();
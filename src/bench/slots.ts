@@ -0,0 +1,60 @@
+import { AstEvaluator } from "../ast/evaluator";
+import { lowerProgram } from "../ast/lower";
+import { BytecodeCompiler } from "../bytecode/compiler";
+import { Frame } from "../bytecode/frame";
+import { BytecodeInterpreter } from "../bytecode/interpreter";
+import { parseProgram } from "../parser/front-end";
+import { RuntimeValue } from "../runtime/values";
+import { measure } from "./harness";
+
+// 变量密集的公式: 按名字查 Map 与按槽位读变量帧的对比
+
+const INPUTS = ["a", "b", "c", "d", "x", "y"];
+
+const FORMULA = [
+  "var s = a * x + b * y + c",
+  "var t = (s - d) / (a + b + c + d)",
+  "(s * t + x * y - a * b + c * d + (x + a) * (y + b) - t / (1 + x * x + y * y))",
+].join("\n");
+
+function input(i: number, k: number): number {
+  return ((i + k * 7) % 101) / 8;
+}
+
+export function main() {
+  // 未定义的标识符在编译时就报错, 而不是执行到一半
+  try {
+    BytecodeCompiler.compile(lowerProgram(parseProgram("var a = 1; print(a); a + missing")));
+    throw new Error("expected a compile-time error");
+  } catch (error) {
+    console.log(`compile error: ${(error as Error).message}`);
+  }
+
+  const program = lowerProgram(parseProgram(FORMULA));
+  const bytecode = BytecodeCompiler.compile(program, INPUTS);
+  const interpreter = new BytecodeInterpreter();
+  const frame = new Frame(bytecode.names);
+  const inputSlots = INPUTS.map((name) => frame.slotOf(name));
+
+  const variables = new Map<string, RuntimeValue>();
+  const iterations = 1000000;
+  const tree = measure("AstEvaluator", iterations / 4, (_x, _y, i) => {
+    const values: Record<string, RuntimeValue> = {};
+    INPUTS.forEach((name, k) => (values[name] = input(i, k)));
+    return new AstEvaluator(values).run(program);
+  });
+  const byName = measure("runWith (Map)", iterations, (_x, _y, i) => {
+    variables.clear();
+    INPUTS.forEach((name, k) => variables.set(name, input(i, k)));
+    return interpreter.runWith(bytecode, variables);
+  });
+  const bySlot = measure("runFrame (slots)", iterations, (_x, _y, i) => {
+    // s/t 由程序 var 定义, 每次运行前清空整个帧
+    frame.clear();
+    inputSlots.forEach((slot, k) => frame.setReal(slot, input(i, k)));
+    return interpreter.runFrame(bytecode, frame);
+  });
+  console.log(`slots vs map: ${(bySlot / byName).toFixed(1)}x, slots vs AST: ${(bySlot / tree).toFixed(1)}x`);
+}
+
+main();
@@ -0,0 +1,51 @@
+import { AstEvaluator } from "../ast/evaluator";
+import { lowerProgram } from "../ast/lower";
+import { parseProgram } from "../parser/front-end";
+import { SpecializedProgram } from "../specializing/specialize";
+import { RuntimeValue, stringify } from "../runtime/values";
+import { measure } from "./harness";
+
+// 纯实数公式: 对比通用 AST 求值 (每步都提升为复数对象) 与自我特化的节点树
+
+const FORMULA = "(3x + y ^ 2 - sin(x) * (y + 1) / 4 - sqrt(y)) * (1 < x <= 1e6)";
+
+// 这些输入会让节点改写为通用特化, 结果必须仍与参考实现一致
+const MIXED_INPUTS: Record<string, RuntimeValue>[] = [
+  { x: 2, y: -4 },
+  { x: 2, y: { kind: "complex", real: 0, imag: 2 } },
+  { x: true, y: 3 },
+  { x: 1e308, y: 1e308 },
+];
+
+function check(source: string, inputs: Record<string, RuntimeValue>[]): void {
+  const program = lowerProgram(parseProgram(source));
+  const specialized = SpecializedProgram.from(program);
+  for (const input of inputs) {
+    const expected = stringify(new AstEvaluator(input).run(program)!);
+    const actual = stringify(specialized.run(input)!);
+    if (expected !== actual) {
+      throw new Error(`${source} with ${JSON.stringify(input)}: expected ${expected}, got ${actual}`);
+    }
+  }
+}
+
+export function main() {
+  const realInputs = Array.from({ length: 200 }, (_, i) => ({ x: i / 3, y: (i % 17) / 4 }));
+  check(FORMULA, realInputs);
+  check(FORMULA, [...realInputs, ...MIXED_INPUTS, ...realInputs]);
+  check("[2i * 2i, sqrt(-4) + 1, -x, x / 2i, 5! - x ^ 2]", [{ x: 3 }, { x: { kind: "complex", real: 1, imag: 1 } }, { x: 3 }]);
+
+  const program = lowerProgram(parseProgram(FORMULA));
+  const specialized = SpecializedProgram.from(program);
+  const frame = new Map<string, RuntimeValue>();
+  const iterations = 2000000;
+  const generic = measure("AstEvaluator", iterations, (x, y) => new AstEvaluator({ x, y }).run(program), 2);
+  const real = measure("SpecializedProgram", iterations, (x, y) => {
+    frame.set("x", x);
+    frame.set("y", y);
+    return specialized.runWith(frame);
+  }, 2);
+  console.log(`speedup: ${(real / generic).toFixed(1)}x`);
+}
+
+main();
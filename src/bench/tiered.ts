@@ -0,0 +1,62 @@
+import { Tier, TieredEngine } from "../engine/tiered-engine";
+import { RuntimeValue } from "../runtime/values";
+import { report, timedAsync } from "./harness";
+
+// 大量只执行几次的冷公式加少量热公式: 分层执行在冷公式上不付编译开销, 热公式最终跑编译后的代码
+
+const HOT = ["((sin(x) + cos(y)) ^ 2 / (sin(x) + cos(y) + 1))", "(x * y + sqrt(x + 1) - max(x, y, 3) % 7)"];
+
+function cold(i: number): string {
+  return `(x * ${i} + y / ${i + 1} - ${i % 7} ^ 2)`;
+}
+
+async function evaluateAll(engine: TieredEngine, rounds: number): Promise<number> {
+  let checksum = 0;
+  for (let round = 0; round < rounds; round += 1) {
+    const variables = new Map<string, RuntimeValue>([
+      ["x", round % 1000],
+      ["y", (round % 17) / 4],
+    ]);
+    for (const source of HOT) {
+      const value = engine.evaluate(source, variables);
+      checksum += typeof value === "number" ? value : 0;
+    }
+    if (round % 10 === 0) {
+      const value = engine.evaluate(cold(round), variables);
+      checksum += typeof value === "number" ? value : 0;
+    }
+    // 让出事件循环, 后台提升才有机会执行
+    if (round % 1000 === 0) {
+      await new Promise((resolve) => setImmediate(resolve));
+    }
+  }
+  return checksum;
+}
+
+async function run(label: string, engine: TieredEngine, rounds: number): Promise<number> {
+  const [checksum, millis] = await timedAsync(() => evaluateAll(engine, rounds));
+  return report(label, millis, "ms", `(checksum ${checksum.toPrecision(8)})`);
+}
+
+export async function main() {
+  const rounds = 200000;
+  const interpreted = await run("interpreted", new TieredEngine({ threshold: Number.MAX_SAFE_INTEGER }), rounds);
+  const eager = await run("always compiled", new TieredEngine({ threshold: 1, background: false }), rounds);
+  const engine = new TieredEngine({ threshold: 1000 });
+  const tiered = await run("tiered", engine, rounds);
+  console.log(`tiered vs interpreted: ${(interpreted / tiered).toFixed(1)}x, vs always compiled: ${(eager / tiered).toFixed(1)}x`);
+
+  const metrics = engine.metrics;
+  console.log(
+    `formulas ${metrics.formulas} (${metrics.evictions} evicted), compiled ${metrics.compiled}, promotions ${metrics.promotions}, failures ${metrics.failures}, ` +
+      `compile ${metrics.compileMillis.toFixed(2)} ms, promotion latency ${metrics.promotionMillis.toFixed(2)} ms`,
+  );
+  for (const formula of engine.formulaMetrics().filter((entry) => entry.tier === Tier.Compiled)) {
+    console.log(
+      `  ${formula.source}: promoted at ${formula.promotedAt}/${formula.invocations}, ` +
+        `compile ${formula.compileMillis.toFixed(2)} ms, latency ${formula.promotionMillis.toFixed(2)} ms`,
+    );
+  }
+}
+
+main();
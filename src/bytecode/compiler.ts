@@ -0,0 +1,296 @@
+import { BinaryOperator, childrenOf, CompareOperator, Expr, Node, NodeKind, Program, Statement, UnaryOperator } from "../ast/nodes";
+import { resolveCalls } from "../optimizer/call-resolution";
+import { CONSTANTS, REGISTRY } from "../runtime/builtins";
+import { SymbolTable } from "../runtime/symbols";
+import { RuntimeValue } from "../runtime/values";
+import { Op, OPCODES } from "./opcodes";
+
+// 编译结果只包含类型化数组和普通数据, 可以缓存, 也可以通过 postMessage 原样传给 worker.
+// names 的下标就是变量帧的槽位, 外部传入的变量排在最前面
+export interface BytecodeProgram {
+  readonly code: Int32Array;
+  readonly numbers: Float64Array;
+  readonly values: readonly RuntimeValue[];
+  readonly names: readonly string[];
+  readonly registerCount: number;
+}
+
+// 寄存器 0 保存语句结果, 临时寄存器从 1 开始, 每条语句结束后全部释放
+const RESULT_REGISTER = 0;
+
+const BINARY_OPS: Readonly<Record<BinaryOperator, Op>> = {
+  [BinaryOperator.Add]: Op.Add,
+  [BinaryOperator.Subtract]: Op.Subtract,
+  [BinaryOperator.Multiply]: Op.Multiply,
+  [BinaryOperator.Divide]: Op.Divide,
+  [BinaryOperator.Modulo]: Op.Modulo,
+  [BinaryOperator.Power]: Op.Power,
+  [BinaryOperator.And]: Op.JumpIfFalse,
+  [BinaryOperator.Or]: Op.JumpIfTrue,
+};
+
+const COMPARE_OPS: Readonly<Record<CompareOperator, Op>> = {
+  [CompareOperator.Equal]: Op.Equal,
+  [CompareOperator.NotEqual]: Op.NotEqual,
+  [CompareOperator.Less]: Op.Less,
+  [CompareOperator.LessEqual]: Op.LessEqual,
+  [CompareOperator.Greater]: Op.Greater,
+  [CompareOperator.GreaterEqual]: Op.GreaterEqual,
+};
+
+const UNARY_OPS: Readonly<Record<UnaryOperator, Op>> = {
+  [UnaryOperator.Negate]: Op.Negate,
+  [UnaryOperator.Not]: Op.Not,
+  [UnaryOperator.Factorial]: Op.Factorial,
+};
+
+export class BytecodeCompiler {
+  private code = new Int32Array(256);
+  private length = 0;
+  private readonly numbers: number[] = [];
+  private readonly numberIndex = new Map<number, number>();
+  private readonly values: RuntimeValue[] = [];
+  private readonly names: string[] = [];
+  private readonly nameIndex = new Map<string, number>();
+  // 临时槽位 -> 寄存器, 只在所在语句内有效
+  private readonly slots = new Map<number, number>();
+  private nextRegister = RESULT_REGISTER + 1;
+  private registerCount = RESULT_REGISTER + 1;
+  // 外部变量和程序中 var 定义的名字; 其余标识符在编译期就能确定未定义
+  private readonly variables: Set<string>;
+
+  private constructor(externals: readonly string[]) {
+    externals.forEach((name) => this.name(name));
+    this.variables = new Set(externals);
+  }
+
+  // externals: 运行时由调用方提供的变量名. 能确定的 name(x) 先改写成内置调用或乘法
+  public static compile(program: Program, externals: readonly string[] = []): BytecodeProgram {
+    return new BytecodeCompiler(externals).compileProgram(resolveCalls(program, new SymbolTable(externals)));
+  }
+
+  private compileProgram(program: Program): BytecodeProgram {
+    for (const statement of program.statements) {
+      if (statement.kind === NodeKind.Define) {
+        this.variables.add(statement.name);
+      }
+    }
+    for (const statement of program.statements) {
+      this.reserveSlots(statement);
+      this.compileStatement(statement);
+      this.slots.clear();
+      this.nextRegister = RESULT_REGISTER + 1;
+    }
+    this.emit(Op.Halt);
+    return {
+      code: this.code.slice(0, this.length),
+      numbers: Float64Array.from(this.numbers),
+      values: this.values,
+      names: this.names,
+      registerCount: this.registerCount,
+    };
+  }
+
+  private compileStatement(statement: Statement): void {
+    switch (statement.kind) {
+      case NodeKind.Define:
+      case NodeKind.Assign: {
+        if (statement.kind === NodeKind.Assign && !this.variables.has(statement.name)) {
+          throw new Error(`Variable '${statement.name}' is not defined`);
+        }
+        const name = this.name(statement.name);
+        this.emit(statement.kind === NodeKind.Define ? Op.CheckUndefined : Op.CheckDefined, name);
+        const value = this.allocate();
+        this.compileExpr(statement.value, value);
+        this.emit(Op.StoreVariable, name, value);
+        this.emit(Op.Result, value);
+        return;
+      }
+      case NodeKind.Equation: {
+        const left = this.allocate();
+        const right = this.allocate();
+        this.compileExpr(statement.left, left);
+        this.compileExpr(statement.right, right);
+        this.emit(Op.Equal, left, left, right);
+        this.emit(Op.Result, left);
+        return;
+      }
+      case NodeKind.Print:
+      case NodeKind.ExprStmt: {
+        const value = this.allocate();
+        this.compileExpr(statement.value, value);
+        if (statement.kind === NodeKind.Print) {
+          this.emit(Op.Print, value);
+        }
+        this.emit(Op.Result, value);
+        return;
+      }
+      case NodeKind.Empty:
+        this.emit(Op.ClearResult);
+        return;
+    }
+  }
+
+  // Bind 的值要活到语句结束, 在语句开始前为每个槽位固定一个寄存器
+  private reserveSlots(node: Node): void {
+    if (node.kind === NodeKind.Bind) {
+      this.slots.set(node.slot, this.allocate());
+    }
+    childrenOf(node).forEach((child) => this.reserveSlots(child));
+  }
+
+  // 把表达式的值计算到 target 寄存器, 期间使用的临时寄存器在返回前释放
+  private compileExpr(expr: Expr, target: number): void {
+    const mark = this.nextRegister;
+    switch (expr.kind) {
+      case NodeKind.Literal:
+        if (typeof expr.value === "number") {
+          this.emit(Op.LoadNumber, target, this.number(expr.value));
+        } else {
+          this.values.push(expr.value);
+          this.emit(Op.LoadValue, target, this.values.length - 1);
+        }
+        break;
+      case NodeKind.VarRef: {
+        // 变量优先于常量; 不可能是变量的 pi/e 直接折叠成数值
+        const constant = CONSTANTS.get(expr.name);
+        if (this.variables.has(expr.name)) {
+          this.emit(Op.LoadVariable, target, this.name(expr.name));
+        } else if (constant !== undefined) {
+          this.emit(Op.LoadNumber, target, this.number(constant));
+        } else {
+          throw new Error(`Identifier '${expr.name}' is not defined`);
+        }
+        break;
+      }
+      case NodeKind.UnaryOp:
+        this.compileExpr(expr.operand, target);
+        this.emit(UNARY_OPS[expr.operator], target, target);
+        break;
+      case NodeKind.BinaryOp: {
+        this.compileExpr(expr.left, target);
+        if (expr.operator === BinaryOperator.And || expr.operator === BinaryOperator.Or) {
+          // 左操作数已经决定结果时跳过右操作数
+          this.emit(Op.Truthy, target, target);
+          const jump = this.emit(BINARY_OPS[expr.operator], target, -1);
+          this.compileExpr(expr.right, target);
+          this.emit(Op.Truthy, target, target);
+          this.patch(jump);
+          break;
+        }
+        const right = this.allocate();
+        this.compileExpr(expr.right, right);
+        this.emit(BINARY_OPS[expr.operator], target, target, right);
+        break;
+      }
+      case NodeKind.CompareChain: {
+        const current = this.allocate();
+        const next = this.allocate();
+        const exits: number[] = [];
+        this.compileExpr(expr.operands[0], current);
+        expr.operators.forEach((operator, i) => {
+          this.compileExpr(expr.operands[i + 1], next);
+          this.emit(COMPARE_OPS[operator], target, current, next);
+          if (i < expr.operators.length - 1) {
+            exits.push(this.emit(Op.JumpIfFalse, target, -1));
+            this.emit(Op.Move, current, next);
+          }
+        });
+        exits.forEach((jump) => this.patch(jump));
+        break;
+      }
+      case NodeKind.Call: {
+        if (!REGISTRY.has(expr.name) && (expr.args.length !== 1 || (!this.variables.has(expr.name) && !CONSTANTS.has(expr.name)))) {
+          throw new Error(`Unknown function '${expr.name}'`);
+        }
+        const first = this.compileList(expr.args);
+        this.emit(Op.Call, target, this.name(expr.name), first, expr.args.length);
+        break;
+      }
+      case NodeKind.VectorLit: {
+        const first = this.compileList(expr.items);
+        this.emit(Op.Vector, target, first, expr.items.length);
+        break;
+      }
+      case NodeKind.MatrixLit: {
+        // 矩阵就是行向量组成的向量
+        const rows = expr.rows.map(() => this.allocate());
+        expr.rows.forEach((row, i) => {
+          const rowMark = this.nextRegister;
+          this.emit(Op.Vector, rows[i], this.compileList(row), row.length);
+          this.nextRegister = rowMark;
+        });
+        this.emit(Op.Vector, target, rows[0], rows.length);
+        break;
+      }
+      case NodeKind.Bind:
+        this.compileExpr(expr.value, target);
+        this.emit(Op.Move, this.slots.get(expr.slot)!, target);
+        break;
+      case NodeKind.TempRef:
+        this.emit(Op.Move, target, this.slots.get(expr.slot)!);
+        break;
+    }
+    this.nextRegister = mark;
+  }
+
+  // 把一组表达式依次计算到连续的寄存器中, 返回第一个寄存器
+  private compileList(items: readonly Expr[]): number {
+    const first = this.nextRegister;
+    const registers = items.map(() => this.allocate());
+    items.forEach((item, i) => this.compileExpr(item, registers[i]));
+    return first;
+  }
+
+  private allocate(): number {
+    const register = this.nextRegister;
+    this.nextRegister += 1;
+    this.registerCount = Math.max(this.registerCount, this.nextRegister);
+    return register;
+  }
+
+  private number(value: number): number {
+    // -0 与 0 在 Map 中是同一个键, 单独存放以保留符号
+    const key = Object.is(value, -0) ? NaN : value;
+    let index = Number.isNaN(key) ? undefined : this.numberIndex.get(key);
+    if (index === undefined) {
+      index = this.numbers.length;
+      this.numbers.push(value);
+      if (!Number.isNaN(key)) {
+        this.numberIndex.set(key, index);
+      }
+    }
+    return index;
+  }
+
+  private name(name: string): number {
+    let index = this.nameIndex.get(name);
+    if (index === undefined) {
+      index = this.names.length;
+      this.names.push(name);
+      this.nameIndex.set(name, index);
+    }
+    return index;
+  }
+
+  // 返回指令起始位置, 供回填跳转目标
+  private emit(op: Op, ...operands: number[]): number {
+    const at = this.length;
+    const size = 1 + OPCODES[op].operands.length;
+    if (this.length + size > this.code.length) {
+      const grown = new Int32Array(this.code.length * 2);
+      grown.set(this.code);
+      this.code = grown;
+    }
+    this.code[this.length] = op;
+    this.code.set(operands, this.length + 1);
+    this.length += size;
+    return at;
+  }
+
+  // 跳转指令的目标是最后一个操作数, 回填为当前位置
+  private patch(at: number): void {
+    const size = OPCODES[this.code[at]].operands.length;
+    this.code[at + size] = this.length;
+  }
+}
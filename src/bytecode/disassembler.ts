@@ -0,0 +1,44 @@
+import { stringify } from "../runtime/values";
+import { BytecodeProgram } from "./compiler";
+import { OPCODES } from "./opcodes";
+
+// 调试用: 每行一条指令, 常量和名字直接展开
+//   0003  ADD             r1, r1, r2
+//   0007  LOAD_VARIABLE   r2, x
+export function disassemble(program: BytecodeProgram): string {
+  const { code, numbers, values, names } = program;
+  const lines: string[] = [`; registers: ${program.registerCount}, constants: ${numbers.length + values.length}, names: ${names.length}`];
+  let pc = 0;
+  while (pc < code.length) {
+    const info = OPCODES[code[pc]];
+    if (!info) {
+      lines.push(`${pad(pc)}  ??? ${code[pc]}`);
+      pc += 1;
+      continue;
+    }
+    const operands = [...info.operands].map((kind, i) => {
+      const operand = code[pc + 1 + i];
+      switch (kind) {
+        case "r":
+          return `r${operand}`;
+        case "k":
+          return `#${operand} (${numbers[operand]})`;
+        case "v":
+          return `@${operand} (${stringify(values[operand])})`;
+        case "n":
+          return names[operand];
+        case "t":
+          return `-> ${pad(operand)}`;
+        default:
+          return String(operand);
+      }
+    });
+    lines.push(`${pad(pc)}  ${info.name.padEnd(16)}${operands.join(", ")}`.trimEnd());
+    pc += 1 + info.operands.length;
+  }
+  return lines.join("\n");
+}
+
+function pad(offset: number): string {
+  return String(offset).padStart(4, "0");
+}
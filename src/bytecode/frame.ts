@@ -0,0 +1,83 @@
+import { RuntimeValue } from "../runtime/values";
+import { BytecodeProgram } from "./compiler";
+import { Tag } from "./opcodes";
+
+// 变量帧: 编译期给每个名字分配固定槽位, 运行时按下标读写, 不再做字符串查找.
+// 与寄存器相同的编码: 实数和布尔放在 Float64Array 中, 其余值装箱, Tag.Empty 表示尚未定义
+export class Frame {
+  public readonly reals: Float64Array;
+  public readonly tags: Uint8Array;
+  public readonly boxes: (RuntimeValue | undefined)[];
+  private readonly slots = new Map<string, number>();
+
+  constructor(public readonly names: readonly string[]) {
+    this.reals = new Float64Array(names.length);
+    this.tags = new Uint8Array(names.length).fill(Tag.Empty);
+    this.boxes = new Array(names.length);
+    names.forEach((name, slot) => this.slots.set(name, slot));
+  }
+
+  public static of(program: BytecodeProgram, variables?: Iterable<[string, RuntimeValue]>): Frame {
+    const frame = new Frame(program.names);
+    for (const [name, value] of variables ?? []) {
+      const slot = frame.slotOf(name);
+      if (slot >= 0) {
+        frame.set(slot, value);
+      }
+    }
+    return frame;
+  }
+
+  // 程序中没有出现的名字返回 -1
+  public slotOf(name: string): number {
+    return this.slots.get(name) ?? -1;
+  }
+
+  public get(slot: number): RuntimeValue | undefined {
+    switch (this.tags[slot]) {
+      case Tag.Real:
+        return this.reals[slot];
+      case Tag.Bool:
+        return this.reals[slot] !== 0;
+      case Tag.Boxed:
+        return this.boxes[slot];
+      default:
+        return undefined;
+    }
+  }
+
+  public set(slot: number, value: RuntimeValue): void {
+    if (typeof value === "number") {
+      this.setReal(slot, value);
+    } else if (typeof value === "boolean") {
+      this.reals[slot] = value ? 1 : 0;
+      this.tags[slot] = Tag.Bool;
+      this.boxes[slot] = undefined;
+    } else {
+      this.boxes[slot] = value;
+      this.tags[slot] = Tag.Boxed;
+    }
+  }
+
+  // 热循环里逐次改变输入时使用, 不经过类型判断
+  public setReal(slot: number, value: number): void {
+    this.reals[slot] = value;
+    this.tags[slot] = Tag.Real;
+    this.boxes[slot] = undefined;
+  }
+
+  public clear(): void {
+    this.tags.fill(Tag.Empty);
+    this.boxes.fill(undefined);
+  }
+
+  // 把已定义的槽位写回调用方的变量表
+  public writeTo(variables: Map<string, RuntimeValue>): void {
+    this.names.forEach((name, slot) => {
+      const value = this.get(slot);
+      if (value !== undefined) {
+        variables.set(name, value);
+      }
+    });
+  }
+}
@@ -0,0 +1,392 @@
+import { CONSTANTS, REGISTRY, resolveIdentifier } from "../runtime/builtins";
+import {
+  realAdd,
+  realDivide,
+  realEquals,
+  realModulo,
+  realMultiply,
+  realNegate,
+  realPower,
+  realSubtract,
+  realTruthy,
+} from "../runtime/real";
+import { BuiltinEntry } from "../runtime/registry";
+import {
+  add,
+  divide,
+  equals,
+  factorial,
+  isTruthy,
+  modulo,
+  multiply,
+  power,
+  RuntimeValue,
+  stringify,
+  subtract,
+  toNumber,
+} from "../runtime/values";
+import { BytecodeProgram } from "./compiler";
+import { Frame } from "./frame";
+import { Op, Tag } from "./opcodes";
+
+// 槽位为空时按名字解析常量, 不是常量则报未定义
+const NO_VARIABLES: ReadonlyMap<string, RuntimeValue> = new Map();
+
+// 程序中每个名字对应的内置函数入口, 在内置函数表变化前一直有效
+interface CallSites {
+  generation: number;
+  entries: (BuiltinEntry | undefined)[];
+}
+
+// 字节码解释器: 一个紧凑的分派循环, 实数和布尔值只在 Float64Array 寄存器中流动
+// 寄存器文件在多次运行之间复用, 每个线程持有一个实例即可
+export class BytecodeInterpreter {
+  private reals = new Float64Array(16);
+  private tags = new Uint8Array(16);
+  private boxes: (RuntimeValue | undefined)[] = new Array(16);
+  private readonly callSites = new WeakMap<BytecodeProgram, CallSites>();
+
+  public run(program: BytecodeProgram, initialVariables?: Record<string, RuntimeValue>): RuntimeValue | undefined {
+    return this.runFrame(program, Frame.of(program, initialVariables ? Object.entries(initialVariables) : undefined));
+  }
+
+  // 兼容按名字传变量的调用方: 运行前拷进帧, 结束后 (包括出错时) 把定义过的变量写回
+  public runWith(program: BytecodeProgram, variables: Map<string, RuntimeValue>): RuntimeValue | undefined {
+    const frame = Frame.of(program, variables);
+    try {
+      return this.runFrame(program, frame);
+    } finally {
+      frame.writeTo(variables);
+    }
+  }
+
+  // frame 必须由同一个程序创建 (Frame.of 或 new Frame(program.names)), 可以在多次运行之间复用
+  public runFrame(program: BytecodeProgram, frame: Frame): RuntimeValue | undefined {
+    this.ensureCapacity(program.registerCount);
+    try {
+      return this.execute(program, frame);
+    } finally {
+      this.boxes.fill(undefined, 0, program.registerCount);
+    }
+  }
+
+  private execute(program: BytecodeProgram, frame: Frame): RuntimeValue | undefined {
+    const { code, numbers, values, names } = program;
+    const builtins = this.bind(program);
+    const reals = this.reals;
+    const tags = this.tags;
+    let hasResult = false;
+    let pc = 0;
+
+    for (;;) {
+      const op: Op = code[pc];
+      switch (op) {
+        case Op.LoadNumber:
+          reals[code[pc + 1]] = numbers[code[pc + 2]];
+          tags[code[pc + 1]] = Tag.Real;
+          pc += 3;
+          break;
+        case Op.LoadValue:
+          this.store(code[pc + 1], values[code[pc + 2]]);
+          pc += 3;
+          break;
+        case Op.LoadVariable: {
+          const dst = code[pc + 1];
+          const slot = code[pc + 2];
+          if (frame.tags[slot] === Tag.Empty) {
+            this.store(dst, resolveIdentifier(NO_VARIABLES, names[slot]));
+          } else {
+            reals[dst] = frame.reals[slot];
+            tags[dst] = frame.tags[slot];
+            this.boxes[dst] = frame.boxes[slot];
+          }
+          pc += 3;
+          break;
+        }
+        case Op.StoreVariable: {
+          const slot = code[pc + 1];
+          const src = code[pc + 2];
+          frame.reals[slot] = reals[src];
+          frame.tags[slot] = tags[src];
+          frame.boxes[slot] = tags[src] === Tag.Boxed ? this.boxes[src] : undefined;
+          pc += 3;
+          break;
+        }
+        case Op.CheckUndefined:
+          if (frame.tags[code[pc + 1]] !== Tag.Empty) {
+            throw new Error(`Variable '${names[code[pc + 1]]}' already defined`);
+          }
+          pc += 2;
+          break;
+        case Op.CheckDefined:
+          if (frame.tags[code[pc + 1]] === Tag.Empty) {
+            throw new Error(`Variable '${names[code[pc + 1]]}' is not defined`);
+          }
+          pc += 2;
+          break;
+        case Op.Move:
+          this.copy(code[pc + 1], code[pc + 2]);
+          pc += 3;
+          break;
+        case Op.Add:
+        case Op.Subtract:
+        case Op.Multiply:
+        case Op.Divide:
+        case Op.Modulo:
+        case Op.Power: {
+          const dst = code[pc + 1];
+          const a = code[pc + 2];
+          const b = code[pc + 3];
+          // 布尔值按 0/1 参与运算, 与通用运算中的 toComplex/toNumber 一致
+          const result = tags[a] !== Tag.Boxed && tags[b] !== Tag.Boxed ? BytecodeInterpreter.real(op, reals[a], reals[b]) : undefined;
+          if (result !== undefined) {
+            reals[dst] = result;
+            tags[dst] = Tag.Real;
+          } else {
+            this.store(dst, BytecodeInterpreter.generic(op, this.load(a), this.load(b)));
+          }
+          pc += 4;
+          break;
+        }
+        case Op.Negate: {
+          const dst = code[pc + 1];
+          const a = code[pc + 2];
+          const result = tags[a] !== Tag.Boxed ? realNegate(reals[a]) : undefined;
+          if (result !== undefined) {
+            reals[dst] = result;
+            tags[dst] = Tag.Real;
+          } else {
+            this.store(dst, multiply(-1, this.load(a)));
+          }
+          pc += 3;
+          break;
+        }
+        case Op.Not:
+        case Op.Truthy: {
+          const a = code[pc + 2];
+          const truthy = tags[a] !== Tag.Boxed ? realTruthy(reals[a]) : isTruthy(this.boxes[a]);
+          reals[code[pc + 1]] = truthy === (op === Op.Truthy) ? 1 : 0;
+          tags[code[pc + 1]] = Tag.Bool;
+          pc += 3;
+          break;
+        }
+        case Op.Factorial:
+          this.store(code[pc + 1], factorial(this.load(code[pc + 2])));
+          pc += 3;
+          break;
+        case Op.Equal:
+        case Op.NotEqual:
+        case Op.Less:
+        case Op.LessEqual:
+        case Op.Greater:
+        case Op.GreaterEqual: {
+          const a = code[pc + 2];
+          const b = code[pc + 3];
+          const holds =
+            tags[a] !== Tag.Boxed && tags[b] !== Tag.Boxed
+              ? BytecodeInterpreter.compareReal(op, reals[a], reals[b])
+              : BytecodeInterpreter.compareGeneric(op, this.load(a), this.load(b));
+          reals[code[pc + 1]] = holds ? 1 : 0;
+          tags[code[pc + 1]] = Tag.Bool;
+          pc += 4;
+          break;
+        }
+        case Op.Call: {
+          const dst = code[pc + 1];
+          const entry = builtins[code[pc + 2]];
+          const first = code[pc + 3];
+          const count = code[pc + 4];
+          // 参数都是实数时直接调用固定参数的入口, 不创建参数数组
+          const result = entry ? this.callReal(entry, first, count) : undefined;
+          if (result !== undefined) {
+            reals[dst] = result;
+            tags[dst] = Tag.Real;
+          } else {
+            const args = new Array<RuntimeValue>(count);
+            for (let i = 0; i < count; i += 1) {
+              args[i] = this.load(first + i);
+            }
+            this.store(dst, entry ? entry.call(args) : BytecodeInterpreter.call(frame, code[pc + 2], args));
+          }
+          pc += 5;
+          break;
+        }
+        case Op.Vector: {
+          const first = code[pc + 2];
+          const items = new Array<RuntimeValue>(code[pc + 3]);
+          for (let i = 0; i < items.length; i += 1) {
+            items[i] = this.load(first + i);
+          }
+          this.store(code[pc + 1], items);
+          pc += 4;
+          break;
+        }
+        case Op.Jump:
+          pc = code[pc + 1];
+          break;
+        case Op.JumpIfFalse:
+          pc = reals[code[pc + 1]] === 0 ? code[pc + 2] : pc + 3;
+          break;
+        case Op.JumpIfTrue:
+          pc = reals[code[pc + 1]] !== 0 ? code[pc + 2] : pc + 3;
+          break;
+        case Op.Print:
+          console.log(stringify(this.load(code[pc + 1])));
+          pc += 2;
+          break;
+        case Op.Result:
+          this.copy(0, code[pc + 1]);
+          hasResult = true;
+          pc += 2;
+          break;
+        case Op.ClearResult:
+          hasResult = false;
+          pc += 1;
+          break;
+        case Op.Halt:
+          return hasResult ? this.load(0) : undefined;
+        default:
+          throw new Error(`Invalid opcode ${op} at ${pc}`);
+      }
+    }
+  }
+
+  private bind(program: BytecodeProgram): (BuiltinEntry | undefined)[] {
+    let sites = this.callSites.get(program);
+    if (!sites || sites.generation !== REGISTRY.generation) {
+      sites = { generation: REGISTRY.generation, entries: program.names.map((name) => REGISTRY.lookup(name)) };
+      this.callSites.set(program, sites);
+    }
+    return sites.entries;
+  }
+
+  private callReal(entry: BuiltinEntry, first: number, count: number): number | undefined {
+    const tags = this.tags;
+    if (count === 1 && entry.unary && tags[first] === Tag.Real) {
+      return entry.unary(this.reals[first]);
+    }
+    if (count === 2 && entry.binary && tags[first] === Tag.Real && tags[first + 1] === Tag.Real) {
+      return entry.binary(this.reals[first], this.reals[first + 1]);
+    }
+    return undefined;
+  }
+
+  // 不是内置函数: 与 callFunction 相同, 变量或常量乘以唯一的参数
+  private static call(frame: Frame, slot: number, args: RuntimeValue[]): RuntimeValue {
+    const name = frame.names[slot];
+    if (args.length === 1) {
+      const left = frame.get(slot) ?? CONSTANTS.get(name);
+      if (left !== undefined) {
+        return multiply(left, args[0]);
+      }
+    }
+    throw new Error(`Unknown function '${name}'`);
+  }
+
+  private static real(op: Op, a: number, b: number): number | undefined {
+    switch (op) {
+      case Op.Add:
+        return realAdd(a, b);
+      case Op.Subtract:
+        return realSubtract(a, b);
+      case Op.Multiply:
+        return realMultiply(a, b);
+      case Op.Divide:
+        return realDivide(a, b);
+      case Op.Modulo:
+        return realModulo(a, b);
+      default:
+        return realPower(a, b);
+    }
+  }
+
+  private static generic(op: Op, a: RuntimeValue, b: RuntimeValue): RuntimeValue {
+    switch (op) {
+      case Op.Add:
+        return add(a, b);
+      case Op.Subtract:
+        return subtract(a, b);
+      case Op.Multiply:
+        return multiply(a, b);
+      case Op.Divide:
+        return divide(a, b);
+      case Op.Modulo:
+        return modulo(a, b);
+      default:
+        return power(a, b);
+    }
+  }
+
+  private static compareReal(op: Op, a: number, b: number): boolean {
+    switch (op) {
+      case Op.Equal:
+        return realEquals(a, b);
+      case Op.NotEqual:
+        return !realEquals(a, b);
+      case Op.Less:
+        return a < b;
+      case Op.LessEqual:
+        return a <= b;
+      case Op.Greater:
+        return a > b;
+      default:
+        return a >= b;
+    }
+  }
+
+  private static compareGeneric(op: Op, a: RuntimeValue, b: RuntimeValue): boolean {
+    switch (op) {
+      case Op.Equal:
+        return equals(a, b);
+      case Op.NotEqual:
+        return !equals(a, b);
+      case Op.Less:
+        return toNumber(a, "comparison") < toNumber(b, "comparison");
+      case Op.LessEqual:
+        return toNumber(a, "comparison") <= toNumber(b, "comparison");
+      case Op.Greater:
+        return toNumber(a, "comparison") > toNumber(b, "comparison");
+      default:
+        return toNumber(a, "comparison") >= toNumber(b, "comparison");
+    }
+  }
+
+  private load(register: number): RuntimeValue {
+    switch (this.tags[register]) {
+      case Tag.Real:
+        return this.reals[register];
+      case Tag.Bool:
+        return this.reals[register] !== 0;
+      default:
+        return this.boxes[register]!;
+    }
+  }
+
+  private store(register: number, value: RuntimeValue): void {
+    if (typeof value === "number") {
+      this.reals[register] = value;
+      this.tags[register] = Tag.Real;
+    } else if (typeof value === "boolean") {
+      this.reals[register] = value ? 1 : 0;
+      this.tags[register] = Tag.Bool;
+    } else {
+      this.boxes[register] = value;
+      this.tags[register] = Tag.Boxed;
+    }
+  }
+
+  private copy(dst: number, src: number): void {
+    this.reals[dst] = this.reals[src];
+    this.tags[dst] = this.tags[src];
+    this.boxes[dst] = this.boxes[src];
+  }
+
+  private ensureCapacity(registers: number): void {
+    if (registers <= this.reals.length) {
+      return;
+    }
+    this.reals = new Float64Array(registers);
+    this.tags = new Uint8Array(registers);
+    this.boxes = new Array(registers);
+  }
+}
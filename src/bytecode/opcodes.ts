@@ -0,0 +1,85 @@
+// 寄存器字节码的指令集. 每条指令是 opcode 后跟固定个数的 int32 操作数
+export const enum Op {
+  LoadNumber, // dst, number
+  LoadValue, // dst, value
+  LoadVariable, // dst, slot    槽位为空时回退到 pi/e 常量
+  StoreVariable, // slot, src
+  CheckUndefined, // slot    var 定义前变量必须不存在
+  CheckDefined, // slot      赋值前变量必须已存在
+  Move, // dst, src
+  Add, // dst, a, b
+  Subtract,
+  Multiply,
+  Divide,
+  Modulo,
+  Power,
+  Negate, // dst, a
+  Not,
+  Factorial,
+  Truthy,
+  Equal, // dst, a, b
+  NotEqual,
+  Less,
+  LessEqual,
+  Greater,
+  GreaterEqual,
+  Call, // dst, name, first, count
+  Vector, // dst, first, count
+  Jump, // target
+  JumpIfFalse, // src, target
+  JumpIfTrue, // src, target
+  Print, // src
+  Result, // src      记录语句结果
+  ClearResult, //     空语句, 结果为 undefined
+  Halt,
+}
+
+// 操作数种类: r 寄存器, k 数值常量, v 对象常量, n 名字 (同时是变量槽位), t 跳转目标, c 个数
+export interface OpInfo {
+  name: string;
+  operands: string;
+}
+
+export const OPCODES: readonly OpInfo[] = [
+  { name: "LOAD_NUMBER", operands: "rk" },
+  { name: "LOAD_VALUE", operands: "rv" },
+  { name: "LOAD_VARIABLE", operands: "rn" },
+  { name: "STORE_VARIABLE", operands: "nr" },
+  { name: "CHECK_UNDEFINED", operands: "n" },
+  { name: "CHECK_DEFINED", operands: "n" },
+  { name: "MOVE", operands: "rr" },
+  { name: "ADD", operands: "rrr" },
+  { name: "SUBTRACT", operands: "rrr" },
+  { name: "MULTIPLY", operands: "rrr" },
+  { name: "DIVIDE", operands: "rrr" },
+  { name: "MODULO", operands: "rrr" },
+  { name: "POWER", operands: "rrr" },
+  { name: "NEGATE", operands: "rr" },
+  { name: "NOT", operands: "rr" },
+  { name: "FACTORIAL", operands: "rr" },
+  { name: "TRUTHY", operands: "rr" },
+  { name: "EQUAL", operands: "rrr" },
+  { name: "NOT_EQUAL", operands: "rrr" },
+  { name: "LESS", operands: "rrr" },
+  { name: "LESS_EQUAL", operands: "rrr" },
+  { name: "GREATER", operands: "rrr" },
+  { name: "GREATER_EQUAL", operands: "rrr" },
+  { name: "CALL", operands: "rnrc" },
+  { name: "VECTOR", operands: "rrc" },
+  { name: "JUMP", operands: "t" },
+  { name: "JUMP_IF_FALSE", operands: "rt" },
+  { name: "JUMP_IF_TRUE", operands: "rt" },
+  { name: "PRINT", operands: "r" },
+  { name: "RESULT", operands: "r" },
+  { name: "CLEAR_RESULT", operands: "" },
+  { name: "HALT", operands: "" },
+];
+
+// 寄存器和变量帧中值的种类: 实数和布尔直接放在 Float64Array 中, 其余值 (复数、向量) 装箱存放
+export const enum Tag {
+  Real,
+  Bool,
+  Boxed,
+  // 只出现在变量帧中: 变量还没有定义
+  Empty,
+}
@@ -0,0 +1,67 @@
+import { lowerProgram } from "../ast/lower";
+import { LruCache } from "../lru-cache";
+import { resolveCalls } from "../optimizer/call-resolution";
+import { parseProgram } from "../parser/front-end";
+import { REGISTRY } from "../runtime/builtins";
+import { SymbolTable } from "../runtime/symbols";
+import { CompiledProgram, JsCompiler } from "./js-compiler";
+
+interface CacheEntry {
+  compiled: CompiledProgram;
+  generation: number;
+}
+
+export interface FormulaCacheStats {
+  size: number;
+  hits: number;
+  misses: number;
+  evictions: number;
+}
+
+// 按源码缓存编译结果, 超过容量时淘汰最久未使用的公式
+// 编译出的函数只被这里引用, 淘汰后随时可以被 GC 回收.
+// 给定符号表时, 调用与隐式乘法在编译时按符号表解析; 符号表的 generation 变化后缓存项重新编译
+export class FormulaCache {
+  private readonly entries: LruCache<string, CacheEntry>;
+  private hits = 0;
+  private misses = 0;
+  private evictions = 0;
+
+  constructor(maxEntries = 1024, private readonly symbols?: SymbolTable) {
+    this.entries = new LruCache(maxEntries);
+  }
+
+  public get(source: string): CompiledProgram {
+    // 编译结果绑定了内置函数入口, 注册新函数后同样需要重新编译
+    const generation = this.symbols?.generation ?? REGISTRY.generation;
+    const cached = this.entries.get(source);
+    if (cached && cached.generation === generation) {
+      this.hits += 1;
+      return cached.compiled;
+    }
+    this.misses += 1;
+    const lowered = lowerProgram(parseProgram(source));
+    const compiled = JsCompiler.compile(this.symbols ? resolveCalls(lowered, this.symbols) : lowered);
+    if (this.entries.set(source, { compiled, generation })) {
+      this.evictions += 1;
+    }
+    return compiled;
+  }
+
+  public evict(source: string): boolean {
+    if (!this.entries.delete(source)) {
+      return false;
+    }
+    this.evictions += 1;
+    return true;
+  }
+
+  public clear(): void {
+    this.evictions += this.entries.size;
+    this.entries.clear();
+  }
+
+  public get stats(): FormulaCacheStats {
+    return { size: this.entries.size, hits: this.hits, misses: this.misses, evictions: this.evictions };
+  }
+}
@@ -0,0 +1,237 @@
+import { BinaryOperator, CompareOperator, Expr, NodeKind, Program, Statement, UnaryOperator } from "../ast/nodes";
+import { callFunction, REGISTRY, resolveIdentifier } from "../runtime/builtins";
+import { BuiltinRegistry } from "../runtime/registry";
+import {
+  add,
+  divide,
+  equals,
+  factorial,
+  isTruthy,
+  modulo,
+  multiply,
+  power,
+  RuntimeValue,
+  stringify,
+  subtract,
+  toNumber,
+} from "../runtime/values";
+
+type Variables = Map<string, RuntimeValue>;
+
+// 生成的代码通过这个对象调用运行时, 保持与 AstEvaluator 相同的语义
+const RUNTIME = {
+  add,
+  subtract,
+  multiply,
+  divide,
+  modulo,
+  power,
+  factorial,
+  equals,
+  isTruthy,
+  toNumber,
+  load: resolveIdentifier,
+  // name 不是内置函数: 变量或常量乘以唯一的参数
+  callValue: callFunction,
+  print(value: RuntimeValue): void {
+    console.log(stringify(value));
+  },
+};
+
+type Runtime = typeof RUNTIME;
+type CompiledFunction = (variables: Variables) => RuntimeValue | undefined;
+
+// 编译后的程序: 一个普通的 JS 函数, 不再持有它时即可被回收
+export class CompiledProgram {
+  constructor(public readonly code: string, private readonly fn: CompiledFunction) {}
+
+  public run(initialVariables?: Record<string, RuntimeValue>): RuntimeValue | undefined {
+    return this.fn(new Map(initialVariables ? Object.entries(initialVariables) : []));
+  }
+
+  // 复用调用方的变量表, define/assign 的结果写回其中
+  public runWith(variables: Variables): RuntimeValue | undefined {
+    return this.fn(variables);
+  }
+}
+
+// 把紧凑 AST 编译成 JS 源码并用 new Function 实例化, 让 V8 像普通函数一样内联和优化
+export class JsCompiler {
+  private readonly lines: string[] = [];
+  private readonly constants: RuntimeValue[] = [];
+  private readonly builtinSlots = new Map<string, string>();
+  private readonly slots = new Set<number>();
+  private temps = 0;
+
+  private constructor() {}
+
+  public static compile(program: Program): CompiledProgram {
+    return new JsCompiler().compileProgram(program);
+  }
+
+  private compileProgram(program: Program): CompiledProgram {
+    for (const statement of program.statements) {
+      this.compileStatement(statement);
+    }
+    const prologue = [...this.builtinSlots].map(([target, slot]) => `const ${slot} = ${target};`);
+    const temps = Array.from({ length: this.temps }, (_, i) => `t${i}`).concat([...this.slots].map((slot) => `s${slot}`));
+    const code = [
+      '"use strict";',
+      ...prologue,
+      "return function compiled(v) {",
+      `  let result${temps.map((temp) => `, ${temp}`).join("")};`,
+      ...this.lines.map((line) => `  ${line}`),
+      "  return result;",
+      "};",
+    ].join("\n");
+    const factory = new Function("rt", "k", "b", code) as (rt: Runtime, k: RuntimeValue[], b: BuiltinRegistry) => CompiledFunction;
+    return new CompiledProgram(code, factory(RUNTIME, this.constants, REGISTRY));
+  }
+
+  private compileStatement(statement: Statement): void {
+    switch (statement.kind) {
+      case NodeKind.Define: {
+        const name = JSON.stringify(statement.name);
+        this.lines.push(`if (v.has(${name})) throw new Error(${JSON.stringify(`Variable '${statement.name}' already defined`)});`);
+        this.lines.push(`result = ${this.compileExpr(statement.value)};`);
+        this.lines.push(`v.set(${name}, result);`);
+        return;
+      }
+      case NodeKind.Assign: {
+        const name = JSON.stringify(statement.name);
+        this.lines.push(`if (!v.has(${name})) throw new Error(${JSON.stringify(`Variable '${statement.name}' is not defined`)});`);
+        this.lines.push(`result = ${this.compileExpr(statement.value)};`);
+        this.lines.push(`v.set(${name}, result);`);
+        return;
+      }
+      case NodeKind.Equation:
+        this.lines.push(`result = rt.equals(${this.compileExpr(statement.left)}, ${this.compileExpr(statement.right)});`);
+        return;
+      case NodeKind.Print:
+        this.lines.push(`result = ${this.compileExpr(statement.value)};`);
+        this.lines.push("rt.print(result);");
+        return;
+      case NodeKind.ExprStmt:
+        this.lines.push(`result = ${this.compileExpr(statement.value)};`);
+        return;
+      case NodeKind.Empty:
+        this.lines.push("result = undefined;");
+        return;
+    }
+  }
+
+  private compileExpr(expr: Expr): string {
+    switch (expr.kind) {
+      case NodeKind.Literal:
+        return this.literal(expr.value);
+      case NodeKind.VarRef:
+        return `rt.load(v, ${JSON.stringify(expr.name)})`;
+      case NodeKind.UnaryOp:
+        return this.compileUnary(expr.operator, this.compileExpr(expr.operand));
+      case NodeKind.BinaryOp:
+        return this.compileBinary(expr.operator, this.compileExpr(expr.left), this.compileExpr(expr.right));
+      case NodeKind.CompareChain: {
+        // (a = e0, b = e1, a < b) && (a = b, b = e2, a <= b) ...; 后面的操作数只在前面的比较成立时计算
+        const left = this.temp();
+        const right = this.temp();
+        const steps = expr.operators.map((operator, i) => {
+          const first = i === 0 ? `${left} = ${this.compileExpr(expr.operands[0])}` : `${left} = ${right}`;
+          return `(${first}, ${right} = ${this.compileExpr(expr.operands[i + 1])}, ${this.compileCompare(operator, left, right)})`;
+        });
+        return `(${steps.join(" && ")})`;
+      }
+      case NodeKind.Call: {
+        const args = expr.args.map((arg) => this.compileExpr(arg)).join(", ");
+        // 编译时绑定到注册表中固定参数个数的入口, 调用点是一个常量函数
+        if (REGISTRY.has(expr.name)) {
+          return `${this.builtin(expr.name, expr.args.length)}(${args})`;
+        }
+        return `rt.callValue(v, ${JSON.stringify(expr.name)}, [${args}])`;
+      }
+      case NodeKind.VectorLit:
+        return `[${expr.items.map((item) => this.compileExpr(item)).join(", ")}]`;
+      case NodeKind.MatrixLit:
+        return `[${expr.rows.map((row) => `[${row.map((item) => this.compileExpr(item)).join(", ")}]`).join(", ")}]`;
+      case NodeKind.Bind:
+        this.slots.add(expr.slot);
+        return `(s${expr.slot} = ${this.compileExpr(expr.value)})`;
+      case NodeKind.TempRef:
+        return `s${expr.slot}`;
+    }
+  }
+
+  private compileUnary(operator: UnaryOperator, operand: string): string {
+    switch (operator) {
+      case UnaryOperator.Negate:
+        return `rt.multiply(-1, ${operand})`;
+      case UnaryOperator.Not:
+        return `!rt.isTruthy(${operand})`;
+      case UnaryOperator.Factorial:
+        return `rt.factorial(${operand})`;
+    }
+  }
+
+  private compileBinary(operator: BinaryOperator, left: string, right: string): string {
+    switch (operator) {
+      case BinaryOperator.Add:
+        return `rt.add(${left}, ${right})`;
+      case BinaryOperator.Subtract:
+        return `rt.subtract(${left}, ${right})`;
+      case BinaryOperator.Multiply:
+        return `rt.multiply(${left}, ${right})`;
+      case BinaryOperator.Divide:
+        return `rt.divide(${left}, ${right})`;
+      case BinaryOperator.Modulo:
+        return `rt.modulo(${left}, ${right})`;
+      case BinaryOperator.Power:
+        return `rt.power(${left}, ${right})`;
+      case BinaryOperator.And:
+        return `(rt.isTruthy(${left}) && rt.isTruthy(${right}))`;
+      case BinaryOperator.Or:
+        return `(rt.isTruthy(${left}) || rt.isTruthy(${right}))`;
+    }
+  }
+
+  private compileCompare(operator: CompareOperator, left: string, right: string): string {
+    switch (operator) {
+      case CompareOperator.Equal:
+        return `rt.equals(${left}, ${right})`;
+      case CompareOperator.NotEqual:
+        return `!rt.equals(${left}, ${right})`;
+      case CompareOperator.Less:
+        return `rt.toNumber(${left}, "comparison") < rt.toNumber(${right}, "comparison")`;
+      case CompareOperator.LessEqual:
+        return `rt.toNumber(${left}, "comparison") <= rt.toNumber(${right}, "comparison")`;
+      case CompareOperator.Greater:
+        return `rt.toNumber(${left}, "comparison") > rt.toNumber(${right}, "comparison")`;
+      case CompareOperator.GreaterEqual:
+        return `rt.toNumber(${left}, "comparison") >= rt.toNumber(${right}, "comparison")`;
+    }
+  }
+
+  // 有限实数直接写进源码 (String 的结果可以精确还原), 其余值放入常量池
+  private literal(value: RuntimeValue): string {
+    if (typeof value === "number" && Number.isFinite(value) && !Object.is(value, -0)) {
+      return String(value);
+    }
+    this.constants.push(value);
+    return `k[${this.constants.length - 1}]`;
+  }
+
+  private builtin(name: string, arity: number): string {
+    const entryPoint = arity === 1 ? "call1" : arity === 2 ? "call2" : "definition.generic";
+    const target = `b.lookup(${JSON.stringify(name)}).${entryPoint}`;
+    let slot = this.builtinSlots.get(target);
+    if (!slot) {
+      slot = `f${this.builtinSlots.size}`;
+      this.builtinSlots.set(target, slot);
+    }
+    return slot;
+  }
+
+  private temp(): string {
+    const name = `t${this.temps}`;
+    this.temps += 1;
+    return name;
+  }
+}
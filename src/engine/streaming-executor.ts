@@ -0,0 +1,85 @@
+import { closeSync, openSync, readSync } from "fs";
+import { StringDecoder } from "string_decoder";
+import { Readable } from "stream";
+import { Caluctor, RuntimeValue } from "../calculator";
+import { CalculatorFrontEnd } from "../parser/front-end";
+import { StatementSplitter } from "../parser/statement-splitter";
+
+const CHUNK_SIZE = 64 * 1024;
+// 单条语句最多缓存的字符数; 未闭合的 `/*` 或括号不能让整份输入都堆进缓冲区
+const MAX_STATEMENT_LENGTH = 4 * 1024 * 1024;
+
+// 流式执行: 输入按块读取, 每切出一条顶层语句就解析、求值并丢弃它的语法树,
+// 内存占用只与最长的单条语句有关, 与脚本总长度无关
+export class StreamingExecutor {
+  private readonly splitter: StatementSplitter;
+  private readonly frontEnd = CalculatorFrontEnd.current();
+  private lastResult: RuntimeValue | undefined;
+  private executed = 0;
+
+  constructor(private readonly calculator: Caluctor = new Caluctor(), maxStatementLength = MAX_STATEMENT_LENGTH) {
+    this.splitter = new StatementSplitter(maxStatementLength);
+  }
+
+  public get statementCount(): number {
+    return this.executed;
+  }
+
+  public get result(): RuntimeValue | undefined {
+    return this.lastResult;
+  }
+
+  public push(chunk: string): void {
+    this.splitter.push(chunk, (statement, line, column) => this.execute(statement, line, column));
+  }
+
+  public end(): RuntimeValue | undefined {
+    this.splitter.end((statement, line, column) => this.execute(statement, line, column));
+    return this.lastResult;
+  }
+
+  public executeFile(fileName: string): RuntimeValue | undefined {
+    const fd = openSync(fileName, "r");
+    const bytes = Buffer.allocUnsafe(CHUNK_SIZE);
+    const decoder = new StringDecoder("utf8");
+    try {
+      for (;;) {
+        const read = readSync(fd, bytes, 0, CHUNK_SIZE, null);
+        if (read === 0) {
+          break;
+        }
+        this.push(decoder.write(bytes.subarray(0, read)));
+      }
+      this.push(decoder.end());
+    } finally {
+      closeSync(fd);
+    }
+    return this.end();
+  }
+
+  public async executeStream(input: Readable): Promise<RuntimeValue | undefined> {
+    input.setEncoding("utf8");
+    for await (const chunk of input) {
+      this.push(chunk as string);
+    }
+    return this.end();
+  }
+
+  private execute(statement: string, line: number, column: number): void {
+    this.executed += 1;
+    // 空行不需要经过解析器, 结果与 NEWLINE 语句相同
+    if (statement.trim().length === 0) {
+      if (statement.includes("\n")) {
+        this.lastResult = undefined;
+      }
+      return;
+    }
+    try {
+      // 按语句在输入中的位置解析, 语法错误报告的行列与整体解析时相同
+      this.lastResult = this.calculator.visit(this.frontEnd.parse(statement, line, column));
+    } catch (error) {
+      const message = error instanceof Error ? error.message : String(error);
+      throw new Error(`line ${line}: ${message}`);
+    }
+  }
+}
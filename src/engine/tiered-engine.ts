@@ -0,0 +1,231 @@
+import { AstEvaluator } from "../ast/evaluator";
+import { lowerProgram } from "../ast/lower";
+import { Program } from "../ast/nodes";
+import { JsCompiler } from "../compiler/js-compiler";
+import { LruCache } from "../lru-cache";
+import { Optimizer } from "../optimizer/optimizer";
+import { parseProgram } from "../parser/front-end";
+import { REGISTRY } from "../runtime/builtins";
+import { RuntimeValue } from "../runtime/values";
+
+type Variables = Map<string, RuntimeValue>;
+type Executor = (variables: Variables) => RuntimeValue | undefined;
+
+export enum Tier {
+  Interpreted = 0,
+  Compiled = 1,
+}
+
+export interface TieredEngineOptions {
+  // 调用次数达到阈值后提升到编译层
+  readonly threshold?: number;
+  // false 时在达到阈值的那次调用中同步编译, 便于测量和调试
+  readonly background?: boolean;
+  readonly optimizer?: Optimizer;
+  // 最多保留的公式数, 超过时淘汰最久未使用的公式 (连同它的语法树、计数和编译结果)
+  readonly maxFormulas?: number;
+}
+
+export interface FormulaMetrics {
+  readonly source: string;
+  readonly tier: Tier;
+  readonly invocations: number;
+  // 提升时的调用次数, 尚未提升为 -1
+  readonly promotedAt: number;
+  // 优化 + 生成代码的耗时
+  readonly compileMillis: number;
+  // 从达到阈值到新版本生效的时间 (包括在后台排队等待的时间)
+  readonly promotionMillis: number;
+}
+
+export interface EngineMetrics {
+  readonly formulas: number;
+  readonly evictions: number;
+  readonly compiled: number;
+  readonly promotions: number;
+  readonly failures: number;
+  readonly compileMillis: number;
+  readonly promotionMillis: number;
+}
+
+// 只保留不改变可观察行为的 pass: 幂展开对非数值底数的报错信息不同, 在分层执行里关闭
+function safeOptimizer(): Optimizer {
+  return new Optimizer().setEnabled("strength-reduction", false);
+}
+
+// 一条公式: 先由树解释器执行, 热起来之后换成编译后的函数
+export class TieredFormula {
+  private readonly interpreted: Executor = (variables) => new AstEvaluator(undefined, variables).run(this.program);
+  private executor: Executor;
+  private currentTier = Tier.Interpreted;
+  private invocations = 0;
+  private promotedAt = -1;
+  private pending = false;
+  private generation = -1;
+  private requestedAt = 0n;
+  private compileMillis = 0;
+  private promotionMillis = 0;
+
+  constructor(public readonly source: string, public readonly program: Program, private readonly engine: TieredEngine) {
+    this.executor = this.interpreted;
+  }
+
+  public get tier(): Tier {
+    return this.currentTier;
+  }
+
+  public get metrics(): FormulaMetrics {
+    return {
+      source: this.source,
+      tier: this.currentTier,
+      invocations: this.invocations,
+      promotedAt: this.promotedAt,
+      compileMillis: this.compileMillis,
+      promotionMillis: this.promotionMillis,
+    };
+  }
+
+  public evaluate(variables: Variables = new Map()): RuntimeValue | undefined {
+    this.invocations += 1;
+    if (this.currentTier === Tier.Compiled && this.generation !== REGISTRY.generation) {
+      // 编译结果绑定了旧的内置函数入口, 退回解释执行并重新计数
+      this.demote();
+    }
+    if (this.currentTier === Tier.Interpreted && !this.pending && this.invocations >= this.engine.threshold) {
+      this.pending = true;
+      this.requestedAt = process.hrtime.bigint();
+      this.engine.schedule(this);
+    }
+    // 读取方只读一次引用; 提升只替换这个引用, 不会看到编译到一半的状态
+    return this.executor(variables);
+  }
+
+  public promote(): void {
+    this.pending = false;
+    if (this.currentTier === Tier.Compiled) {
+      return;
+    }
+    const begin = process.hrtime.bigint();
+    const generation = REGISTRY.generation;
+    let executor: Executor;
+    try {
+      const compiled = JsCompiler.compile(this.engine.optimizer.optimize(this.program).program);
+      executor = (variables) => compiled.runWith(variables);
+    } catch {
+      // 编译失败不影响执行, 继续留在解释层, 之后不再尝试
+      this.pending = true;
+      this.engine.recordFailure();
+      return;
+    }
+    const end = process.hrtime.bigint();
+    this.compileMillis = Number(end - begin) / 1e6;
+    this.promotionMillis = Number(end - this.requestedAt) / 1e6;
+    this.promotedAt = this.invocations;
+    this.generation = generation;
+    this.currentTier = Tier.Compiled;
+    this.executor = executor;
+    this.engine.recordPromotion(this.compileMillis, this.promotionMillis);
+  }
+
+  private demote(): void {
+    this.executor = this.interpreted;
+    this.currentTier = Tier.Interpreted;
+    this.invocations = 1;
+    this.promotedAt = -1;
+  }
+}
+
+// 分层执行: 冷公式解释执行, 省掉编译开销; 调用次数超过阈值的公式在后台 (setImmediate) 编译,
+// 完成后一次引用赋值切换到编译版本. JS 在单线程上执行, 读取方永远看到旧版本或新版本之一, 不需要加锁
+export class TieredEngine {
+  public readonly threshold: number;
+  public readonly optimizer: Optimizer;
+  private readonly background: boolean;
+  private readonly formulas: LruCache<string, TieredFormula>;
+  private readonly queue: TieredFormula[] = [];
+  private scheduled = false;
+  private evictions = 0;
+  private promotions = 0;
+  private failures = 0;
+  private compileMillis = 0;
+  private promotionMillis = 0;
+
+  constructor(options: TieredEngineOptions = {}) {
+    this.threshold = options.threshold ?? 1000;
+    this.background = options.background ?? true;
+    this.optimizer = options.optimizer ?? safeOptimizer();
+    const maxFormulas = options.maxFormulas ?? 1024;
+    if (!Number.isInteger(this.threshold) || this.threshold < 1) {
+      throw new Error(`Invalid promotion threshold ${this.threshold}`);
+    }
+    if (!Number.isInteger(maxFormulas) || maxFormulas < 1) {
+      throw new Error(`Invalid formula limit ${maxFormulas}`);
+    }
+    this.formulas = new LruCache(maxFormulas);
+  }
+
+  // 同一段源码只解析一次. 大多数公式只执行一次, 按 LRU 限制数量, 只执行过一次的公式很快被淘汰
+  public formula(source: string): TieredFormula {
+    let formula = this.formulas.get(source);
+    if (!formula) {
+      formula = new TieredFormula(source, lowerProgram(parseProgram(source)), this);
+      if (this.formulas.set(source, formula)) {
+        this.evictions += 1;
+      }
+    }
+    return formula;
+  }
+
+  public evaluate(source: string, variables: Variables = new Map()): RuntimeValue | undefined {
+    return this.formula(source).evaluate(variables);
+  }
+
+  public get metrics(): EngineMetrics {
+    let compiled = 0;
+    for (const formula of this.formulas.values()) {
+      compiled += formula.tier === Tier.Compiled ? 1 : 0;
+    }
+    return {
+      formulas: this.formulas.size,
+      evictions: this.evictions,
+      compiled,
+      promotions: this.promotions,
+      failures: this.failures,
+      compileMillis: this.compileMillis,
+      promotionMillis: this.promotionMillis,
+    };
+  }
+
+  public formulaMetrics(): FormulaMetrics[] {
+    return [...this.formulas.values()].map((formula) => formula.metrics);
+  }
+
+  public schedule(formula: TieredFormula): void {
+    if (!this.background) {
+      formula.promote();
+      return;
+    }
+    this.queue.push(formula);
+    if (!this.scheduled) {
+      this.scheduled = true;
+      setImmediate(() => this.drain());
+    }
+  }
+
+  public recordPromotion(compileMillis: number, promotionMillis: number): void {
+    this.promotions += 1;
+    this.compileMillis += compileMillis;
+    this.promotionMillis += promotionMillis;
+  }
+
+  public recordFailure(): void {
+    this.failures += 1;
+  }
+
+  private drain(): void {
+    this.scheduled = false;
+    for (const formula of this.queue.splice(0)) {
+      formula.promote();
+    }
+  }
+}
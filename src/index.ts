@@ -1,11 +1,12 @@
-import { CharStreams, CommonTokenStream } from "antlr4ts";
-import { CalculatorLexer } from "../generated/grammar/CalculatorLexer";
-import { CalculatorParser } from "../generated/grammar/CalculatorParser";
 import { Caluctor } from "./calculator";
+import { parseProgram } from "./parser/front-end";
+import { REGISTRY } from "./runtime/builtins";
 
 export function main() {
+  // CALCULATOR_PLUGINS 中列出的插件先注册到内置函数表
+  REGISTRY.loadFromEnvironment();
   // 输入流
-  const inputStream = CharStreams.fromString(`
+  const source = `
     var a = 1;
     a = a + 1;
     var b = 3 + 1;
@@ -51,15 +52,9 @@ export function main() {
     print(mat);
     print(sum(vec));
     print(len(mat));
-  `);
-  // 词法解析
-  const lexer = new CalculatorLexer(inputStream);
-  // Token流
-  const tokenStream = new CommonTokenStream(lexer);
-  // 语法解析
-  const parser = new CalculatorParser(tokenStream);
-  // 语法树解析
-  const ast = parser.program();
+  `;
+  // 词法 + 语法解析 (复用当前线程的 lexer/parser, SLL 优先, 失败时回退到 LL)
+  const ast = parseProgram(source);
   // 计算结果
   const visitor = new Caluctor()
   // 计算结果
@@ -0,0 +1,55 @@
+// 容量固定的 LRU 缓存. Map 按插入顺序迭代: 命中时删除再插入移到末尾, 满了就淘汰最前面 (最久未使用) 的条目
+export class LruCache<K, V> {
+  private readonly entries = new Map<K, V>();
+
+  constructor(public readonly capacity: number) {
+    if (!Number.isInteger(capacity) || capacity < 1) {
+      throw new Error(`Invalid cache capacity ${capacity}`);
+    }
+  }
+
+  public get size(): number {
+    return this.entries.size;
+  }
+
+  public get(key: K): V | undefined {
+    const value = this.entries.get(key);
+    if (value !== undefined) {
+      this.entries.delete(key);
+      this.entries.set(key, value);
+    }
+    return value;
+  }
+
+  // 写入并标记为最近使用; 因此淘汰了一个旧条目时返回 true
+  public set(key: K, value: V): boolean {
+    let evicted = false;
+    if (!this.entries.delete(key) && this.entries.size >= this.capacity) {
+      this.entries.delete(this.entries.keys().next().value as K);
+      evicted = true;
+    }
+    this.entries.set(key, value);
+    return evicted;
+  }
+
+  public getOrCreate(key: K, create: () => V): V {
+    let value = this.get(key);
+    if (value === undefined) {
+      value = create();
+      this.set(key, value);
+    }
+    return value;
+  }
+
+  public delete(key: K): boolean {
+    return this.entries.delete(key);
+  }
+
+  public clear(): void {
+    this.entries.clear();
+  }
+
+  public values(): IterableIterator<V> {
+    return this.entries.values();
+  }
+}
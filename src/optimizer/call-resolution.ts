@@ -0,0 +1,48 @@
+import { BinaryOp, BinaryOperator, Expr, Literal, NodeKind, Program, VarRef } from "../ast/nodes";
+import { CONSTANTS } from "../runtime/builtins";
+import { SymbolTable } from "../runtime/symbols";
+import { OptimizationPass } from "./pass";
+import { mapChildren, mapStatement } from "./rewrite";
+
+// 编译期消解 ID(expr) 的歧义: 内置函数保留为 Call, 变量或常量乘以参数改写成乘法节点,
+// 执行时不再经过 callFunction 的逐项判断. 无法确定的调用 (名字在执行到这里之前不一定有定义)
+// 保留原样, 仍由运行时给出 "Unknown function" 错误.
+// 只有外部变量和之前语句中的 var 定义才算已定义: 语句顺序执行, 之前的定义失败时程序已经终止
+export function resolveCalls(program: Program, symbols: SymbolTable): Program {
+  const defined = new Set(symbols.names());
+  const resolve = (expr: Expr): Expr => {
+    const node = mapChildren(expr, resolve);
+    if (node.kind !== NodeKind.Call || symbols.isBuiltin(node.name) || node.args.length !== 1) {
+      return node;
+    }
+    // 内置函数优先, 其次变量, 最后 pi/e 常量
+    if (defined.has(node.name)) {
+      return new BinaryOp(BinaryOperator.Multiply, new VarRef(node.name), node.args[0]);
+    }
+    const constant = CONSTANTS.get(node.name);
+    if (constant !== undefined) {
+      return new BinaryOp(BinaryOperator.Multiply, new Literal(constant), node.args[0]);
+    }
+    return node;
+  };
+  return new Program(
+    program.statements.map((statement) => {
+      const resolved = mapStatement(statement, resolve);
+      if (statement.kind === NodeKind.Define) {
+        defined.add(statement.name);
+      }
+      return resolved;
+    }),
+  );
+}
+
+// 按给定符号表解析调用; 符号表的 generation 变化后应重新运行
+export class CallResolution implements OptimizationPass {
+  public readonly name = "call-resolution";
+
+  constructor(private readonly symbols: SymbolTable) {}
+
+  public run(program: Program): Program {
+    return resolveCalls(program, this.symbols);
+  }
+}
@@ -0,0 +1,176 @@
+import { BinaryOperator, Bind, childrenOf, countNodes, Expr, NodeKind, Program, TempRef } from "../ast/nodes";
+import { REGISTRY } from "../runtime/builtins";
+import { RuntimeValue } from "../runtime/values";
+import { OptimizationPass } from "./pass";
+import { mapChildren, mapStatement, nextSlot } from "./rewrite";
+
+interface Occurrence {
+  order: number;
+  conditional: boolean;
+  size: number;
+}
+
+interface Candidate {
+  key: string;
+  size: number;
+  bindAt: number;
+}
+
+// 公共子表达式消除: 同一条语句里重复出现的纯表达式只算一次.
+// 第一个无条件求值的出现改写成 Bind, 之后求值的出现改写成 TempRef.
+// and/or 的右侧、比较链第二个之后的操作数可能被短路跳过, 不能作为 Bind 的位置,
+// 否则会提前求值本来不会执行的表达式 (以及它可能抛出的错误)
+export class CommonSubexpressions implements OptimizationPass {
+  public readonly name = "common-subexpressions";
+
+  public run(program: Program): Program {
+    let slot = nextSlot(program);
+    const statements = program.statements.map((statement) => {
+      let current = statement;
+      for (;;) {
+        const candidate = selectCandidate(collect(childrenOf(current)));
+        if (!candidate) {
+          return current;
+        }
+        current = mapStatement(current, rewriter(candidate, slot));
+        slot += 1;
+      }
+    });
+    return new Program(statements);
+  }
+}
+
+// 后序遍历就是求值顺序; 返回每个候选表达式的全部出现位置
+function collect(exprs: readonly Expr[]): Map<string, Occurrence[]> {
+  const occurrences = new Map<string, Occurrence[]>();
+  let order = 0;
+  const visit = (expr: Expr, conditional: boolean): void => {
+    switch (expr.kind) {
+      case NodeKind.BinaryOp: {
+        const shortCircuit = expr.operator === BinaryOperator.And || expr.operator === BinaryOperator.Or;
+        visit(expr.left, conditional);
+        visit(expr.right, conditional || shortCircuit);
+        break;
+      }
+      case NodeKind.CompareChain:
+        expr.operands.forEach((operand, i) => visit(operand, conditional || i > 1));
+        break;
+      default:
+        mapChildren(expr, (child) => {
+          visit(child, conditional);
+          return child;
+        });
+    }
+    const key = candidateKey(expr);
+    if (key !== undefined) {
+      const list = occurrences.get(key) ?? [];
+      list.push({ order, conditional, size: countNodes(expr) });
+      occurrences.set(key, list);
+    }
+    order += 1;
+  };
+  exprs.forEach((expr) => visit(expr, false));
+  return occurrences;
+}
+
+// 先消除最大的重复表达式, 其内部的重复随之消失
+function selectCandidate(occurrences: Map<string, Occurrence[]>): Candidate | undefined {
+  let best: Candidate | undefined;
+  for (const [key, list] of occurrences) {
+    const binding = list.find((occurrence) => !occurrence.conditional);
+    if (!binding || !list.some((occurrence) => occurrence.order > binding.order)) {
+      continue;
+    }
+    if (!best || binding.size > best.size) {
+      best = { key, size: binding.size, bindAt: binding.order };
+    }
+  }
+  return best;
+}
+
+// 与 collect 使用同样的后序编号, 因此能定位到选中的 Bind 位置
+function rewriter(candidate: Candidate, slot: number): (expr: Expr) => Expr {
+  let order = 0;
+  const rewrite = (expr: Expr): Expr => {
+    const node = mapChildren(expr, rewrite);
+    const at = order;
+    order += 1;
+    if (at < candidate.bindAt || candidateKey(expr) !== candidate.key) {
+      return node;
+    }
+    return at === candidate.bindAt ? new Bind(slot, node) : new TempRef(slot);
+  };
+  return rewrite;
+}
+
+// 只有可能有计算量、且不含临时槽位的表达式才参与消除; 向量和矩阵每次求值都要得到新数组
+function candidateKey(expr: Expr): string | undefined {
+  switch (expr.kind) {
+    case NodeKind.UnaryOp:
+    case NodeKind.BinaryOp:
+    case NodeKind.CompareChain:
+    case NodeKind.Call:
+      return containsBind(expr) || containsImpureCall(expr) ? undefined : keyOf(expr);
+    default:
+      return undefined;
+  }
+}
+
+function containsBind(expr: Expr): boolean {
+  let found = expr.kind === NodeKind.Bind;
+  mapChildren(expr, (child) => {
+    found = found || containsBind(child);
+    return child;
+  });
+  return found;
+}
+
+// 非内置函数的调用是变量乘法, 总是纯的
+function containsImpureCall(expr: Expr): boolean {
+  let found = expr.kind === NodeKind.Call && REGISTRY.lookup(expr.name)?.pure === false;
+  mapChildren(expr, (child) => {
+    found = found || containsImpureCall(child);
+    return child;
+  });
+  return found;
+}
+
+// 结构相同的表达式得到相同的键
+function keyOf(expr: Expr): string {
+  switch (expr.kind) {
+    case NodeKind.Literal:
+      return `#${literalKey(expr.value)}`;
+    case NodeKind.VarRef:
+      return `$${expr.name}`;
+    case NodeKind.TempRef:
+      return `@${expr.slot}`;
+    case NodeKind.UnaryOp:
+      return `u${expr.operator}(${keyOf(expr.operand)})`;
+    case NodeKind.BinaryOp:
+      return `b${expr.operator}(${keyOf(expr.left)},${keyOf(expr.right)})`;
+    case NodeKind.CompareChain:
+      return `c${expr.operators.join("")}(${expr.operands.map(keyOf).join(",")})`;
+    case NodeKind.Call:
+      return `f${expr.name}(${expr.args.map(keyOf).join(",")})`;
+    case NodeKind.VectorLit:
+      return `[${expr.items.map(keyOf).join(",")}]`;
+    case NodeKind.MatrixLit:
+      return `[${expr.rows.map((row) => row.map(keyOf).join(",")).join(";")}]`;
+    case NodeKind.Bind:
+      return `=${expr.slot}(${keyOf(expr.value)})`;
+  }
+}
+
+// JSON.stringify 会把 NaN 和 Infinity 都写成 null, 数值单独处理
+function literalKey(value: RuntimeValue): string {
+  if (typeof value === "number") {
+    return Object.is(value, -0) ? "-0" : String(value);
+  }
+  if (Array.isArray(value)) {
+    return `[${value.map(literalKey).join(",")}]`;
+  }
+  if (typeof value === "object") {
+    return `${literalKey(value.real)}+${literalKey(value.imag)}i`;
+  }
+  return JSON.stringify(value);
+}
@@ -0,0 +1,67 @@
+import { applyBinary, applyCompare, applyUnary } from "../ast/evaluator";
+import { BinaryOperator, Expr, Literal, NodeKind, Program } from "../ast/nodes";
+import { REGISTRY } from "../runtime/builtins";
+import { isTruthy, RuntimeValue } from "../runtime/values";
+import { OptimizationPass } from "./pass";
+import { mapChildren, mapProgram } from "./rewrite";
+
+// 常量折叠: 操作数都是字面量的运算在编译期用运行时同一套函数算好.
+// pi/e 在降级时已经是字面量, 所以 pi / 2 这样的表达式也会被折叠.
+// 运行时会报错的表达式 (1 / 0, (-1)!) 保持原样, 错误仍然在执行到它时抛出
+export class ConstantFolding implements OptimizationPass {
+  public readonly name = "constant-folding";
+
+  public run(program: Program): Program {
+    return mapProgram(program, fold);
+  }
+}
+
+function fold(expr: Expr): Expr {
+  const node = mapChildren(expr, fold);
+  switch (node.kind) {
+    case NodeKind.UnaryOp: {
+      const operand = node.operand;
+      return operand.kind === NodeKind.Literal ? attempt(node, () => applyUnary(node.operator, operand.value)) : node;
+    }
+    case NodeKind.BinaryOp: {
+      const { left, right } = node;
+      if (left.kind !== NodeKind.Literal) {
+        return node;
+      }
+      // 左操作数已经决定结果时, 右操作数不会被求值, 可以整个丢掉
+      if (node.operator === BinaryOperator.And && !isTruthy(left.value)) {
+        return new Literal(false);
+      }
+      if (node.operator === BinaryOperator.Or && isTruthy(left.value)) {
+        return new Literal(true);
+      }
+      return right.kind === NodeKind.Literal ? attempt(node, () => applyBinary(node.operator, left.value, right.value)) : node;
+    }
+    case NodeKind.CompareChain: {
+      const operands = node.operands;
+      if (!operands.every((operand) => operand.kind === NodeKind.Literal)) {
+        return node;
+      }
+      const values = operands.map((operand) => (operand as Literal).value);
+      return attempt(node, () => node.operators.every((operator, i) => applyCompare(operator, values[i], values[i + 1])));
+    }
+    case NodeKind.Call: {
+      // 内置函数优先于同名变量
+      const entry = REGISTRY.lookup(node.name);
+      if (!entry || !entry.pure || !node.args.every((arg) => arg.kind === NodeKind.Literal)) {
+        return node;
+      }
+      return attempt(node, () => entry.call(node.args.map((arg) => (arg as Literal).value)));
+    }
+    default:
+      return node;
+  }
+}
+
+function attempt(node: Expr, compute: () => RuntimeValue): Expr {
+  try {
+    return new Literal(compute());
+  } catch {
+    return node;
+  }
+}
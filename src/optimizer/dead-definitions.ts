@@ -0,0 +1,64 @@
+import { childrenOf, Expr, Node, NodeKind, Program } from "../ast/nodes";
+import { OptimizationPass } from "./pass";
+
+// 删除从未被读取的 var 定义. 只删除值是常量的定义 (通常由常量折叠得到),
+// 这样不会吞掉运行时错误; 同名的重复定义、assign 和最后一条语句 (程序结果) 都保留.
+// externals 是执行前变量表中已有的名字: 对它们的定义在运行时会报 "already defined", 必须保留.
+// 被删除的变量不会出现在执行后的变量表里, 所以这个 pass 不在默认列表中, 只在调用方不读取变量表时使用
+export class DeadDefinitions implements OptimizationPass {
+  public readonly name = "dead-definitions";
+  private readonly externals: ReadonlySet<string>;
+
+  constructor(externals: Iterable<string>) {
+    this.externals = new Set(externals);
+  }
+
+  public run(program: Program): Program {
+    const used = new Set<string>();
+    const defined = new Map<string, number>();
+    const visit = (node: Node): void => {
+      switch (node.kind) {
+        case NodeKind.VarRef:
+          used.add(node.name);
+          break;
+        case NodeKind.Call:
+          // 不是内置函数时 name 作为变量读取
+          used.add(node.name);
+          break;
+        case NodeKind.Assign:
+          used.add(node.name);
+          break;
+        case NodeKind.Define:
+          defined.set(node.name, (defined.get(node.name) ?? 0) + 1);
+          break;
+      }
+      childrenOf(node).forEach(visit);
+    };
+    program.statements.forEach(visit);
+
+    const last = program.statements.length - 1;
+    return new Program(
+      program.statements.filter(
+        (statement, i) =>
+          i === last ||
+          statement.kind !== NodeKind.Define ||
+          used.has(statement.name) ||
+          this.externals.has(statement.name) ||
+          defined.get(statement.name) !== 1 ||
+          !isConstant(statement.value),
+      ),
+    );
+  }
+}
+
+function isConstant(expr: Expr): boolean {
+  switch (expr.kind) {
+    case NodeKind.Literal:
+      return true;
+    case NodeKind.VectorLit:
+    case NodeKind.MatrixLit:
+      return childrenOf(expr).every(isConstant);
+    default:
+      return false;
+  }
+}
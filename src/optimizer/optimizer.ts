@@ -0,0 +1,71 @@
+import { countNodes, Program } from "../ast/nodes";
+import { CommonSubexpressions } from "./common-subexpressions";
+import { ConstantFolding } from "./constant-folding";
+import { OptimizationPass, PassReport } from "./pass";
+import { StrengthReduction } from "./strength-reduction";
+
+export interface OptimizeResult {
+  readonly program: Program;
+  readonly reports: readonly PassReport[];
+}
+
+// 折叠在最前面, 让后面的 pass 看到尽量多的字面量; 公共子表达式在展开幂之前消除,
+// 展开时可以直接复用它产生的临时槽位. DeadDefinitions 会改变执行后的变量表, 需要调用方显式加入
+export function defaultPasses(): OptimizationPass[] {
+  return [new ConstantFolding(), new CommonSubexpressions(), new StrengthReduction()];
+}
+
+// 按顺序执行各个 pass, 每个 pass 可以单独关闭, 并记录前后的节点数
+export class Optimizer {
+  private readonly disabled = new Set<string>();
+
+  constructor(private readonly passes: readonly OptimizationPass[] = defaultPasses()) {}
+
+  public get passNames(): string[] {
+    return this.passes.map((pass) => pass.name);
+  }
+
+  public setEnabled(name: string, enabled: boolean): this {
+    if (!this.passes.some((pass) => pass.name === name)) {
+      throw new Error(`Unknown optimization pass '${name}'`);
+    }
+    if (enabled) {
+      this.disabled.delete(name);
+    } else {
+      this.disabled.add(name);
+    }
+    return this;
+  }
+
+  public isEnabled(name: string): boolean {
+    return !this.disabled.has(name);
+  }
+
+  public optimize(program: Program): OptimizeResult {
+    const reports: PassReport[] = [];
+    let current = program;
+    for (const pass of this.passes) {
+      const nodesBefore = countNodes(current);
+      const enabled = this.isEnabled(pass.name);
+      const begin = process.hrtime.bigint();
+      if (enabled) {
+        current = pass.run(current);
+      }
+      const millis = Number(process.hrtime.bigint() - begin) / 1e6;
+      reports.push({ name: pass.name, enabled, nodesBefore, nodesAfter: countNodes(current), millis });
+    }
+    return { program: current, reports };
+  }
+}
+
+export function formatReports(reports: readonly PassReport[]): string {
+  return reports
+    .map((report) => {
+      if (!report.enabled) {
+        return `${report.name.padEnd(22)} disabled`;
+      }
+      const saved = report.nodesBefore - report.nodesAfter;
+      return `${report.name.padEnd(22)} ${String(report.nodesBefore).padStart(7)} -> ${String(report.nodesAfter).padStart(7)} nodes (${saved >= 0 ? "-" : "+"}${Math.abs(saved)}), ${report.millis.toFixed(2)} ms`;
+    })
+    .join("\n");
+}
@@ -0,0 +1,16 @@
+import { Program } from "../ast/nodes";
+
+// 一个优化 pass: 输入输出都是不可变的紧凑 AST, 所有后端 (AstEvaluator、JsCompiler、
+// SpecializedProgram、BytecodeCompiler) 都能直接执行优化后的结果
+export interface OptimizationPass {
+  readonly name: string;
+  run(program: Program): Program;
+}
+
+export interface PassReport {
+  readonly name: string;
+  readonly enabled: boolean;
+  readonly nodesBefore: number;
+  readonly nodesAfter: number;
+  readonly millis: number;
+}
@@ -0,0 +1,72 @@
+import {
+  Assign,
+  BinaryOp,
+  Bind,
+  Call,
+  childrenOf,
+  CompareChain,
+  Define,
+  Equation,
+  Expr,
+  ExprStmt,
+  MatrixLit,
+  Node,
+  NodeKind,
+  Print,
+  Program,
+  Statement,
+  UnaryOp,
+  VectorLit,
+} from "../ast/nodes";
+
+// 按求值顺序重建子节点, 叶子节点原样返回
+export function mapChildren(expr: Expr, map: (child: Expr) => Expr): Expr {
+  switch (expr.kind) {
+    case NodeKind.Literal:
+    case NodeKind.VarRef:
+    case NodeKind.TempRef:
+      return expr;
+    case NodeKind.UnaryOp:
+      return new UnaryOp(expr.operator, map(expr.operand));
+    case NodeKind.BinaryOp:
+      return new BinaryOp(expr.operator, map(expr.left), map(expr.right));
+    case NodeKind.CompareChain:
+      return new CompareChain(expr.operands.map(map), expr.operators);
+    case NodeKind.Call:
+      return new Call(expr.name, expr.args.map(map));
+    case NodeKind.VectorLit:
+      return new VectorLit(expr.items.map(map));
+    case NodeKind.MatrixLit:
+      return new MatrixLit(expr.rows.map((row) => row.map(map)));
+    case NodeKind.Bind:
+      return new Bind(expr.slot, map(expr.value));
+  }
+}
+
+export function mapStatement(statement: Statement, map: (expr: Expr) => Expr): Statement {
+  switch (statement.kind) {
+    case NodeKind.Define:
+      return new Define(statement.name, map(statement.value));
+    case NodeKind.Assign:
+      return new Assign(statement.name, map(statement.value));
+    case NodeKind.Equation:
+      return new Equation(map(statement.left), map(statement.right));
+    case NodeKind.Print:
+      return new Print(map(statement.value));
+    case NodeKind.ExprStmt:
+      return new ExprStmt(map(statement.value));
+    case NodeKind.Empty:
+      return statement;
+  }
+}
+
+export function mapProgram(program: Program, map: (expr: Expr) => Expr): Program {
+  return new Program(program.statements.map((statement) => mapStatement(statement, map)));
+}
+
+// 下一个未被占用的临时槽位, 多个 pass 依次分配时不会冲突
+export function nextSlot(program: Program): number {
+  const visit = (node: Node): number =>
+    childrenOf(node).reduce((max, child) => Math.max(max, visit(child)), node.kind === NodeKind.Bind ? node.slot + 1 : 0);
+  return program.statements.reduce((max, statement) => Math.max(max, visit(statement)), 0);
+}
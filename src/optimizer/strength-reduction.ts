@@ -0,0 +1,44 @@
+import { BinaryOp, BinaryOperator, Bind, Expr, Literal, NodeKind, Program, TempRef } from "../ast/nodes";
+import { OptimizationPass } from "./pass";
+import { mapChildren, mapProgram, nextSlot } from "./rewrite";
+
+// 超过这个次数的整数幂仍然交给 power, 避免展开出过长的乘法链
+const MAX_EXPONENT = 8;
+
+// 强度削减: x ^ n (n 是小整数字面量) 展开成 ((1 * x) * x) * ...
+// power 对整数指数本来就是从 1 开始逐次相乘并在每步规范化, 展开后的乘法链逐步骤相同,
+// 结果逐位一致, 而实数快速路径可以直接处理每一次乘法. 负指数再取 1 / 链.
+// 底数不是数值 (向量、字符串) 时报错信息来自乘法而不是 power
+export class StrengthReduction implements OptimizationPass {
+  public readonly name = "strength-reduction";
+
+  public run(program: Program): Program {
+    let slot = nextSlot(program);
+    const reduce = (expr: Expr): Expr => {
+      const node = mapChildren(expr, reduce);
+      if (node.kind !== NodeKind.BinaryOp || node.operator !== BinaryOperator.Power || node.right.kind !== NodeKind.Literal) {
+        return node;
+      }
+      const exponent = node.right.value;
+      if (typeof exponent !== "number" || !Number.isInteger(exponent) || Math.abs(exponent) < 2 || Math.abs(exponent) > MAX_EXPONENT) {
+        return node;
+      }
+      // 底数只求值一次: 变量和字面量可以直接重复, 其余先存入临时槽位
+      let first: Expr = node.left;
+      let rest: Expr = node.left;
+      if (first.kind === NodeKind.Bind) {
+        rest = new TempRef(first.slot);
+      } else if (first.kind !== NodeKind.VarRef && first.kind !== NodeKind.TempRef && first.kind !== NodeKind.Literal) {
+        first = new Bind(slot, node.left);
+        rest = new TempRef(slot);
+        slot += 1;
+      }
+      let chain: Expr = new BinaryOp(BinaryOperator.Multiply, new Literal(1), first);
+      for (let i = 1; i < Math.abs(exponent); i += 1) {
+        chain = new BinaryOp(BinaryOperator.Multiply, chain, rest);
+      }
+      return exponent < 0 ? new BinaryOp(BinaryOperator.Divide, new Literal(1), chain) : chain;
+    };
+    return mapProgram(program, reduce);
+  }
+}
@@ -0,0 +1,32 @@
+import { AstEvaluator } from "../ast/evaluator";
+import { NodeKind, Statement } from "../ast/nodes";
+import { RuntimeValue } from "../runtime/values";
+import { StatementOutcome } from "./messages";
+
+// 出错语句之后的同组语句在顺序执行时不会运行
+const SKIPPED: StatementOutcome = { writes: [], output: [], error: "skipped" };
+
+// 在同一张变量表上依次执行一组语句, 每条语句的写入和 print 输出分别记录.
+// 工作线程和调度器的本线程路径共用这里, 两边的语义完全相同
+export function executeChain(statements: readonly Statement[], inputs: Iterable<readonly [string, RuntimeValue]>): StatementOutcome[] {
+  const variables = new Map(inputs);
+  let output: string[] = [];
+  const evaluator = new AstEvaluator(undefined, variables, (line) => output.push(line));
+  const outcomes: StatementOutcome[] = [];
+  for (const statement of statements) {
+    output = [];
+    if (outcomes.length > 0 && outcomes[outcomes.length - 1].error !== undefined) {
+      outcomes.push(SKIPPED);
+      continue;
+    }
+    try {
+      const value = evaluator.execute(statement);
+      const writes: [string, RuntimeValue][] =
+        statement.kind === NodeKind.Define || statement.kind === NodeKind.Assign ? [[statement.name, variables.get(statement.name)!]] : [];
+      outcomes.push({ value, writes, output });
+    } catch (error) {
+      outcomes.push({ writes: [], output, error: (error as Error).message });
+    }
+  }
+  return outcomes;
+}
@@ -0,0 +1,218 @@
+import { AstEvaluator } from "../ast/evaluator";
+import { BinaryOperator, childrenOf, Expr, NodeKind, Program, Statement, UnaryOperator } from "../ast/nodes";
+import { REGISTRY } from "../runtime/builtins";
+import { RuntimeValue } from "../runtime/values";
+import { executeChain } from "./chain";
+import { StatementOutcome } from "./messages";
+import { WorkerPool } from "./worker-pool";
+
+// 调用非纯内置函数的语句之间保持原来的相对顺序, 把它们当作读写同一个伪变量
+const IMPURE = "<impure>";
+
+export interface StatementNode {
+  readonly index: number;
+  readonly statement: Statement;
+  // 语句执行前需要看到的名字, 对 define/assign 也包括被写的名字 (用来判断是否已定义)
+  readonly reads: readonly string[];
+  // 每个读到的名字由哪条语句最后写入, -1 表示来自初始变量或常量
+  readonly sources: ReadonlyMap<string, number>;
+  readonly dependencies: readonly number[];
+}
+
+export interface DependencyGraph {
+  readonly nodes: readonly StatementNode[];
+  // 最长依赖链上的语句数, 也就是并行执行时最少需要的轮数
+  readonly criticalPath: number;
+}
+
+function collectReads(expr: Expr, names: Set<string>): void {
+  if (expr.kind === NodeKind.VarRef) {
+    names.add(expr.name);
+  } else if (expr.kind === NodeKind.Call) {
+    // 不是内置函数时名字按变量解析 (隐式乘法)
+    names.add(expr.name);
+    const entry = REGISTRY.lookup(expr.name);
+    if (entry && !entry.pure) {
+      names.add(IMPURE);
+    }
+  }
+  for (const child of childrenOf(expr)) {
+    collectReads(child, names);
+  }
+}
+
+function writtenName(statement: Statement): string | undefined {
+  return statement.kind === NodeKind.Define || statement.kind === NodeKind.Assign ? statement.name : undefined;
+}
+
+// 由每条语句读写的名字建立依赖图. 读取的值直接取自最后写入它的语句的结果,
+// 所以只有读后写 (真依赖) 需要等待; 同名的重复写入因为要判断是否已定义也读取该名字, 自然串行
+export function buildDependencyGraph(program: Program): DependencyGraph {
+  const lastWriter = new Map<string, number>();
+  const depth: number[] = [];
+  const nodes = program.statements.map((statement, index): StatementNode => {
+    const names = new Set<string>();
+    for (const child of childrenOf(statement)) {
+      collectReads(child, names);
+    }
+    const written = writtenName(statement);
+    if (written !== undefined) {
+      names.add(written);
+    }
+    const sources = new Map<string, number>();
+    const dependencies = new Set<number>();
+    for (const name of names) {
+      const writer = lastWriter.get(name) ?? -1;
+      sources.set(name, writer);
+      if (writer >= 0) {
+        dependencies.add(writer);
+      }
+    }
+    if (written !== undefined) {
+      lastWriter.set(written, index);
+    }
+    if (names.has(IMPURE)) {
+      lastWriter.set(IMPURE, index);
+    }
+    depth[index] = 1 + Math.max(0, ...[...dependencies].map((dependency) => depth[dependency]));
+    return { index, statement, reads: [...names], sources, dependencies: [...dependencies] };
+  });
+  return { nodes, criticalPath: Math.max(0, ...depth) };
+}
+
+// 估计一条语句的执行代价 (大致相当于求值的节点数). 整数次幂和阶乘按字面量展开循环次数,
+// 其它次幂和函数调用按一个固定值计
+export function estimateCost(node: Statement | Expr): number {
+  let cost = 1;
+  if (node.kind === NodeKind.BinaryOp && node.operator === BinaryOperator.Power) {
+    const exponent = node.right;
+    cost += exponent.kind === NodeKind.Literal && typeof exponent.value === "number" ? Math.abs(Math.round(exponent.value)) : 8;
+  } else if (node.kind === NodeKind.UnaryOp && node.operator === UnaryOperator.Factorial) {
+    const operand = node.operand;
+    cost += operand.kind === NodeKind.Literal && typeof operand.value === "number" ? Math.abs(operand.value) : 8;
+  } else if (node.kind === NodeKind.Call) {
+    cost += 8;
+  }
+  for (const child of childrenOf(node)) {
+    cost += estimateCost(child);
+  }
+  return cost;
+}
+
+// 依赖链: 只依赖链尾、并且是链尾唯一后继的语句接在链上. 同一条链上的语句反正只能依次执行,
+// 放在一个任务里, 中间结果不必在线程之间来回传递
+interface Chain {
+  readonly members: number[];
+  // 链外的依赖, 等于链首语句的依赖
+  readonly dependencies: readonly number[];
+  cost: number;
+}
+
+function buildChains(graph: DependencyGraph, costs: readonly number[]): { chains: Chain[]; chainOf: number[] } {
+  const dependents = new Array<number>(graph.nodes.length).fill(0);
+  for (const node of graph.nodes) {
+    for (const dependency of node.dependencies) {
+      dependents[dependency] += 1;
+    }
+  }
+  const chains: Chain[] = [];
+  const chainOf: number[] = [];
+  for (const node of graph.nodes) {
+    const [only] = node.dependencies;
+    const chain = node.dependencies.length === 1 && dependents[only] === 1 ? chains[chainOf[only]] : undefined;
+    if (chain && chain.members[chain.members.length - 1] === only) {
+      chain.members.push(node.index);
+      chain.cost += costs[node.index];
+      chainOf[node.index] = chainOf[only];
+    } else {
+      chainOf[node.index] = chains.length;
+      chains.push({ members: [node.index], dependencies: node.dependencies, cost: costs[node.index] });
+    }
+  }
+  return { chains, chainOf };
+}
+
+export interface DataflowOptions {
+  // 代价低于这个值的链在调用方线程上直接执行, 不值得一次线程往返和语法树的结构化克隆
+  readonly inlineCost?: number;
+}
+
+// 数据流调度: 每条依赖链在它依赖的链都完成后立刻开始, 代价高的链交给线程池, 互不依赖的链同时执行,
+// 总耗时取决于最长依赖链而不是语句总数; 代价低的链在本线程执行. 没有任何一条链值得并行时直接顺序执行.
+// 变量写入、print 输出和错误都按语句顺序提交, 调用方看到的结果与顺序执行完全相同:
+// 第一条出错语句之前的输出都已打印, 之后的语句即使已经执行, 其结果也被丢弃
+export class DataflowScheduler {
+  private readonly inlineCost: number;
+
+  constructor(private readonly pool: WorkerPool, options: DataflowOptions = {}) {
+    this.inlineCost = options.inlineCost ?? 5000;
+  }
+
+  public async run(
+    program: Program,
+    variables = new Map<string, RuntimeValue>(),
+    print: (line: string) => void = (line) => console.log(line),
+  ): Promise<RuntimeValue | undefined> {
+    const graph = buildDependencyGraph(program);
+    const costs = graph.nodes.map((node) => estimateCost(node.statement));
+    const { chains, chainOf } = buildChains(graph, costs);
+    const parallel = chains.filter((chain) => chain.cost >= this.inlineCost).length;
+    if (parallel < 2) {
+      // 至多一条昂贵的链时没有可以重叠的工作
+      return new AstEvaluator(undefined, variables, print).run(program);
+    }
+
+    const initial = new Map(variables);
+    const outcomes: StatementOutcome[] = [];
+    const done: Promise<void>[] = [];
+    let failed = false;
+
+    const execute = async (chain: Chain): Promise<void> => {
+      await Promise.all(chain.dependencies.map((dependency) => done[chainOf[dependency]]));
+      const members = chain.members.map((index) => graph.nodes[index]);
+      if (failed || chain.dependencies.some((dependency) => outcomes[dependency].error !== undefined)) {
+        // 前面已经出错, 这条链在顺序执行时不会运行
+        members.forEach((node) => (outcomes[node.index] = { writes: [], output: [], error: "skipped" }));
+        return;
+      }
+      const inputs = new Map<string, RuntimeValue>();
+      for (const node of members) {
+        for (const [name, writer] of node.sources) {
+          if (writer >= 0 && chainOf[writer] === chainOf[node.index]) {
+            continue;
+          }
+          const value = writer >= 0 ? outcomes[writer].writes.find(([written]) => written === name)?.[1] : initial.get(name);
+          if (value !== undefined) {
+            inputs.set(name, value);
+          }
+        }
+      }
+      const statements = members.map((node) => node.statement);
+      const results =
+        chain.cost < this.inlineCost ? executeChain(statements, inputs) : await this.pool.runStatements(statements, [...inputs]);
+      members.forEach((node, i) => (outcomes[node.index] = results[i]));
+    };
+    for (const chain of chains) {
+      const finished = execute(chain);
+      // 出错后不再等待的链也不能产生未处理的拒绝
+      finished.catch(() => undefined);
+      done.push(finished);
+    }
+
+    let result: RuntimeValue | undefined;
+    for (let index = 0; index < graph.nodes.length; index += 1) {
+      await done[chainOf[index]];
+      const outcome = outcomes[index];
+      outcome.output.forEach((line) => print(line));
+      if (outcome.error !== undefined) {
+        failed = true;
+        throw new Error(outcome.error);
+      }
+      for (const [name, value] of outcome.writes) {
+        variables.set(name, value);
+      }
+      result = outcome.value;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,63 @@
+import { Statement } from "../ast/nodes";
+import { RuntimeValue } from "../runtime/values";
+
+// 主线程与工作线程之间的消息. 列数据放在 SharedArrayBuffer 上, 只传视图不复制
+
+export interface ColumnsTask {
+  readonly id: number;
+  readonly type: "columns";
+  readonly source: string;
+  readonly inputs: readonly string[];
+  readonly columns: readonly Float64Array[];
+  readonly output: Float64Array;
+  readonly start: number;
+  readonly end: number;
+}
+
+export interface ScriptsTask {
+  readonly id: number;
+  readonly type: "scripts";
+  readonly scripts: readonly string[];
+}
+
+// 一条依赖链上的若干语句, 在同一个线程里依次执行. 语法树按结构化克隆传递,
+// inputs 是链外语句写入、链内语句读到的变量值
+export interface StatementsTask {
+  readonly id: number;
+  readonly type: "statements";
+  readonly statements: readonly Statement[];
+  readonly inputs: readonly [string, RuntimeValue][];
+}
+
+// 大脚本中从 firstLine 行 firstColumn 列开始的一段完整语句
+export interface ParseTask {
+  readonly id: number;
+  readonly type: "parse";
+  readonly source: string;
+  readonly firstLine: number;
+  readonly firstColumn: number;
+}
+
+export type Task = ColumnsTask | ScriptsTask | StatementsTask | ParseTask;
+
+// 脚本的结果或错误信息, 二者只有一个
+export interface ScriptResult {
+  readonly value?: RuntimeValue;
+  readonly error?: string;
+}
+
+// 语句的执行结果: 写入的变量和 print 的输出都先缓存, 由调用方按语句顺序提交
+export interface StatementOutcome {
+  readonly value?: RuntimeValue;
+  readonly writes: [string, RuntimeValue][];
+  readonly output: string[];
+  readonly error?: string;
+}
+
+export interface TaskResult {
+  readonly id: number;
+  readonly results?: ScriptResult[];
+  readonly outcomes?: StatementOutcome[];
+  readonly statements?: Statement[];
+  readonly error?: string;
+}
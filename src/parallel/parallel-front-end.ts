@@ -0,0 +1,72 @@
+import { lowerProgram } from "../ast/lower";
+import { Program } from "../ast/nodes";
+import { parseProgram } from "../parser/front-end";
+import { StatementSplitter } from "../parser/statement-splitter";
+import { WorkerPool } from "./worker-pool";
+
+// 小于这个长度的输入直接在当前线程解析, 分块和传输语法树的开销不值得
+const MIN_PARALLEL_LENGTH = 64 * 1024;
+
+export interface SourceChunk {
+  readonly source: string;
+  readonly firstLine: number;
+  // 段首在所在行中的列; 段可以在行中间的 `;` 之后开始
+  readonly firstColumn: number;
+}
+
+// 按顶层语句边界把输入切成大小相近的若干段. 边界只出现在括号外、注释外的 `;` 或换行之后,
+// 每段都是完整语句的序列, 各段拼接起来就是原文
+export function splitChunks(source: string, count: number): SourceChunk[] {
+  const target = Math.ceil(source.length / Math.max(1, count));
+  const chunks: SourceChunk[] = [];
+  const splitter = new StatementSplitter();
+  let parts: string[] = [];
+  let length = 0;
+  let offset = 0;
+  let firstLine = 1;
+  const flush = () => {
+    if (parts.length > 0) {
+      const firstColumn = offset - (source.lastIndexOf("\n", offset - 1) + 1);
+      chunks.push({ source: parts.join(""), firstLine, firstColumn });
+      offset += length;
+      parts = [];
+      length = 0;
+    }
+  };
+  const collect = (statement: string, line: number) => {
+    if (parts.length === 0) {
+      firstLine = line;
+    }
+    parts.push(statement);
+    length += statement.length;
+    if (length >= target) {
+      flush();
+    }
+  };
+  splitter.push(source, collect);
+  splitter.end(collect);
+  flush();
+  return chunks;
+}
+
+// 并行前端: 各段在不同工作线程上用各自的 lexer/parser 解析并降级, 再按原顺序拼接语句列表.
+// 每段带着它在原文中的起始行号和列号解析, 语法错误报告的位置与整体解析时相同
+export class ParallelFrontEnd {
+  constructor(private readonly pool: WorkerPool, private readonly chunksPerWorker = 2) {}
+
+  public async parse(source: string): Promise<Program> {
+    if (source.length < MIN_PARALLEL_LENGTH || this.pool.size === 1) {
+      return lowerProgram(parseProgram(source));
+    }
+    const chunks = splitChunks(source, this.pool.size * this.chunksPerWorker);
+    const settled = await Promise.allSettled(chunks.map((chunk) => this.pool.parse(chunk.source, chunk.firstLine, chunk.firstColumn)));
+    // 多段都失败时报告最靠前的一段, 与整体解析时首先遇到的错误一致, 不取决于哪个线程先完成
+    const statements = settled.map((result) => {
+      if (result.status === "rejected") {
+        throw result.reason;
+      }
+      return result.value;
+    });
+    return new Program(statements.flat());
+  }
+}
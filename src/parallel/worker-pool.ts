@@ -0,0 +1,161 @@
+import { cpus } from "os";
+import { Worker } from "worker_threads";
+import { Columns } from "../batch/batch-compiler";
+import { Statement } from "../ast/nodes";
+import { RuntimeValue } from "../runtime/values";
+import { ColumnsTask, ParseTask, ScriptResult, ScriptsTask, StatementOutcome, StatementsTask, Task, TaskResult } from "./messages";
+
+type TaskBody = Omit<ColumnsTask, "id"> | Omit<ScriptsTask, "id"> | Omit<StatementsTask, "id"> | Omit<ParseTask, "id">;
+
+interface Pending {
+  readonly task: Task;
+  readonly resolve: (result: TaskResult) => void;
+  readonly reject: (error: Error) => void;
+}
+
+export interface ParallelOptions {
+  // 每个任务的行数 / 脚本数; 默认把输入切成线程数的 8 倍, 让先做完的线程去领剩下的块
+  readonly chunkSize?: number;
+}
+
+// 用 ts-node 直接运行时, 工作线程同样需要注册 TypeScript 加载器
+function workerOptions() {
+  return __filename.endsWith(".ts") ? { execArgv: ["--require", "ts-node/register"] } : {};
+}
+
+function shared(column: Float64Array): Float64Array {
+  if (column.buffer instanceof SharedArrayBuffer) {
+    return column;
+  }
+  const copy = new Float64Array(new SharedArrayBuffer(column.byteLength));
+  copy.set(column);
+  return copy;
+}
+
+// 工作线程池: 输入切成许多小块放进一个队列, 空闲的线程领取下一块 (先做完的线程自然分担慢线程的工作),
+// 每个块的结果写回它在输出中的固定位置, 所以结果顺序与线程调度无关
+export class WorkerPool {
+  private readonly workers: Worker[] = [];
+  private readonly idle: Worker[] = [];
+  private readonly running = new Map<Worker, Pending>();
+  private readonly queue: Pending[] = [];
+  private nextId = 0;
+  private closed = false;
+
+  constructor(public readonly size = cpus().length) {
+    if (!Number.isInteger(size) || size < 1) {
+      throw new Error(`Invalid worker count ${size}`);
+    }
+    for (let i = 0; i < size; i += 1) {
+      const worker = new Worker(require.resolve("./worker"), workerOptions());
+      worker.on("message", (result: TaskResult) => this.complete(worker, result));
+      worker.on("error", (error) => this.fail(error));
+      // 线程自己退出 (超出 resourceLimits、插件调用 process.exit) 时正在执行的任务同样不会再有结果
+      worker.on("exit", (code) => {
+        if (!this.closed) {
+          this.fail(new Error(`Worker exited unexpectedly with code ${code}`));
+        }
+      });
+      this.workers.push(worker);
+      this.idle.push(worker);
+    }
+  }
+
+  // 对每一行求同一个公式; 输入列不在 SharedArrayBuffer 上时先复制一份
+  public async evaluateColumns(source: string, columns: Columns, options: ParallelOptions = {}): Promise<Float64Array> {
+    const inputs = Object.keys(columns);
+    const views = inputs.map((name) => shared(columns[name]));
+    const rows = views.length > 0 ? views[0].length : 0;
+    if (views.some((column) => column.length !== rows)) {
+      throw new Error("Input columns must have the same length");
+    }
+    const output = new Float64Array(new SharedArrayBuffer(rows * Float64Array.BYTES_PER_ELEMENT));
+    const chunkSize = options.chunkSize ?? Math.max(1024, Math.ceil(rows / (this.size * 8)));
+    const tasks: Promise<TaskResult>[] = [];
+    for (let start = 0; start < rows; start += chunkSize) {
+      const end = Math.min(rows, start + chunkSize);
+      tasks.push(this.submit({ type: "columns", source, inputs, columns: views, output, start, end }));
+    }
+    // 报告行号最小的块的错误, 与顺序执行时首先遇到的错误一致
+    const failed = (await Promise.all(tasks)).find((result) => result.error !== undefined);
+    if (failed) {
+      throw new Error(failed.error);
+    }
+    return output;
+  }
+
+  // 相互独立的脚本各自在新的变量表上执行, 结果按输入顺序返回
+  public async runScripts(scripts: readonly string[], options: ParallelOptions = {}): Promise<ScriptResult[]> {
+    const chunkSize = options.chunkSize ?? Math.max(1, Math.ceil(scripts.length / (this.size * 8)));
+    const tasks: Promise<TaskResult>[] = [];
+    for (let start = 0; start < scripts.length; start += chunkSize) {
+      tasks.push(this.submit({ type: "scripts", scripts: scripts.slice(start, start + chunkSize) }));
+    }
+    const results = await Promise.all(tasks);
+    return results.flatMap((result) => {
+      if (result.error !== undefined) {
+        throw new Error(result.error);
+      }
+      return result.results ?? [];
+    });
+  }
+
+  // 在给定的变量值上依次执行一组语句, 不影响其它语句的变量表
+  public async runStatements(statements: readonly Statement[], inputs: readonly [string, RuntimeValue][]): Promise<StatementOutcome[]> {
+    const result = await this.submit({ type: "statements", statements, inputs });
+    if (result.error !== undefined) {
+      throw new Error(result.error);
+    }
+    return result.outcomes!;
+  }
+
+  // 解析并降级一段完整语句; 返回的节点经过结构化克隆, 只保留字段, 各个执行后端按 kind 分派, 不受影响
+  public async parse(source: string, firstLine = 1, firstColumn = 0): Promise<Statement[]> {
+    const result = await this.submit({ type: "parse", source, firstLine, firstColumn });
+    if (result.error !== undefined) {
+      throw new Error(result.error);
+    }
+    return result.statements!;
+  }
+
+  public async close(): Promise<void> {
+    this.closed = true;
+    await Promise.all(this.workers.map((worker) => worker.terminate()));
+  }
+
+  private submit(body: TaskBody): Promise<TaskResult> {
+    if (this.closed) {
+      return Promise.reject(new Error("Worker pool is closed"));
+    }
+    return new Promise((resolve, reject) => {
+      this.queue.push({ task: { ...body, id: this.nextId++ } as Task, resolve, reject });
+      this.dispatch();
+    });
+  }
+
+  private dispatch(): void {
+    while (this.idle.length > 0 && this.queue.length > 0) {
+      const worker = this.idle.pop()!;
+      const pending = this.queue.shift()!;
+      this.running.set(worker, pending);
+      worker.postMessage(pending.task);
+    }
+  }
+
+  private complete(worker: Worker, result: TaskResult): void {
+    const pending = this.running.get(worker);
+    this.running.delete(worker);
+    this.idle.push(worker);
+    pending?.resolve(result);
+    this.dispatch();
+  }
+
+  // 线程本身崩溃 (不是任务抛出的错误) 时整个池不再可用
+  private fail(error: Error): void {
+    this.closed = true;
+    for (const pending of [...this.running.values(), ...this.queue.splice(0)]) {
+      pending.reject(error);
+    }
+    this.running.clear();
+  }
+}
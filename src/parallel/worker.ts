@@ -0,0 +1,73 @@
+import { parentPort } from "worker_threads";
+import { AstEvaluator } from "../ast/evaluator";
+import { lowerProgram } from "../ast/lower";
+import { Program } from "../ast/nodes";
+import { BatchCompiler, BatchProgram } from "../batch/batch-compiler";
+import { LruCache } from "../lru-cache";
+import { CalculatorFrontEnd, parseProgram } from "../parser/front-end";
+import { REGISTRY } from "../runtime/builtins";
+import { executeChain } from "./chain";
+import { ColumnsTask, ParseTask, ScriptResult, ScriptsTask, StatementsTask, Task, TaskResult } from "./messages";
+
+// 工作线程入口. 每个线程有自己的内置函数表和编译缓存, 同一个公式只在线程里编译一次
+REGISTRY.loadFromEnvironment();
+
+// 每个缓存最多保留的条目数; 夜间任务可能送来上百万个各不相同的脚本, 缓存不能随之无限增长
+const MAX_CACHED = 1024;
+
+// 按源码缓存编译结果, 超过容量时淘汰最久未使用的条目
+const batches = new LruCache<string, BatchProgram>(MAX_CACHED);
+const programs = new LruCache<string, Program>(MAX_CACHED);
+
+function evaluateColumns(task: ColumnsTask): TaskResult {
+  const key = `${task.inputs.join(",")}\n${task.source}`;
+  const batch = batches.getOrCreate(key, () => BatchCompiler.compile(lowerProgram(parseProgram(task.source)), task.inputs));
+  const columns: Record<string, Float64Array> = {};
+  task.inputs.forEach((name, index) => (columns[name] = task.columns[index].subarray(task.start, task.end)));
+  batch.evaluate(columns, task.output.subarray(task.start, task.end), task.start);
+  return { id: task.id };
+}
+
+function runScripts(task: ScriptsTask): TaskResult {
+  const results = task.scripts.map((source): ScriptResult => {
+    try {
+      const program = programs.getOrCreate(source, () => lowerProgram(parseProgram(source)));
+      return { value: new AstEvaluator().run(program) };
+    } catch (error) {
+      return { error: (error as Error).message };
+    }
+  });
+  return { id: task.id, results };
+}
+
+function runStatements(task: StatementsTask): TaskResult {
+  return { id: task.id, outcomes: executeChain(task.statements, task.inputs) };
+}
+
+function parse(task: ParseTask): TaskResult {
+  const program = lowerProgram(CalculatorFrontEnd.current().parse(task.source, task.firstLine, task.firstColumn));
+  return { id: task.id, statements: [...program.statements] };
+}
+
+function handle(task: Task): TaskResult {
+  switch (task.type) {
+    case "columns":
+      return evaluateColumns(task);
+    case "scripts":
+      return runScripts(task);
+    case "statements":
+      return runStatements(task);
+    case "parse":
+      return parse(task);
+  }
+}
+
+parentPort!.on("message", (task: Task) => {
+  let result: TaskResult;
+  try {
+    result = handle(task);
+  } catch (error) {
+    result = { id: task.id, error: (error as Error).message };
+  }
+  parentPort!.postMessage(result);
+});
@@ -0,0 +1,82 @@
+import { parseDecimal } from "./decimal-literal";
+
+// 往返校验: parseDecimal 对每个输入的结果必须与 Number() 逐位相同,
+// 并且 double 的最短十进制表示解析回来必须得到原值
+
+function random(seed: number): () => number {
+  let state = seed >>> 0;
+  return () => {
+    state = (state + 0x6d2b79f5) >>> 0;
+    let t = state;
+    t = Math.imul(t ^ (t >>> 15), t | 1);
+    t ^= t + Math.imul(t ^ (t >>> 7), t | 61);
+    return (t ^ (t >>> 14)) >>> 0;
+  };
+}
+
+// 由随机位模式构造的非负有限 double, 覆盖所有指数范围和次正规数
+function randomDouble(next: () => number, bits: Float64Array, words: Uint32Array): number {
+  for (;;) {
+    words[0] = next();
+    words[1] = next() & 0x7fffffff;
+    if (Number.isFinite(bits[0])) {
+      return bits[0];
+    }
+  }
+}
+
+// toString/toExponential 对非负有限值的输出都符合 DECIMAL_LITERAL 的写法
+function literalForms(value: number, next: () => number): string[] {
+  return [String(value), value.toExponential(next() % 21), value.toExponential().replace("e+", "E")];
+}
+
+export function main() {
+  const next = random(20240612);
+  const bits = new Float64Array(1);
+  const words = new Uint32Array(bits.buffer);
+  let checked = 0;
+  let failures = 0;
+  const check = (text: string, expected?: number) => {
+    checked += 1;
+    const actual = parseDecimal(text, 0, text.length);
+    const reference = expected ?? Number(text);
+    if (!Object.is(actual, reference)) {
+      failures += 1;
+      if (failures <= 20) {
+        console.error(`${text}: expected ${reference}, got ${actual}`);
+      }
+    }
+  };
+
+  // 随机 double 的往返
+  for (let i = 0; i < 1000000; i += 1) {
+    const value = randomDouble(next, bits, words);
+    check(String(value), value);
+    for (const form of literalForms(value, next)) {
+      check(form);
+    }
+  }
+
+  // 快速路径的边界: 小尾数与 10^-22 .. 10^37 范围内的每个指数
+  for (let mantissa = 0; mantissa < 20000; mantissa += 1) {
+    for (let exponent = -30; exponent <= 40; exponent += 1) {
+      check(`${mantissa}e${exponent}`);
+    }
+  }
+
+  // 2^53 附近的整数和有效数字位数边界
+  for (let offset = -1000; offset <= 1000; offset += 1) {
+    check(String(2 ** 53 + offset));
+    check(`${2 ** 53 + offset}.5`);
+  }
+  for (const text of ["0", "0.", ".0", "000", "1.", ".5", "0.000", "1e400", "1e-400", "4.9e-324", "2.5e-324", "1.7976931348623157e308", "1.7976931348623159e308", "123456789012345", "1234567890123456", "999999999999999e22", "0.1e+23", "5E3"]) {
+    check(text);
+  }
+
+  console.log(`checked: ${checked}, failures: ${failures}`);
+  if (failures > 0) {
+    process.exitCode = 1;
+  }
+}
+
+main();
@@ -0,0 +1,80 @@
+// 10^0 .. 10^22 都能被 double 精确表示
+const POW10 = new Float64Array(23);
+for (let i = 0, value = 1; i < POW10.length; i += 1, value *= 10) {
+  POW10[i] = value;
+}
+
+// 有效数字不超过 15 位时尾数一定小于 2^53, 可以精确表示
+const MAX_EXACT_DIGITS = 15;
+// 指数再大时结果一定溢出或下溢, 不需要继续累加
+const EXPONENT_LIMIT = 100000;
+
+// 直接在源文本的 [start, end) 上解析 Calculator.g4 的 DECIMAL_LITERAL, 不创建子串
+// 尾数和 10 的幂都能精确表示时只做一次浮点乘/除, 结果即正确舍入 (Clinger 快速路径);
+// 其余少见情况交给 Number(), 两条路径的结果与 Number(text) 完全一致
+// 调用方保证输入已经是合法的 DECIMAL_LITERAL (由词法分析器识别)
+export function parseDecimal(text: string, start: number, end: number): number {
+  let mantissa = 0;
+  let digits = 0;
+  let exponent = 0;
+  let i = start;
+
+  let c = i < end ? text.charCodeAt(i) : 0;
+  while (c >= 0x30 && c <= 0x39) {
+    mantissa = mantissa * 10 + (c - 0x30);
+    if (mantissa !== 0) {
+      digits += 1;
+    }
+    i += 1;
+    c = i < end ? text.charCodeAt(i) : 0;
+  }
+  if (c === 0x2e) {
+    i += 1;
+    c = i < end ? text.charCodeAt(i) : 0;
+    while (c >= 0x30 && c <= 0x39) {
+      mantissa = mantissa * 10 + (c - 0x30);
+      if (mantissa !== 0) {
+        digits += 1;
+      }
+      exponent -= 1;
+      i += 1;
+      c = i < end ? text.charCodeAt(i) : 0;
+    }
+  }
+  if ((c | 0x20) === 0x65) {
+    i += 1;
+    c = i < end ? text.charCodeAt(i) : 0;
+    let negative = false;
+    if (c === 0x2b || c === 0x2d) {
+      negative = c === 0x2d;
+      i += 1;
+      c = i < end ? text.charCodeAt(i) : 0;
+    }
+    let value = 0;
+    while (c >= 0x30 && c <= 0x39) {
+      if (value < EXPONENT_LIMIT) {
+        value = value * 10 + (c - 0x30);
+      }
+      i += 1;
+      c = i < end ? text.charCodeAt(i) : 0;
+    }
+    exponent += negative ? -value : value;
+  }
+
+  if (mantissa === 0) {
+    return 0;
+  }
+  if (digits <= MAX_EXACT_DIGITS) {
+    if (exponent >= 0 && exponent <= 22) {
+      return mantissa * POW10[exponent];
+    }
+    if (exponent < 0 && exponent >= -22) {
+      return mantissa / POW10[-exponent];
+    }
+    // 尾数位数较少时, 先把多出的指数乘进尾数 (仍然精确), 再乘 10^22
+    if (exponent > 22 && exponent <= 22 + MAX_EXACT_DIGITS - digits) {
+      return mantissa * POW10[exponent - 22] * POW10[22];
+    }
+  }
+  return Number(text.substring(start, end));
+}
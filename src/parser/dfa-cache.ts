@@ -0,0 +1,84 @@
+import { ATN } from "antlr4ts/atn/ATN";
+import { CalculatorLexer } from "../../generated/grammar/CalculatorLexer";
+import { CalculatorParser } from "../../generated/grammar/CalculatorParser";
+
+export interface DecisionStats {
+  decision: number;
+  states: number;
+}
+
+export interface DfaCacheStats {
+  parserStates: number;
+  lexerStates: number;
+  evictions: number;
+  largestDecision: DecisionStats | undefined;
+}
+
+export interface DfaCacheOptions {
+  maxParserStates?: number;
+  maxLexerStates?: number;
+  onEvict?: (stats: DfaCacheStats) => void;
+}
+
+// 给解析器/词法分析器共享的静态 DFA 缓存设置上限
+// 检查只在两次解析之间进行: 解析是同步的, 清空时不会有解析器正在读取旧的 DFA;
+// 每个 worker 线程拥有独立的 ATN 实例, 互不影响
+export class DfaCacheGuard {
+  private readonly maxParserStates: number;
+  private readonly maxLexerStates: number;
+  private readonly onEvict?: (stats: DfaCacheStats) => void;
+  private evictions = 0;
+
+  constructor(options: DfaCacheOptions = {}) {
+    this.maxParserStates = options.maxParserStates ?? 50000;
+    this.maxLexerStates = options.maxLexerStates ?? 10000;
+    this.onEvict = options.onEvict;
+  }
+
+  public static decisionStats(atn: ATN = CalculatorParser._ATN): DecisionStats[] {
+    return atn.decisionToDFA.map((dfa, decision) => ({ decision, states: dfa.states.size }));
+  }
+
+  private static totalStates(atn: ATN, lexer: boolean): number {
+    let count = 0;
+    for (const dfa of lexer ? atn.modeToDFA : atn.decisionToDFA) {
+      count += dfa.states.size;
+    }
+    return count;
+  }
+
+  public get stats(): DfaCacheStats {
+    let largestDecision: DecisionStats | undefined;
+    for (const entry of DfaCacheGuard.decisionStats()) {
+      if (!largestDecision || entry.states > largestDecision.states) {
+        largestDecision = entry;
+      }
+    }
+    return {
+      parserStates: DfaCacheGuard.totalStates(CalculatorParser._ATN, false),
+      lexerStates: DfaCacheGuard.totalStates(CalculatorLexer._ATN, true),
+      evictions: this.evictions,
+      largestDecision,
+    };
+  }
+
+  // 超出上限时丢弃整个 DFA 和预测上下文缓存, 返回是否发生了清空
+  public check(): boolean {
+    const parserStates = DfaCacheGuard.totalStates(CalculatorParser._ATN, false);
+    const lexerStates = DfaCacheGuard.totalStates(CalculatorLexer._ATN, true);
+    if (parserStates <= this.maxParserStates && lexerStates <= this.maxLexerStates) {
+      return false;
+    }
+    if (parserStates > this.maxParserStates) {
+      CalculatorParser._ATN.clearDFA();
+    }
+    if (lexerStates > this.maxLexerStates) {
+      CalculatorLexer._ATN.clearDFA();
+    }
+    this.evictions += 1;
+    if (this.onEvict) {
+      this.onEvict(this.stats);
+    }
+    return true;
+  }
+}
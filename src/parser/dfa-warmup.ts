@@ -0,0 +1,99 @@
+import { createHash } from "crypto";
+import { existsSync, readFileSync, writeFileSync } from "fs";
+import { DFA } from "antlr4ts/dfa/DFA";
+import { CalculatorLexer } from "../../generated/grammar/CalculatorLexer";
+import { CalculatorParser } from "../../generated/grammar/CalculatorParser";
+import { TwoStageParser } from "./two-stage-parser";
+
+export interface DfaSnapshot {
+  version: 1;
+  grammarHash: string;
+  samples: string[];
+}
+
+// 覆盖常见语句形式的预热语料
+export const DEFAULT_WARMUP_CORPUS: readonly string[] = [
+  "var a = 1;\na = a + 1;\n",
+  "print(a + b);\nprint(+1 + 1);\n",
+  "print(3 > 2 and 2 < 3);\nprint(not(2 == 3 or 3 == 4));\nprint(5 != 4 or 4 != 4);\n",
+  "print((2 + 3) * 4);\nprint(2 + 3 * 4 - 1 / 2 % 3);\nprint((5 - 2) / 3);\n",
+  "var angle = pi / 2;\nprint(sin(angle));\nprint(cos(0));\nprint(log(e));\nprint(log(8, 2));\n",
+  "var x = 2(3 + 4);\nvar y = 3a;\nvar u = pi a;\nvar v = a b;\nprint(2i * 2i);\n",
+  "print(2 ^ 5);\nprint(-2 ^ -2);\nprint(5!);\nprint((a + b)!);\n",
+  "var vec = [1, 2, 3];\nvar mat = [1, 2; 3, 4];\nprint(sum(vec));\nprint(len(mat));\nprint([]);\n",
+  "1 + 1 == 2\n0x1F + 0b101 + 0o17 + 1.5e3 + .5\nmax(1, 2, 3) <= min(4, 5) < 6 >= 5 > 4\n",
+  "// comment\n/* block\ncomment */\nvar r = 1.5i + 2;\n",
+];
+
+// 预热并持久化生成的解析器/词法分析器共享的 DFA 缓存
+// antlr4ts 无法直接序列化 DFA, 因此快照中保存的是会产生新 DFA 状态的输入, 启动时重放它们
+export class DfaWarmup {
+  private readonly samples: string[] = [];
+  private readonly parser = new TwoStageParser();
+
+  public static dfaStateCount(): number {
+    return DfaWarmup.countStates(CalculatorParser._ATN.decisionToDFA) + DfaWarmup.countStates(CalculatorLexer._ATN.modeToDFA);
+  }
+
+  public static grammarHash(): string {
+    return createHash("sha1")
+      .update(CalculatorLexer._serializedATN)
+      .update(CalculatorParser._serializedATN)
+      .digest("hex");
+  }
+
+  private static countStates(dfas: DFA[]): number {
+    let count = 0;
+    for (const dfa of dfas) {
+      count += dfa.states.size;
+    }
+    return count;
+  }
+
+  public warm(corpus: Iterable<string> = DEFAULT_WARMUP_CORPUS): number {
+    const before = DfaWarmup.dfaStateCount();
+    for (const source of corpus) {
+      this.record(source);
+    }
+    return DfaWarmup.dfaStateCount() - before;
+  }
+
+  // 解析一条输入, 若它让 DFA 增长则把它加入快照语料
+  public record(source: string): boolean {
+    const before = DfaWarmup.dfaStateCount();
+    try {
+      this.parser.parse(source);
+    } catch {
+      // 预热只关心预测路径, 语法错误的输入同样会填充 DFA
+    }
+    if (DfaWarmup.dfaStateCount() > before) {
+      this.samples.push(source);
+      return true;
+    }
+    return false;
+  }
+
+  public get sampleCount(): number {
+    return this.samples.length;
+  }
+
+  public snapshot(): DfaSnapshot {
+    return { version: 1, grammarHash: DfaWarmup.grammarHash(), samples: [...this.samples] };
+  }
+
+  public save(fileName: string): void {
+    writeFileSync(fileName, JSON.stringify(this.snapshot()), "utf8");
+  }
+
+  // 返回重放后新增的 DFA 状态数; 快照不存在或语法已变化时返回 -1
+  public load(fileName: string): number {
+    if (!existsSync(fileName)) {
+      return -1;
+    }
+    const snapshot = JSON.parse(readFileSync(fileName, "utf8")) as DfaSnapshot;
+    if (snapshot.version !== 1 || snapshot.grammarHash !== DfaWarmup.grammarHash()) {
+      return -1;
+    }
+    return this.warm(snapshot.samples);
+  }
+}
@@ -0,0 +1,121 @@
+import { CharStreams, CommonTokenStream } from "antlr4ts";
+import { CalculatorLexer } from "../../generated/grammar/CalculatorLexer";
+import { CalculatorParser } from "../../generated/grammar/CalculatorParser";
+import { DEFAULT_WARMUP_CORPUS } from "./dfa-warmup";
+import { PrattParser } from "./pratt-parser";
+
+// 差分校验: 快速路径接受的每条输入, 其语法树必须与 CalculatorParser 的结果完全一致
+
+const FUNCTIONS = ["abs", "sin", "cos", "log", "max", "min", "sqrt", "sum", "len"];
+const VARIABLES = ["a", "b", "x", "angle"];
+const BINARY = ["+", "-", "*", "/", "%", "^", "and", "or", "<", "<=", ">", ">=", "!=", "=="];
+
+// 顶层语句里的函数调用: 无参数和多参数的调用走快速路径, 单参数的 f(x) 有歧义, 回退后不参与比对
+const CALL_STATEMENTS = [
+  "var a = sin(x)",
+  "print(sqrt(b))",
+  "max(a, b)",
+  "var m = max(a, b, 3);",
+  "a = min(x, 2) + 1",
+  "print(max(sin(x), cos(x)))",
+  "len()",
+  "var n = sum() * 2\nmax(n, 1)!",
+  "-min(a, [1, 2]) ^ 2",
+  "sqrt(x)",
+];
+
+function random(seed: number): () => number {
+  let state = seed >>> 0;
+  return () => {
+    state = (state + 0x6d2b79f5) >>> 0;
+    let t = state;
+    t = Math.imul(t ^ (t >>> 15), t | 1);
+    t ^= t + Math.imul(t ^ (t >>> 7), t | 61);
+    return ((t ^ (t >>> 14)) >>> 0) / 4294967296;
+  };
+}
+
+function generateExpr(next: () => number, depth: number): string {
+  const pick = <T>(items: readonly T[]): T => items[Math.floor(next() * items.length)];
+  const roll = next();
+  if (depth <= 0 || roll < 0.25) {
+    return pick(["1", "2.5", ".5", "1e3", "0x1F", "0b101", "0o17", "3i", "pi", "e", ...VARIABLES]);
+  }
+  if (roll < 0.55) {
+    return `${generateExpr(next, depth - 1)} ${pick(BINARY)} ${generateExpr(next, depth - 1)}`;
+  }
+  if (roll < 0.65) {
+    return `${pick(["-", "+", "not "])}${generateExpr(next, depth - 1)}`;
+  }
+  if (roll < 0.75) {
+    return `(${generateExpr(next, depth - 1)})`;
+  }
+  if (roll < 0.85) {
+    const args = Array.from({ length: Math.floor(next() * 3) }, () => generateExpr(next, depth - 1));
+    return `${pick(FUNCTIONS)}(${args.join(", ")})`;
+  }
+  if (roll < 0.92) {
+    return `[${generateExpr(next, depth - 1)}, ${generateExpr(next, depth - 1)}${next() < 0.5 ? "; 1, 2" : ""}]`;
+  }
+  return `${generateExpr(next, depth - 1)}!`;
+}
+
+function generateProgram(next: () => number): string {
+  const lines: string[] = [];
+  const count = 1 + Math.floor(next() * 4);
+  for (let i = 0; i < count; i += 1) {
+    const expr = generateExpr(next, 4);
+    const roll = next();
+    if (roll < 0.25) {
+      lines.push(`var v${i} = ${expr};`);
+    } else if (roll < 0.4) {
+      lines.push(`a = ${expr}`);
+    } else if (roll < 0.7) {
+      lines.push(`print(${expr});`);
+    } else {
+      lines.push(expr);
+    }
+  }
+  return lines.join("\n");
+}
+
+function referenceTree(source: string): string | undefined {
+  const lexer = new CalculatorLexer(CharStreams.fromString(source));
+  lexer.removeErrorListeners();
+  const parser = new CalculatorParser(new CommonTokenStream(lexer));
+  parser.removeErrorListeners();
+  const tree = parser.program();
+  return parser.numberOfSyntaxErrors === 0 ? tree.toStringTree(parser) : undefined;
+}
+
+export function main() {
+  const pratt = new PrattParser();
+  const next = random(20240601);
+  const samples = [...DEFAULT_WARMUP_CORPUS, ...CALL_STATEMENTS];
+  for (let i = 0; i < 5000; i += 1) {
+    samples.push(generateProgram(next));
+  }
+
+  let accepted = 0;
+  let mismatches = 0;
+  for (const source of samples) {
+    const fast = pratt.tryParse(source);
+    if (!fast) {
+      continue;
+    }
+    accepted += 1;
+    const expected = referenceTree(source);
+    const actual = fast.toStringTree(CalculatorParser.ruleNames);
+    if (expected !== actual) {
+      mismatches += 1;
+      console.error(`Mismatch for input:\n${source}\n  expected: ${expected}\n  actual:   ${actual}`);
+    }
+  }
+
+  console.log(`samples: ${samples.length}, fast path: ${accepted}, mismatches: ${mismatches}`);
+  if (mismatches > 0) {
+    process.exitCode = 1;
+  }
+}
+
+main();
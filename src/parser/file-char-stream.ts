@@ -0,0 +1,222 @@
+import { closeSync, fstatSync, openSync, readSync } from "fs";
+import { CharStream, IntStream } from "antlr4ts";
+import { Interval } from "antlr4ts/misc/Interval";
+import { LruCache } from "../lru-cache";
+
+const PAGE_SIZE = 64 * 1024;
+const MAX_PAGES = 16;
+// 最近经过的码点的字节偏移; 词法分析回退和截取 token 文本都落在这个范围内
+const RECENT = 1 << 14;
+// 每隔这么多码点记录一次字节偏移, 远距离 seek 从最近的记录点开始向前解码
+const CHECKPOINT = 4096;
+
+// 按页读取 UTF-8 脚本文件的 CharStream, 按 64KB 分页从文件读取, 只缓存少量页 (页在 V8 堆外).
+// 与 CharStreams.fromString 一样按码点寻址, LA 返回码点, 注释里的非 ASCII 字符不会让列号和 token 文本错位;
+// 码点下标到字节偏移的对应关系在读取过程中逐步建立, 整个文件不会被复制成码点数组
+export class FileCharStream implements CharStream {
+  private fd: number | undefined;
+  private readonly length: number;
+  private readonly pages = new LruCache<number, Buffer>(MAX_PAGES);
+  private page: Buffer;
+  private pageBase = -PAGE_SIZE;
+  private readonly recent = new Float64Array(RECENT);
+  private readonly checkpoints: number[] = [0];
+  // 已知字节偏移的最大码点下标, 以及文件的码点总数 (读到末尾之前未知)
+  private reached = 0;
+  private count: number | undefined;
+  private p = 0;
+  private offset = 0;
+  private width = 1;
+
+  private constructor(public readonly fileName: string) {
+    this.fd = openSync(fileName, "r");
+    this.length = fstatSync(this.fd).size;
+    this.page = Buffer.alloc(0);
+    this.count = this.length === 0 ? 0 : undefined;
+  }
+
+  public static open(fileName: string): FileCharStream {
+    return new FileCharStream(fileName);
+  }
+
+  // 释放文件句柄和缓存页. 之后不能再读取, token 需要的文本应在关闭前复制出来 (见 NumericTokenFactory.COPYING)
+  public close(): void {
+    if (this.fd !== undefined) {
+      closeSync(this.fd);
+      this.fd = undefined;
+    }
+    this.pages.clear();
+    this.page = Buffer.alloc(0);
+    this.pageBase = -PAGE_SIZE;
+  }
+
+  public consume(): void {
+    if (this.offset >= this.length) {
+      throw new Error("cannot consume EOF");
+    }
+    this.decode(this.offset);
+    this.offset += this.width;
+    this.p += 1;
+    this.record(this.p, this.offset);
+  }
+
+  public LA(i: number): number {
+    if (i === 0) {
+      return 0;
+    }
+    const index = i > 0 ? this.p + i - 1 : this.p + i;
+    if (index < 0) {
+      return IntStream.EOF;
+    }
+    const offset = i === 1 ? this.offset : this.offsetOf(index);
+    return offset < this.length ? this.decode(offset) : IntStream.EOF;
+  }
+
+  public mark(): number {
+    return -1;
+  }
+
+  public release(marker: number): void {
+    // 随机访问文件, 不需要标记
+  }
+
+  public get index(): number {
+    return this.p;
+  }
+
+  public seek(index: number): void {
+    const target = Math.max(0, index);
+    this.offset = this.offsetOf(target);
+    this.p = Math.min(target, this.count ?? target);
+  }
+
+  public get size(): number {
+    if (this.count === undefined) {
+      this.offsetOf(Number.MAX_SAFE_INTEGER);
+    }
+    return this.count!;
+  }
+
+  public get sourceName(): string {
+    return this.fileName;
+  }
+
+  public getText(interval: Interval): string {
+    if (interval.b < interval.a) {
+      return "";
+    }
+    const start = this.offsetOf(Math.max(0, interval.a));
+    return this.decodeBytes(start, this.offsetOf(interval.b + 1));
+  }
+
+  public toString(): string {
+    return this.decodeBytes(0, this.length);
+  }
+
+  // 码点下标对应的字节偏移; 超过文件末尾时返回文件长度
+  private offsetOf(index: number): number {
+    if (index <= this.reached) {
+      if (index > this.reached - RECENT) {
+        return this.recent[index & (RECENT - 1)];
+      }
+      const checkpoint = Math.floor(index / CHECKPOINT);
+      return this.advance(checkpoint * CHECKPOINT, this.checkpoints[checkpoint], index);
+    }
+    return this.advance(this.reached, this.recent[this.reached & (RECENT - 1)], index);
+  }
+
+  // 从已知的 (码点下标, 字节偏移) 逐个码点向前移动到 index, 到文件末尾为止
+  private advance(from: number, offset: number, index: number): number {
+    while (from < index && offset < this.length) {
+      this.decode(offset);
+      offset += this.width;
+      from += 1;
+      this.record(from, offset);
+    }
+    return offset;
+  }
+
+  // 只在第一次到达某个码点时记录, 保证 recent 覆盖的总是 reached 之前连续的一段
+  private record(index: number, offset: number): void {
+    if (index !== this.reached + 1) {
+      return;
+    }
+    this.reached = index;
+    this.recent[index & (RECENT - 1)] = offset;
+    if (index % CHECKPOINT === 0) {
+      this.checkpoints.push(offset);
+    }
+    if (offset >= this.length) {
+      this.count = index;
+    }
+  }
+
+  // 解码 offset 处的一个 UTF-8 码点, 字节数写入 width; 非法序列按单个字节的 U+FFFD 处理
+  private decode(offset: number): number {
+    const lead = this.byteAt(offset);
+    this.width = 1;
+    if (lead < 0x80) {
+      return lead;
+    }
+    const width = lead >= 0xf8 ? 0 : lead >= 0xf0 ? 4 : lead >= 0xe0 ? 3 : lead >= 0xc0 ? 2 : 0;
+    if (width === 0 || offset + width > this.length) {
+      return 0xfffd;
+    }
+    let codePoint = lead & (0x7f >> width);
+    for (let k = 1; k < width; k += 1) {
+      const next = this.byteAt(offset + k);
+      if ((next & 0xc0) !== 0x80) {
+        return 0xfffd;
+      }
+      codePoint = (codePoint << 6) | (next & 0x3f);
+    }
+    this.width = width;
+    return codePoint;
+  }
+
+  private decodeBytes(start: number, end: number): string {
+    if (end <= start) {
+      return "";
+    }
+    const firstPage = Math.floor(start / PAGE_SIZE);
+    const lastPage = Math.floor((end - 1) / PAGE_SIZE);
+    if (firstPage === lastPage) {
+      const page = this.loadPage(firstPage);
+      const base = firstPage * PAGE_SIZE;
+      return page.toString("utf8", start - base, end - base);
+    }
+    const parts: Buffer[] = [];
+    for (let index = firstPage; index <= lastPage; index += 1) {
+      const page = this.loadPage(index);
+      const base = index * PAGE_SIZE;
+      parts.push(page.subarray(Math.max(start, base) - base, Math.min(end, base + page.length) - base));
+    }
+    return Buffer.concat(parts).toString("utf8");
+  }
+
+  private byteAt(offset: number): number {
+    const relative = offset - this.pageBase;
+    if (relative >= 0 && relative < PAGE_SIZE) {
+      return this.page[relative];
+    }
+    const index = Math.floor(offset / PAGE_SIZE);
+    this.page = this.loadPage(index);
+    this.pageBase = index * PAGE_SIZE;
+    return this.page[offset - this.pageBase];
+  }
+
+  private loadPage(index: number): Buffer {
+    if (this.fd === undefined) {
+      throw new Error(`${this.fileName} is already closed`);
+    }
+    const cached = this.pages.get(index);
+    if (cached) {
+      return cached;
+    }
+    const base = index * PAGE_SIZE;
+    const page = Buffer.allocUnsafe(Math.min(PAGE_SIZE, this.length - base));
+    readSync(this.fd, page, 0, page.length, base);
+    this.pages.set(index, page);
+    return page;
+  }
+}
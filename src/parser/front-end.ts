@@ -0,0 +1,105 @@
+import { CharStream, CharStreams, CommonTokenStream, TokenSource, TokenStream } from "antlr4ts";
+import { CalculatorLexer } from "../../generated/grammar/CalculatorLexer";
+import { CalculatorParser, ProgramContext } from "../../generated/grammar/CalculatorParser";
+import { DfaCacheGuard } from "./dfa-cache";
+import { FileCharStream } from "./file-char-stream";
+import { NumericTokenFactory } from "./numeric-token";
+import { TwoStageParser, TwoStageStats } from "./two-stage-parser";
+
+const EMPTY_INPUT = CharStreams.fromString("");
+
+// 可复用的词法/语法分析前端: 每个线程一份 lexer、token 流和 parser, 每次解析只重置输入
+// Node 的模块状态按 isolate 隔离, 因此 current() 在每个 worker 线程里各自返回一份实例
+export class CalculatorFrontEnd {
+  private static instance: CalculatorFrontEnd | undefined;
+
+  private readonly lexer = new CalculatorLexer(EMPTY_INPUT);
+  private readonly tokenStream = new CommonTokenStream(this.lexer);
+  private readonly parser = new CalculatorParser(this.tokenStream);
+  private readonly twoStage: TwoStageParser;
+  private busy = false;
+
+  constructor(cacheGuard?: DfaCacheGuard) {
+    this.twoStage = new TwoStageParser(cacheGuard);
+    // NUMBER/IMAG 在创建 token 时解码, 求值阶段直接读取数值
+    this.lexer.tokenFactory = NumericTokenFactory.INSTANCE;
+  }
+
+  public static current(): CalculatorFrontEnd {
+    if (!CalculatorFrontEnd.instance) {
+      CalculatorFrontEnd.instance = new CalculatorFrontEnd(new DfaCacheGuard());
+    }
+    return CalculatorFrontEnd.instance;
+  }
+
+  public get stats(): TwoStageStats {
+    return this.twoStage.stats;
+  }
+
+  // firstLine/firstColumn: 输入是大文件中的一段时, 让 token 和错误信息使用它在原文件中的位置
+  public parse(source: string, firstLine = 1, firstColumn = 0): ProgramContext {
+    return this.parseStream(CharStreams.fromString(source), firstLine, firstColumn);
+  }
+
+  public parseStream(input: CharStream, firstLine = 1, firstColumn = 0): ProgramContext {
+    // 解析过程中被重入 (例如错误监听器里再次解析) 时退回到一次性实例
+    if (this.busy) {
+      return new CalculatorFrontEnd().parseStream(input, firstLine, firstColumn);
+    }
+    this.lexer.inputStream = input;
+    this.lexer.line = firstLine;
+    this.lexer.charPositionInLine = firstColumn;
+    return this.parseTokens(this.lexer);
+  }
+
+  // token 文本在创建时从文件中复制出来, 解析结束即关闭文件, 语法树不再引用文件句柄
+  public parseFile(fileName: string): ProgramContext {
+    if (this.busy) {
+      return new CalculatorFrontEnd().parseFile(fileName);
+    }
+    const stream = FileCharStream.open(fileName);
+    this.lexer.tokenFactory = NumericTokenFactory.COPYING;
+    try {
+      return this.parseStream(stream);
+    } finally {
+      this.lexer.tokenFactory = NumericTokenFactory.INSTANCE;
+      stream.close();
+    }
+  }
+
+  // 直接消费外部的 TokenSource (例如 TableTokenSource)
+  public parseTokens(source: TokenSource): ProgramContext {
+    if (this.busy) {
+      return new CalculatorFrontEnd().parseTokens(source);
+    }
+    this.tokenStream.tokenSource = source;
+    return this.parseTokenStream(this.tokenStream);
+  }
+
+  // 直接消费外部的 TokenStream (例如 PackedTokenStream)
+  public parseTokenStream(input: TokenStream): ProgramContext {
+    if (this.busy) {
+      return new CalculatorFrontEnd().parseTokenStream(input);
+    }
+    this.busy = true;
+    try {
+      this.parser.inputStream = input;
+      return this.twoStage.parseWith(this.parser);
+    } finally {
+      // 释放对本次输入的引用, 语法树本身仍持有它需要的 token
+      this.lexer.inputStream = EMPTY_INPUT;
+      this.tokenStream.tokenSource = this.lexer;
+      this.parser.inputStream = this.tokenStream;
+      this.busy = false;
+    }
+  }
+}
+
+export function parseProgram(source: string): ProgramContext {
+  return CalculatorFrontEnd.current().parse(source);
+}
+
+// 大文件直接按页读取, 不复制成字符串
+export function parseFile(fileName: string): ProgramContext {
+  return CalculatorFrontEnd.current().parseFile(fileName);
+}
@@ -0,0 +1,223 @@
+import { CommonToken, ParserRuleContext, Token } from "antlr4ts";
+import { ParseTree } from "antlr4ts/tree/ParseTree";
+import { TerminalNode } from "antlr4ts/tree/TerminalNode";
+import { ProgramContext, StatementContext } from "../../generated/grammar/CalculatorParser";
+import { PrattParser } from "./pratt-parser";
+import { StatementSplitter } from "./statement-splitter";
+
+// 用 [start, end) 范围内的旧文本替换为 text
+export interface TextEdit {
+  start: number;
+  end: number;
+  text: string;
+}
+
+// 文档按顶层语句边界切成的片段, 每个片段从它在文档中的起始行列开始单独解析.
+// 片段的语句子树在各个版本之间共享, 它们的 parent 指向片段自己的 ProgramContext, 组装时不修改
+interface Segment {
+  text: string;
+  statements: StatementContext[];
+  // 片段内 token 当前使用的起始行列
+  line: number;
+  column: number;
+  // 片段内的换行数, 以及最后一个换行之后 (没有换行时为整段) 的码点数, 用来推算下一个片段的起点
+  newlines: number;
+  tail: number;
+}
+
+// 不可变的文档版本. 全文只在 textOf 时按片段拼接并缓存, 编辑时不重建
+interface Document {
+  segments: Segment[];
+  length: number;
+  text?: string;
+}
+
+export interface ReparseStats {
+  reusedSegments: number;
+  reparsedSegments: number;
+  rescannedChars: number;
+}
+
+// 片段结束处 (即下一个片段起点) 的行列
+function endOf(segment: Segment, line: number, column: number): [number, number] {
+  return segment.newlines > 0 ? [line + segment.newlines, segment.tail] : [line, column + segment.tail];
+}
+
+// 把子树中所有 token 的位置平移: 行号加 lines, 原来位于首行 (firstLine) 的 token 列号加 columns
+function moveTokens(tree: ParseTree, firstLine: number, lines: number, columns: number): void {
+  if (tree instanceof TerminalNode) {
+    const token = tree.symbol as Token & { line: number; charPositionInLine: number };
+    if (token.line === firstLine) {
+      token.charPositionInLine += columns;
+    }
+    token.line += lines;
+  } else if (tree instanceof ParserRuleContext) {
+    for (let i = 0; i < tree.childCount; i += 1) {
+      moveTokens(tree.getChild(i), firstLine, lines, columns);
+    }
+  }
+}
+
+// 增量解析: 编辑后只重新切分和解析受影响的语句片段, 其余语句子树原样复用.
+// 复用的片段因编辑前移或后移时, 其中 token 的行列整体平移而不重新解析; 共享的片段在各版本间只有一份,
+// 因此它的 token 位置对应最近一次组装出的版本.
+// 返回的 ProgramContext 是新建的根, 语句子树的 parent 仍是片段自己的 ProgramContext:
+// 遍历语法树时应从根向下, 不要从语句沿 parent 向上查找
+export class IncrementalParser {
+  private readonly documents = new WeakMap<ProgramContext, Document>();
+  private lastStats: ReparseStats = { reusedSegments: 0, reparsedSegments: 0, rescannedChars: 0 };
+
+  constructor(private readonly parser: PrattParser = new PrattParser()) {}
+
+  public get stats(): ReparseStats {
+    return { ...this.lastStats };
+  }
+
+  public parse(source: string): ProgramContext {
+    const segments: Segment[] = [];
+    const splitter = new StatementSplitter();
+    const collect = (chunk: string, line: number, column: number) => {
+      segments.push(this.parseSegment(chunk, line, column));
+    };
+    splitter.push(source, collect);
+    splitter.end(collect);
+    this.lastStats = { reusedSegments: 0, reparsedSegments: segments.length, rescannedChars: source.length };
+    return this.assemble({ segments, length: source.length, text: source });
+  }
+
+  public textOf(program: ProgramContext): string {
+    const document = this.documentOf(program);
+    if (document.text === undefined) {
+      document.text = document.segments.map((segment) => segment.text).join("");
+    }
+    return document.text;
+  }
+
+  // 旧版本的语法树保持有效, 可以继续使用或再次编辑
+  public reparse(previous: ProgramContext, edit: TextEdit): ProgramContext {
+    const document = this.documentOf(previous);
+    const { segments } = document;
+    if (edit.start < 0 || edit.end < edit.start || edit.end > document.length) {
+      throw new Error(`Invalid edit range [${edit.start}, ${edit.end})`);
+    }
+
+    // 第一个受影响的片段: 结束位置不早于编辑起点 (紧挨着编辑的前一个片段也要重扫, 它可能失去或得到分隔符)
+    let first = 0;
+    let firstStart = 0;
+    let firstLine = 1;
+    let firstColumn = 0;
+    while (first < segments.length - 1 && firstStart + segments[first].text.length < edit.start) {
+      firstStart += segments[first].text.length;
+      [firstLine, firstColumn] = endOf(segments[first], firstLine, firstColumn);
+      first += 1;
+    }
+
+    // 覆盖编辑范围的旧片段
+    let next = first;
+    let nextStart = firstStart;
+    while (next < segments.length && nextStart < edit.end) {
+      nextStart += segments[next].text.length;
+      next += 1;
+    }
+
+    // 只拼接受影响片段的文本并应用编辑, 然后逐个追加后面未改动的片段重新切分,
+    // 直到切分边界与某个旧片段的边界重新对齐
+    const replaced: Segment[] = [];
+    const splitter = new StatementSplitter();
+    // 切分器的行列相对于 pending 的起点, 也就是第一个受影响片段的起点
+    const collect = (chunk: string, line: number, column: number) => {
+      replaced.push(this.parseSegment(chunk, firstLine + line - 1, line === 1 ? firstColumn + column : column));
+    };
+    const affected = segments
+      .slice(first, next)
+      .map((segment) => segment.text)
+      .join("");
+    let pending = affected.slice(0, edit.start - firstStart) + edit.text + affected.slice(edit.end - firstStart);
+    let rescanned = 0;
+    for (;;) {
+      splitter.push(pending, collect);
+      rescanned += pending.length;
+      if (next >= segments.length) {
+        splitter.end(collect);
+        break;
+      }
+      if (splitter.idle) {
+        break;
+      }
+      pending = segments[next].text;
+      next += 1;
+    }
+
+    // 片段数组只复制引用; ProgramContext 的子节点是一个平坦列表, 组装仍与语句数成正比, 但不再复制文本或重新解析
+    const merged = segments.slice(0, first).concat(replaced, segments.slice(next));
+    // 编辑较早的版本时, 前面的片段也可能被后来的版本平移过, 所以从头核对
+    let line = 1;
+    let column = 0;
+    for (let i = 0; i < merged.length; i += 1) {
+      if (i < first || i >= first + replaced.length) {
+        this.move(merged[i], line, column);
+      }
+      [line, column] = endOf(merged[i], line, column);
+    }
+    this.lastStats = {
+      reusedSegments: segments.length - (next - first),
+      reparsedSegments: replaced.length,
+      rescannedChars: rescanned,
+    };
+    return this.assemble({ segments: merged, length: document.length + edit.text.length - (edit.end - edit.start) });
+  }
+
+  private parseSegment(chunk: string, line: number, column: number): Segment {
+    const statements = this.parser.parse(chunk, line, column).statement();
+    const lastNewline = chunk.lastIndexOf("\n");
+    let newlines = 0;
+    for (let i = chunk.indexOf("\n"); i >= 0; i = chunk.indexOf("\n", i + 1)) {
+      newlines += 1;
+    }
+    let tail = 0;
+    for (let i = lastNewline + 1; i < chunk.length; i += 1) {
+      const c = chunk.charCodeAt(i);
+      // 代理对的低位不单独占一列
+      if (c < 0xdc00 || c > 0xdfff) {
+        tail += 1;
+      }
+    }
+    return { text: chunk, statements, line, column, newlines, tail };
+  }
+
+  // 复用的片段起点变化时平移其中 token 的位置; 起点不变 (编辑没有改变行数的常见情形) 时不做任何事
+  private move(segment: Segment, line: number, column: number): void {
+    if (segment.line === line && segment.column === column) {
+      return;
+    }
+    for (const statement of segment.statements) {
+      moveTokens(statement, segment.line, line - segment.line, column - segment.column);
+    }
+    segment.line = line;
+    segment.column = column;
+  }
+
+  private assemble(document: Document): ProgramContext {
+    const program = new ProgramContext(undefined, -1);
+    for (const segment of document.segments) {
+      // addChild 不修改子树的 parent, 共享的语句子树仍属于片段自己的 ProgramContext
+      for (const statement of segment.statements) {
+        program.addChild(statement);
+      }
+    }
+    const eof = new CommonToken(Token.EOF, "<EOF>");
+    program.addChild(new TerminalNode(eof));
+    program._start = program.childCount > 1 ? (program.getChild(0) as StatementContext).start : eof;
+    program._stop = eof;
+    this.documents.set(program, document);
+    return program;
+  }
+
+  private documentOf(program: ProgramContext): Document {
+    const document = this.documents.get(program);
+    if (!document) {
+      throw new Error("Program was not produced by this IncrementalParser");
+    }
+    return document;
+  }
+}
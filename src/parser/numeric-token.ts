@@ -0,0 +1,92 @@
+import { CharStream, CommonToken, CommonTokenFactory, Token, TokenFactory, TokenSource } from "antlr4ts";
+import { Interval } from "antlr4ts/misc/Interval";
+import { CalculatorParser } from "../../generated/grammar/CalculatorParser";
+import { parseDecimal } from "./decimal-literal";
+
+// NUMBER 字面量: 0b/0o/0x 前缀按进制解析, 其余按十进制
+export function decodeNumberLiteral(text: string): number {
+  if (/^0[bB]/.test(text)) {
+    return parseInt(text.slice(2), 2);
+  }
+  if (/^0[oO]/.test(text)) {
+    return parseInt(text.slice(2), 8);
+  }
+  if (/^0[xX]/.test(text)) {
+    return parseInt(text.slice(2), 16);
+  }
+  return parseDecimal(text, 0, text.length);
+}
+
+// IMAG 字面量的虚部
+export function decodeImagLiteral(text: string): number {
+  const raw = text.slice(0, -1);
+  if (raw.length === 0 || raw === "+") {
+    return 1;
+  }
+  if (raw === "-") {
+    return -1;
+  }
+  return decodeNumberLiteral(raw);
+}
+
+export function isNumericType(type: number): boolean {
+  return type === CalculatorParser.NUMBER || type === CalculatorParser.IMAG;
+}
+
+// 词法分析时已经解码的数值 (IMAG 为虚部)
+export interface NumericLiteral {
+  readonly numericValue: number;
+}
+
+export function numericValueOf(token: Token): number | undefined {
+  if (!isNumericType(token.type)) {
+    return undefined;
+  }
+  const value = (token as Partial<NumericLiteral>).numericValue;
+  return typeof value === "number" ? value : undefined;
+}
+
+export class NumericToken extends CommonToken implements NumericLiteral {
+  public numericValue = NaN;
+}
+
+// 在创建 NUMBER/IMAG token 时解码一次字面量, 求值时不再处理字符串
+export class NumericTokenFactory implements TokenFactory {
+  public static readonly INSTANCE = new NumericTokenFactory();
+  // 创建 token 时就把文本复制出来, 用于解析结束后就要关闭的输入 (FileCharStream)
+  public static readonly COPYING = new NumericTokenFactory(true);
+
+  private readonly fallback: CommonTokenFactory;
+
+  private constructor(private readonly copyText = false) {
+    this.fallback = copyText ? new CommonTokenFactory(true) : CommonTokenFactory.DEFAULT;
+  }
+
+  public create(
+    source: { source?: TokenSource; stream?: CharStream },
+    type: number,
+    text: string | undefined,
+    channel: number,
+    start: number,
+    stop: number,
+    line: number,
+    charPositionInLine: number
+  ): CommonToken {
+    if (!isNumericType(type)) {
+      return this.fallback.create(source, type, text, channel, start, stop, line, charPositionInLine);
+    }
+    const token = new NumericToken(type, text, source, channel, start, stop);
+    token.line = line;
+    token.charPositionInLine = charPositionInLine;
+    const literal = text ?? (source.stream ? source.stream.getText(Interval.of(start, stop)) : "");
+    token.numericValue = type === CalculatorParser.IMAG ? decodeImagLiteral(literal) : decodeNumberLiteral(literal);
+    if (this.copyText) {
+      token.text = literal;
+    }
+    return token;
+  }
+
+  public createSimple(type: number, text: string): CommonToken {
+    return CommonTokenFactory.DEFAULT.createSimple(type, text);
+  }
+}
@@ -0,0 +1,305 @@
+import { CharStream, IntStream, RuleContext, Token, TokenFactory, TokenSource, TokenStream } from "antlr4ts";
+import { Interval } from "antlr4ts/misc/Interval";
+import { NumericLiteral, NumericTokenFactory } from "./numeric-token";
+import { sourceStream, TableLexer } from "./table-lexer";
+
+const EOF_TYPE = 0xff;
+
+// 按需创建的 token 视图, 只持有所属的流和下标, 字段都从列存储中读取
+class PackedToken implements Token, NumericLiteral {
+  // 语法树中的 token 被整体平移 (见 IncrementalParser) 后的位置; 未设置时从列存储计算
+  private movedLine: number | undefined;
+  private movedColumn: number | undefined;
+
+  constructor(private readonly stream: PackedTokenStream, public readonly tokenIndex: number) {}
+
+  get type(): number {
+    return this.stream.typeAt(this.tokenIndex);
+  }
+
+  get text(): string {
+    return this.type === Token.EOF ? "<EOF>" : this.stream.source.substring(this.startIndex, this.stopIndex + 1);
+  }
+
+  get startIndex(): number {
+    return this.stream.starts[this.tokenIndex];
+  }
+
+  get stopIndex(): number {
+    return this.stream.stops[this.tokenIndex];
+  }
+
+  // NUMBER/IMAG 在词法分析时已解码的值
+  get numericValue(): number {
+    return this.stream.values[this.tokenIndex];
+  }
+
+  get line(): number {
+    return this.movedLine ?? this.stream.lineOf(this.startIndex);
+  }
+
+  set line(line: number) {
+    this.movedLine = line;
+  }
+
+  get charPositionInLine(): number {
+    return this.movedColumn ?? this.stream.columnOf(this.startIndex);
+  }
+
+  set charPositionInLine(column: number) {
+    this.movedColumn = column;
+  }
+
+  get channel(): number {
+    return Token.DEFAULT_CHANNEL;
+  }
+
+  get tokenSource(): TokenSource {
+    return this.stream.tokenSource;
+  }
+
+  get inputStream(): CharStream {
+    return this.stream.tokenSource.inputStream;
+  }
+
+  public toString(): string {
+    const text = this.text.replace(/\n/g, "\\n").replace(/\r/g, "\\r").replace(/\t/g, "\\t");
+    return `[@${this.tokenIndex},${this.startIndex}:${this.stopIndex}='${text}',<${this.type}>,${this.line}:${this.charPositionInLine}]`;
+  }
+}
+
+// 从流自己的列中依次返回 token 视图的 TokenSource, 不持有词法分析器及其按容量分配的列
+class PackedTokenSource implements TokenSource {
+  private index = 0;
+  private stream: CharStream | undefined;
+  // 视图直接读取列, 不经过工厂; 只为满足 TokenSource 接口而保留
+  public tokenFactory: TokenFactory = NumericTokenFactory.INSTANCE;
+
+  constructor(private readonly tokens: PackedTokenStream) {}
+
+  public nextToken(): Token {
+    const last = this.tokens.size - 1;
+    const token = this.tokens.get(Math.min(this.index, last));
+    if (this.index < last) {
+      this.index += 1;
+    }
+    return token;
+  }
+
+  public get line(): number {
+    return this.current().line;
+  }
+
+  public get charPositionInLine(): number {
+    return this.current().charPositionInLine;
+  }
+
+  public get inputStream(): CharStream {
+    if (!this.stream) {
+      this.stream = sourceStream(this.tokens.source);
+    }
+    return this.stream;
+  }
+
+  public get sourceName(): string {
+    return this.inputStream.sourceName;
+  }
+
+  private current(): Token {
+    return this.tokens.get(Math.min(this.index, this.tokens.size - 1));
+  }
+}
+
+// 用紧凑的列存储 token (类型 1 字节, 起止位置各 4 字节, 数值 8 字节, 每个 token 共 17 字节;
+// 另有每行 4 字节的换行表, 行号按它二分查找),
+// 只在解析器或访问者真正读取时才创建 Token 对象
+export class PackedTokenStream implements TokenStream {
+  public readonly source: string;
+  public readonly starts: Int32Array;
+  public readonly stops: Int32Array;
+  public readonly values: Float64Array;
+  public readonly tokenSource: TokenSource;
+  private readonly types: Uint8Array;
+  private readonly lineStarts: Int32Array;
+  private readonly firstLine: number;
+  private readonly firstColumn: number;
+  private readonly count: number;
+  private p = 0;
+  // 最近创建的视图, 避免同一位置的反复 LT(1) 产生新对象
+  private readonly recent: (PackedToken | undefined)[] = new Array(8);
+
+  constructor(lexer: TableLexer) {
+    if (lexer.count === 0) {
+      lexer.run();
+    }
+    this.source = lexer.source;
+    this.count = lexer.count;
+    this.types = new Uint8Array(this.count);
+    for (let i = 0; i < this.count; i += 1) {
+      const type = lexer.types[i];
+      this.types[i] = type === Token.EOF ? EOF_TYPE : type;
+    }
+    this.starts = lexer.starts.slice(0, this.count);
+    this.stops = lexer.stops.slice(0, this.count);
+    // 复制而不是取子视图, 词法分析器按容量分配的列在构造后即可回收
+    this.values = lexer.values.slice(0, this.count);
+    this.lineStarts = PackedTokenStream.indexLines(this.source);
+    this.firstLine = lexer.firstLine;
+    this.firstColumn = lexer.firstColumn;
+    this.tokenSource = new PackedTokenSource(this);
+  }
+
+  public static fromString(source: string): PackedTokenStream {
+    return new PackedTokenStream(TableLexer.tokenize(source));
+  }
+
+  private static indexLines(source: string): Int32Array {
+    let lines = 1;
+    for (let i = source.indexOf("\n"); i >= 0; i = source.indexOf("\n", i + 1)) {
+      lines += 1;
+    }
+    const starts = new Int32Array(lines);
+    let line = 1;
+    for (let i = source.indexOf("\n"); i >= 0; i = source.indexOf("\n", i + 1)) {
+      starts[line] = i + 1;
+      line += 1;
+    }
+    return starts;
+  }
+
+  public typeAt(index: number): number {
+    const type = this.types[index];
+    return type === EOF_TYPE ? Token.EOF : type;
+  }
+
+  // 行号和列号都加上词法分析器的起始位置, 与 TableLexer 自己记录的一致
+  public lineOf(offset: number): number {
+    return this.lineIndexOf(offset) + this.firstLine;
+  }
+
+  public columnOf(offset: number): number {
+    const line = this.lineIndexOf(offset);
+    return offset - this.lineStarts[line] + (line === 0 ? this.firstColumn : 0);
+  }
+
+  private lineIndexOf(offset: number): number {
+    let low = 0;
+    let high = this.lineStarts.length - 1;
+    while (low < high) {
+      const mid = (low + high + 1) >> 1;
+      if (this.lineStarts[mid] <= offset) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  // ─────────────────────────────────────────────────────────────
+  // IntStream
+  // ─────────────────────────────────────────────────────────────
+  public consume(): void {
+    if (this.LA(1) === IntStream.EOF) {
+      throw new Error("cannot consume EOF");
+    }
+    this.p += 1;
+  }
+
+  public LA(i: number): number {
+    const index = this.resolve(i);
+    return index < 0 ? 0 : this.typeAt(index);
+  }
+
+  public mark(): number {
+    return -1;
+  }
+
+  public release(marker: number): void {
+    // 所有 token 都已在列中, 不需要标记
+  }
+
+  public get index(): number {
+    return this.p;
+  }
+
+  public seek(index: number): void {
+    this.p = Math.max(0, Math.min(index, this.count - 1));
+  }
+
+  public get size(): number {
+    return this.count;
+  }
+
+  public get sourceName(): string {
+    return this.tokenSource.sourceName;
+  }
+
+  // ─────────────────────────────────────────────────────────────
+  // TokenStream
+  // ─────────────────────────────────────────────────────────────
+  public LT(k: number): Token {
+    const token = this.tryLT(k);
+    if (!token) {
+      throw new RangeError("requested a token before the start of the stream");
+    }
+    return token;
+  }
+
+  public tryLT(k: number): Token | undefined {
+    const index = this.resolve(k);
+    return index < 0 ? undefined : this.get(index);
+  }
+
+  public get(i: number): Token {
+    if (i < 0 || i >= this.count) {
+      throw new RangeError(`token index ${i} out of range 0..${this.count - 1}`);
+    }
+    const slot = i & (this.recent.length - 1);
+    let token = this.recent[slot];
+    if (!token || token.tokenIndex !== i) {
+      token = new PackedToken(this, i);
+      this.recent[slot] = token;
+    }
+    return token;
+  }
+
+  public getText(): string;
+  public getText(interval: Interval): string;
+  public getText(ctx: RuleContext): string;
+  public getText(target?: Interval | RuleContext): string {
+    const interval = target === undefined ? Interval.of(0, this.count - 1) : target instanceof Interval ? target : target.sourceInterval;
+    return this.textBetween(interval.a, interval.b);
+  }
+
+  public getTextFromRange(start: any, stop: any): string {
+    if (start && stop && typeof start.tokenIndex === "number" && typeof stop.tokenIndex === "number") {
+      return this.textBetween(start.tokenIndex, stop.tokenIndex);
+    }
+    return "";
+  }
+
+  private textBetween(from: number, to: number): string {
+    const last = Math.min(to, this.count - 1);
+    let text = "";
+    for (let i = Math.max(0, from); i <= last; i += 1) {
+      if (this.types[i] === EOF_TYPE) {
+        break;
+      }
+      text += this.source.substring(this.starts[i], this.stops[i] + 1);
+    }
+    return text;
+  }
+
+  // LT/LA 的相对位置换算成绝对下标, 超出末尾时停在 EOF
+  private resolve(k: number): number {
+    if (k === 0) {
+      return -1;
+    }
+    const index = k > 0 ? this.p + k - 1 : this.p + k;
+    if (index < 0) {
+      return -1;
+    }
+    return Math.min(index, this.count - 1);
+  }
+}
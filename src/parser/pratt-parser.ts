@@ -0,0 +1,485 @@
+import { Token } from "antlr4ts";
+import { ParserRuleContext } from "antlr4ts/ParserRuleContext";
+import { TerminalNode } from "antlr4ts/tree/TerminalNode";
+import {
+  CalculatorParser,
+  ProgramContext,
+  StatementContext,
+  DefineStmtContext,
+  AssignmentContext,
+  PrintStmtContext,
+  ExprStmtContext,
+  ExprContext,
+  Expr2Context,
+  Expr3Context,
+  ComparisonContext,
+  ArithContext,
+  TermContext,
+  FactorContext,
+  UnaryContext,
+  AtomContext,
+  FunctionCallContext,
+  ArgListContext,
+  ConstantContext,
+  VectorContext,
+  MatrixContext,
+  RowContext,
+  ExprListContext,
+} from "../../generated/grammar/CalculatorParser";
+import { CalculatorFrontEnd } from "./front-end";
+import { PackedTokenStream } from "./packed-token-stream";
+import { TableLexer } from "./table-lexer";
+
+// 快速路径无法处理的输入, 交给生成的解析器
+class Bail extends Error {}
+
+type Child = ParserRuleContext | Token;
+
+// Pratt 解析的中间结果, 最终按语法的优先级链物化成 CalculatorParser 的上下文
+type PrattNode =
+  | { kind: "binary"; op: Token; left: PrattNode; right: PrattNode }
+  | { kind: "compare"; operands: PrattNode[]; ops: Token[] }
+  | { kind: "prefix"; op: Token; operand: PrattNode }
+  | { kind: "atom"; ctx: AtomContext };
+
+interface BindingPower {
+  left: number;
+  right: number;
+}
+
+const BP_OR = 10;
+const BP_AND = 20;
+const BP_NOT = 30;
+const BP_COMPARE = 40;
+const BP_ARITH = 50;
+const BP_TERM = 60;
+const BP_POW = 70;
+
+const INFIX = new Map<number, BindingPower>([
+  [CalculatorParser.OR, { left: BP_OR, right: BP_OR + 1 }],
+  [CalculatorParser.AND, { left: BP_AND, right: BP_AND + 1 }],
+  [CalculatorParser.PLUS, { left: BP_ARITH, right: BP_ARITH + 1 }],
+  [CalculatorParser.MINUS, { left: BP_ARITH, right: BP_ARITH + 1 }],
+  [CalculatorParser.MULT, { left: BP_TERM, right: BP_TERM + 1 }],
+  [CalculatorParser.DIV, { left: BP_TERM, right: BP_TERM + 1 }],
+  [CalculatorParser.MOD, { left: BP_TERM, right: BP_TERM + 1 }],
+  // 右结合
+  [CalculatorParser.POW, { left: BP_POW, right: BP_POW }],
+]);
+
+const COMPARISON_OPS = new Set<number>([
+  CalculatorParser.EQUAL,
+  CalculatorParser.NOT_EQUAL,
+  CalculatorParser.LESS,
+  CalculatorParser.LESS_EQUAL,
+  CalculatorParser.GREATER,
+  CalculatorParser.GREATER_EQUAL,
+]);
+
+// 紧跟在原子之后会构成隐式乘法或产生语句级歧义的 token
+const ADJACENT_ATOM_START = new Set<number>([
+  CalculatorParser.ID,
+  CalculatorParser.NUMBER,
+  CalculatorParser.IMAG,
+  CalculatorParser.PI,
+  CalculatorParser.E,
+  CalculatorParser.LPAREN,
+  CalculatorParser.LBRACK,
+]);
+
+export interface PrattStats {
+  fastPath: number;
+  fallbacks: number;
+}
+
+// 常见的算术/比较/逻辑/幂/函数调用子集直接用运算符优先级解析, 生成与 CalculatorParser 完全一致的树;
+// 隐式乘法、语句级歧义 (例如顶层的 `a == b`、单参数的 `f(x)`) 和语法错误都回退到生成的解析器
+export class PrattParser {
+  private readonly counters: PrattStats = { fastPath: 0, fallbacks: 0 };
+  private tokens: PackedTokenStream | undefined;
+  private pos = 0;
+  private depth = 0;
+  private inExprStmt = false;
+
+  constructor(private readonly fallback: CalculatorFrontEnd = CalculatorFrontEnd.current()) {}
+
+  public get stats(): PrattStats {
+    return { ...this.counters };
+  }
+
+  // firstLine/firstColumn 与 CalculatorFrontEnd.parse 相同: source 在原文中的起始位置
+  public parse(source: string, firstLine = 1, firstColumn = 0): ProgramContext {
+    const tree = this.tryParse(source, firstLine, firstColumn);
+    if (tree) {
+      this.counters.fastPath += 1;
+      return tree;
+    }
+    this.counters.fallbacks += 1;
+    return this.fallback.parse(source, firstLine, firstColumn);
+  }
+
+  // 快速路径能处理时返回语法树, 否则返回 undefined
+  public tryParse(source: string, firstLine = 1, firstColumn = 0): ProgramContext | undefined {
+    const lexer = TableLexer.tokenize(source, firstLine, firstColumn);
+    if (lexer.errors > 0) {
+      return undefined;
+    }
+    this.tokens = new PackedTokenStream(lexer);
+    this.pos = 0;
+    this.depth = 0;
+    try {
+      return this.program();
+    } catch (error) {
+      if (error instanceof Bail) {
+        return undefined;
+      }
+      throw error;
+    } finally {
+      this.tokens = undefined;
+    }
+  }
+
+  // ─────────────────────────────────────────────────────────────
+  // Statements
+  // ─────────────────────────────────────────────────────────────
+  private program(): ProgramContext {
+    const children: Child[] = [];
+    while (this.peek() !== Token.EOF) {
+      children.push(this.statement());
+    }
+    children.push(this.next());
+    return this.build(new ProgramContext(undefined, -1), children);
+  }
+
+  private statement(): StatementContext {
+    if (this.peek() === CalculatorParser.NEWLINE) {
+      return this.build(new StatementContext(undefined, -1), [this.next()]);
+    }
+
+    let body: ParserRuleContext;
+    switch (this.peek()) {
+      case CalculatorParser.VAR:
+        body = this.build(new DefineStmtContext(undefined, -1), [
+          this.next(),
+          this.expect(CalculatorParser.ID),
+          this.expect(CalculatorParser.ASSIGN),
+          this.expr(),
+        ]);
+        break;
+      case CalculatorParser.PRINT: {
+        const print = this.next();
+        const lparen = this.open(CalculatorParser.LPAREN);
+        const value = this.expr();
+        body = this.build(new PrintStmtContext(undefined, -1), [print, lparen, value, this.close(CalculatorParser.RPAREN)]);
+        break;
+      }
+      default:
+        if (this.peek() === CalculatorParser.ID && this.peek(2) === CalculatorParser.ASSIGN) {
+          body = this.build(new AssignmentContext(undefined, -1), [this.next(), this.next(), this.expr()]);
+        } else {
+          this.inExprStmt = true;
+          try {
+            body = this.build(new ExprStmtContext(undefined, -1), [this.expr()]);
+          } finally {
+            this.inExprStmt = false;
+          }
+        }
+    }
+
+    const children: Child[] = [body];
+    const separator = this.peek();
+    if (separator === CalculatorParser.SEMICOLON || separator === CalculatorParser.NEWLINE) {
+      children.push(this.next());
+    } else if (separator !== Token.EOF) {
+      throw new Bail();
+    }
+    return this.build(new StatementContext(undefined, -1), children);
+  }
+
+  // ─────────────────────────────────────────────────────────────
+  // Expressions
+  // ─────────────────────────────────────────────────────────────
+  private expr(): ExprContext {
+    return this.toExpr(this.parseExpression(0));
+  }
+
+  private parseExpression(minBp: number): PrattNode {
+    let left = this.parsePrefix(minBp);
+    for (;;) {
+      const type = this.peek();
+      if (COMPARISON_OPS.has(type)) {
+        if (BP_COMPARE < minBp) {
+          break;
+        }
+        left = this.parseComparison(left);
+        continue;
+      }
+      const power = INFIX.get(type);
+      if (!power || power.left < minBp) {
+        break;
+      }
+      const op = this.next();
+      const right = this.parseExpression(power.right);
+      left = { kind: "binary", op, left, right };
+    }
+    return left;
+  }
+
+  private parseComparison(first: PrattNode): PrattNode {
+    const operands = [first];
+    const ops: Token[] = [];
+    while (COMPARISON_OPS.has(this.peek())) {
+      // 顶层表达式语句中的 == 与 equationStmt 有歧义
+      if (this.peek() === CalculatorParser.EQUAL && this.depth === 0 && this.inExprStmt) {
+        throw new Bail();
+      }
+      ops.push(this.next());
+      operands.push(this.parseExpression(BP_ARITH));
+    }
+    return { kind: "compare", operands, ops };
+  }
+
+  private parsePrefix(minBp: number): PrattNode {
+    if (this.peek() === CalculatorParser.NOT) {
+      if (minBp > BP_NOT) {
+        throw new Bail();
+      }
+      const op = this.next();
+      return { kind: "prefix", op, operand: this.parseExpression(BP_NOT) };
+    }
+    return this.parseUnary();
+  }
+
+  private parseUnary(): PrattNode {
+    const type = this.peek();
+    if (type === CalculatorParser.PLUS || type === CalculatorParser.MINUS) {
+      const op = this.next();
+      return { kind: "prefix", op, operand: this.parseUnary() };
+    }
+    return { kind: "atom", ctx: this.atom() };
+  }
+
+  // ─────────────────────────────────────────────────────────────
+  // Atoms
+  // ─────────────────────────────────────────────────────────────
+  private atom(): AtomContext {
+    let atom = this.primary();
+    while (this.peek() === CalculatorParser.FACT) {
+      atom = this.build(new AtomContext(undefined, -1), [atom, this.next()]);
+    }
+    if (ADJACENT_ATOM_START.has(this.peek())) {
+      throw new Bail();
+    }
+    return atom;
+  }
+
+  private primary(): AtomContext {
+    const atom = new AtomContext(undefined, -1);
+    switch (this.peek()) {
+      case CalculatorParser.NUMBER:
+      case CalculatorParser.IMAG:
+        return this.build(atom, [this.next()]);
+      case CalculatorParser.PI:
+      case CalculatorParser.E:
+        return this.build(atom, [this.build(new ConstantContext(undefined, -1), [this.next()])]);
+      case CalculatorParser.ID:
+        if (this.peek(2) !== CalculatorParser.LPAREN) {
+          return this.build(atom, [this.next()]);
+        }
+        return this.build(atom, [this.call()]);
+      case CalculatorParser.LPAREN: {
+        const lparen = this.open(CalculatorParser.LPAREN);
+        const inner = this.expr();
+        return this.build(atom, [lparen, inner, this.close(CalculatorParser.RPAREN)]);
+      }
+      case CalculatorParser.LBRACK:
+        return this.build(atom, [this.vectorOrMatrix()]);
+      default:
+        throw new Bail();
+    }
+  }
+
+  // 顶层的单参数 f(x) 会与 "f" 加上一条新语句 "(x)" 产生歧义 (语句分隔符可省略), 生成的解析器选择后者;
+  // 无参数和多参数的调用不可能拆成两条语句, 直接解析
+  private call(): FunctionCallContext {
+    const topLevel = this.depth === 0;
+    const call = this.functionCall();
+    if (topLevel && call.argList()?.childCount === 1) {
+      throw new Bail();
+    }
+    return call;
+  }
+
+  private functionCall(): FunctionCallContext {
+    const children: Child[] = [this.next(), this.open(CalculatorParser.LPAREN)];
+    if (this.peek() !== CalculatorParser.RPAREN) {
+      children.push(this.build(new ArgListContext(undefined, -1), this.commaSeparated()));
+    }
+    children.push(this.close(CalculatorParser.RPAREN));
+    return this.build(new FunctionCallContext(undefined, -1), children);
+  }
+
+  private vectorOrMatrix(): VectorContext | MatrixContext {
+    const lbrack = this.open(CalculatorParser.LBRACK);
+    if (this.peek() === CalculatorParser.RBRACK) {
+      return this.build(new VectorContext(undefined, -1), [lbrack, this.close(CalculatorParser.RBRACK)]);
+    }
+
+    const first = this.build(new ExprListContext(undefined, -1), this.commaSeparated());
+    if (this.peek() !== CalculatorParser.SEMICOLON) {
+      return this.build(new VectorContext(undefined, -1), [lbrack, first, this.close(CalculatorParser.RBRACK)]);
+    }
+
+    const children: Child[] = [lbrack, this.build(new RowContext(undefined, -1), [first])];
+    while (this.peek() === CalculatorParser.SEMICOLON) {
+      children.push(this.next());
+      const row = this.build(new ExprListContext(undefined, -1), this.commaSeparated());
+      children.push(this.build(new RowContext(undefined, -1), [row]));
+    }
+    children.push(this.close(CalculatorParser.RBRACK));
+    return this.build(new MatrixContext(undefined, -1), children);
+  }
+
+  private commaSeparated(): Child[] {
+    const children: Child[] = [this.expr()];
+    while (this.peek() === CalculatorParser.COMMA) {
+      children.push(this.next(), this.expr());
+    }
+    return children;
+  }
+
+  // ─────────────────────────────────────────────────────────────
+  // 按语法的优先级链物化 (expr → expr2 → expr3 → comparison → arith → term → factor → unary → atom)
+  // ─────────────────────────────────────────────────────────────
+  private toExpr(node: PrattNode): ExprContext {
+    const ctx = new ExprContext(undefined, -1);
+    if (node.kind === "binary" && node.op.type === CalculatorParser.OR) {
+      return this.build(ctx, [this.toExpr(node.left), node.op, this.toExpr2(node.right)]);
+    }
+    return this.build(ctx, [this.toExpr2(node)]);
+  }
+
+  private toExpr2(node: PrattNode): Expr2Context {
+    const ctx = new Expr2Context(undefined, -1);
+    if (node.kind === "binary" && node.op.type === CalculatorParser.AND) {
+      return this.build(ctx, [this.toExpr2(node.left), node.op, this.toExpr3(node.right)]);
+    }
+    return this.build(ctx, [this.toExpr3(node)]);
+  }
+
+  private toExpr3(node: PrattNode): Expr3Context {
+    const ctx = new Expr3Context(undefined, -1);
+    if (node.kind === "prefix" && node.op.type === CalculatorParser.NOT) {
+      return this.build(ctx, [node.op, this.toExpr3(node.operand)]);
+    }
+    return this.build(ctx, [this.toComparison(node)]);
+  }
+
+  private toComparison(node: PrattNode): ComparisonContext {
+    const ctx = new ComparisonContext(undefined, -1);
+    if (node.kind !== "compare") {
+      return this.build(ctx, [this.toArith(node)]);
+    }
+    const children: Child[] = [this.toArith(node.operands[0])];
+    for (let i = 0; i < node.ops.length; i += 1) {
+      children.push(node.ops[i], this.toArith(node.operands[i + 1]));
+    }
+    return this.build(ctx, children);
+  }
+
+  private toArith(node: PrattNode): ArithContext {
+    const ctx = new ArithContext(undefined, -1);
+    if (node.kind === "binary" && (node.op.type === CalculatorParser.PLUS || node.op.type === CalculatorParser.MINUS)) {
+      return this.build(ctx, [this.toArith(node.left), node.op, this.toTerm(node.right)]);
+    }
+    return this.build(ctx, [this.toTerm(node)]);
+  }
+
+  private toTerm(node: PrattNode): TermContext {
+    const ctx = new TermContext(undefined, -1);
+    if (
+      node.kind === "binary" &&
+      (node.op.type === CalculatorParser.MULT || node.op.type === CalculatorParser.DIV || node.op.type === CalculatorParser.MOD)
+    ) {
+      return this.build(ctx, [this.toTerm(node.left), node.op, this.toFactor(node.right)]);
+    }
+    return this.build(ctx, [this.toFactor(node)]);
+  }
+
+  private toFactor(node: PrattNode): FactorContext {
+    const ctx = new FactorContext(undefined, -1);
+    if (node.kind === "binary" && node.op.type === CalculatorParser.POW) {
+      return this.build(ctx, [this.toUnary(node.left), node.op, this.toFactor(node.right)]);
+    }
+    return this.build(ctx, [this.toUnary(node)]);
+  }
+
+  private toUnary(node: PrattNode): UnaryContext {
+    const ctx = new UnaryContext(undefined, -1);
+    if (node.kind === "prefix" && node.op.type !== CalculatorParser.NOT) {
+      return this.build(ctx, [node.op, this.toUnary(node.operand)]);
+    }
+    if (node.kind !== "atom") {
+      // 优先级更低的节点只能通过括号出现在这里, 括号已经作为原子构建
+      throw new Bail();
+    }
+    return this.build(ctx, [node.ctx]);
+  }
+
+  // ─────────────────────────────────────────────────────────────
+  // Helpers
+  // ─────────────────────────────────────────────────────────────
+  private build<T extends ParserRuleContext>(ctx: T, children: Child[]): T {
+    for (const child of children) {
+      if (child instanceof ParserRuleContext) {
+        child.setParent(ctx);
+        ctx.addChild(child);
+      } else {
+        ctx.addChild(new TerminalNode(child));
+      }
+    }
+    ctx._start = this.firstToken(children[0]);
+    ctx._stop = this.lastToken(children[children.length - 1]);
+    return ctx;
+  }
+
+  private firstToken(child: Child): Token {
+    return child instanceof ParserRuleContext ? child.start : child;
+  }
+
+  private lastToken(child: Child): Token | undefined {
+    return child instanceof ParserRuleContext ? child.stop : child;
+  }
+
+  private peek(offset = 1): number {
+    const tokens = this.tokens!;
+    return tokens.typeAt(Math.min(this.pos + offset - 1, tokens.size - 1));
+  }
+
+  private next(): Token {
+    const token = this.tokens!.get(this.pos);
+    if (token.type !== Token.EOF) {
+      this.pos += 1;
+    }
+    return token;
+  }
+
+  private expect(type: number): Token {
+    if (this.peek() !== type) {
+      throw new Bail();
+    }
+    return this.next();
+  }
+
+  private open(type: number): Token {
+    const token = this.expect(type);
+    this.depth += 1;
+    return token;
+  }
+
+  private close(type: number): Token {
+    const token = this.expect(type);
+    this.depth -= 1;
+    return token;
+  }
+}
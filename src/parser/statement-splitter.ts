@@ -0,0 +1,164 @@
+const enum ScanState {
+  Normal,
+  Slash,
+  LineComment,
+  BlockComment,
+  BlockStar,
+}
+
+// 语句回调: line 为语句起始行号, column 为它在该行中的起始列 (按码点计, 与 ANTLR 的 charPositionInLine 一致)
+export type StatementSink = (statement: string, line: number, column: number) => void;
+
+// 按顶层语句边界切分输入: 括号/方括号外的 `;` 或换行, 注释中的内容不算边界
+// 可以分块喂入文本, 只缓存当前尚未结束的那一条语句
+export class StatementSplitter {
+  private buffer = "";
+  private scanned = 0;
+  private depth = 0;
+  private state = ScanState.Normal;
+  private line = 1;
+  private statementLine = 1;
+  private statementColumn = 0;
+
+  // maxStatementLength: 单条语句允许缓存的最大长度; 未闭合的 `/*` 或括号会让后面的输入都算作同一条语句
+  constructor(private readonly maxStatementLength = Number.POSITIVE_INFINITY) {}
+
+  // 每得到一条完整语句 (包含结尾的分隔符) 就回调一次
+  public push(chunk: string, emit: StatementSink): void {
+    this.buffer += chunk;
+    const text = this.buffer;
+    let start = 0;
+    let i = this.scanned;
+    while (i < text.length) {
+      const c = text.charCodeAt(i);
+      switch (this.state) {
+        case ScanState.Slash:
+          if (c === 0x2f) {
+            this.state = ScanState.LineComment;
+            i += 1;
+          } else if (c === 0x2a) {
+            this.state = ScanState.BlockComment;
+            i += 1;
+          } else {
+            // 普通的除号, 当前字符按 Normal 状态重新处理
+            this.state = ScanState.Normal;
+          }
+          continue;
+        case ScanState.LineComment:
+          if (c === 0x0a) {
+            this.state = ScanState.Normal;
+          } else {
+            i += 1;
+          }
+          continue;
+        case ScanState.BlockComment:
+        case ScanState.BlockStar:
+          if (c === 0x0a) {
+            this.line += 1;
+          }
+          if (c === 0x2f && this.state === ScanState.BlockStar) {
+            this.state = ScanState.Normal;
+          } else {
+            this.state = c === 0x2a ? ScanState.BlockStar : ScanState.BlockComment;
+          }
+          i += 1;
+          continue;
+        default:
+          break;
+      }
+
+      i += 1;
+      switch (c) {
+        case 0x2f: // /
+          this.state = ScanState.Slash;
+          break;
+        case 0x28: // (
+        case 0x5b: // [
+          this.depth += 1;
+          break;
+        case 0x29: // )
+        case 0x5d: // ]
+          this.depth = Math.max(0, this.depth - 1);
+          break;
+        case 0x0a: // \n
+          this.line += 1;
+          if (this.depth === 0) {
+            emit(text.substring(start, i), this.statementLine, this.statementColumn);
+            start = i;
+            this.statementLine = this.line;
+            this.statementColumn = 0;
+          }
+          break;
+        case 0x3b: // ;
+          if (this.depth === 0) {
+            emit(text.substring(start, i), this.statementLine, this.statementColumn);
+            this.statementColumn = this.columnAt(text, start, i);
+            start = i;
+            this.statementLine = this.line;
+          }
+          break;
+        default:
+          break;
+      }
+    }
+    this.buffer = text.substring(start);
+    this.scanned = this.buffer.length;
+    if (this.buffer.length > this.maxStatementLength) {
+      throw new Error(
+        `line ${this.statementLine}: statement exceeds ${this.maxStatementLength} characters (unterminated comment or bracket?)`,
+      );
+    }
+  }
+
+  // 当前没有未结束的语句, 并且不在注释或括号内
+  public get idle(): boolean {
+    return this.buffer.length === 0 && this.depth === 0 && this.state === ScanState.Normal;
+  }
+
+  // 输入结束, 输出剩余的半条语句
+  public end(emit: StatementSink): void {
+    if (this.buffer.length > 0) {
+      emit(this.buffer, this.statementLine, this.statementColumn);
+    }
+    this.buffer = "";
+    this.scanned = 0;
+    this.depth = 0;
+    this.state = ScanState.Normal;
+    this.line = 1;
+    this.statementLine = 1;
+    this.statementColumn = 0;
+  }
+
+  // text[end] 所在的列: 从当前语句起点 (列号已知) 向后数码点, 语句内部有换行时从最后一个换行数起
+  private columnAt(text: string, start: number, end: number): number {
+    let from = start;
+    let column = this.statementColumn;
+    for (let k = end - 1; k >= start; k -= 1) {
+      if (text.charCodeAt(k) === 0x0a) {
+        from = k + 1;
+        column = 0;
+        break;
+      }
+    }
+    for (let k = from; k < end; k += 1) {
+      const c = text.charCodeAt(k);
+      // 代理对的低位不单独占一列
+      if (c < 0xdc00 || c > 0xdfff) {
+        column += 1;
+      }
+    }
+    return column;
+  }
+
+  // 一次性切分完整文本
+  public static split(source: string): string[] {
+    const statements: string[] = [];
+    const splitter = new StatementSplitter();
+    const collect = (statement: string) => {
+      statements.push(statement);
+    };
+    splitter.push(source, collect);
+    splitter.end(collect);
+    return statements;
+  }
+}
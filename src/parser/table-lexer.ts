@@ -0,0 +1,519 @@
+import { ANTLRInputStream, CharStream, Token, TokenFactory, TokenSource } from "antlr4ts";
+import { CalculatorParser } from "../../generated/grammar/CalculatorParser";
+import { parseDecimal } from "./decimal-literal";
+import { isNumericType, NumericToken, NumericTokenFactory } from "./numeric-token";
+
+// 字符类别 (数字字面量状态表的列)
+const C_ZERO = 0;
+const C_ONE = 1;
+const C_OCT = 2; // 2-7
+const C_DEC = 3; // 8-9
+const C_DOT = 4;
+const C_EXP = 5; // e E
+const C_SIGN = 6; // + -
+const C_IMAG = 7; // i I
+const C_BIN = 8; // b B
+const C_OCT_PREFIX = 9; // o O
+const C_HEX_PREFIX = 10; // x X
+const C_HEX = 11; // a c d f A C D F
+const C_OTHER = 12;
+const CLASS_COUNT = 13;
+
+// 数字字面量状态 (对应 Calculator.g4 的 DECIMAL/HEX/BIN/OCT_LITERAL 以及 IMAG)
+const S_START = 0;
+const S_ZERO = 1;
+const S_INT = 2;
+const S_FRACTION = 3;
+const S_LEADING_DOT = 4;
+const S_DOT_FRACTION = 5;
+const S_EXP = 6;
+const S_EXP_SIGN = 7;
+const S_EXP_DIGITS = 8;
+const S_BIN_PREFIX = 9;
+const S_BIN = 10;
+const S_OCT_PREFIX = 11;
+const S_OCT = 12;
+const S_HEX_PREFIX = 13;
+const S_HEX = 14;
+const S_IMAG = 15;
+const STATE_COUNT = 16;
+const S_DEAD = 255;
+
+const CHAR_CLASS = new Uint8Array(128).fill(C_OTHER);
+const NUMBER_TABLE = new Uint8Array(STATE_COUNT * CLASS_COUNT).fill(S_DEAD);
+const NUMBER_ACCEPT = new Int8Array(STATE_COUNT);
+
+// 单字符 token, 0 表示需要特殊处理
+const SINGLE_CHAR = new Int8Array(128);
+// 标识符字符: 1 = 可作首字符, 2 = 只能作后续字符
+const IDENT_CHAR = new Uint8Array(128);
+
+function initTables(): void {
+  const setClass = (chars: string, cls: number) => {
+    for (const ch of chars) {
+      CHAR_CLASS[ch.charCodeAt(0)] = cls;
+    }
+  };
+  setClass("0", C_ZERO);
+  setClass("1", C_ONE);
+  setClass("234567", C_OCT);
+  setClass("89", C_DEC);
+  setClass(".", C_DOT);
+  setClass("eE", C_EXP);
+  setClass("+-", C_SIGN);
+  setClass("iI", C_IMAG);
+  setClass("bB", C_BIN);
+  setClass("oO", C_OCT_PREFIX);
+  setClass("xX", C_HEX_PREFIX);
+  setClass("acdfACDF", C_HEX);
+
+  const on = (state: number, classes: number[], target: number) => {
+    for (const cls of classes) {
+      NUMBER_TABLE[state * CLASS_COUNT + cls] = target;
+    }
+  };
+  const digits = [C_ZERO, C_ONE, C_OCT, C_DEC];
+  const hexDigits = [...digits, C_EXP, C_BIN, C_HEX];
+
+  on(S_START, [C_ZERO], S_ZERO);
+  on(S_START, [C_ONE, C_OCT, C_DEC], S_INT);
+  on(S_START, [C_DOT], S_LEADING_DOT);
+
+  on(S_ZERO, digits, S_INT);
+  on(S_ZERO, [C_DOT], S_FRACTION);
+  on(S_ZERO, [C_EXP], S_EXP);
+  on(S_ZERO, [C_BIN], S_BIN_PREFIX);
+  on(S_ZERO, [C_OCT_PREFIX], S_OCT_PREFIX);
+  on(S_ZERO, [C_HEX_PREFIX], S_HEX_PREFIX);
+  on(S_ZERO, [C_IMAG], S_IMAG);
+
+  on(S_INT, digits, S_INT);
+  on(S_INT, [C_DOT], S_FRACTION);
+  on(S_INT, [C_EXP], S_EXP);
+  on(S_INT, [C_IMAG], S_IMAG);
+
+  on(S_FRACTION, digits, S_FRACTION);
+  on(S_FRACTION, [C_EXP], S_EXP);
+  on(S_FRACTION, [C_IMAG], S_IMAG);
+
+  on(S_LEADING_DOT, digits, S_DOT_FRACTION);
+  on(S_DOT_FRACTION, digits, S_DOT_FRACTION);
+  on(S_DOT_FRACTION, [C_EXP], S_EXP);
+  on(S_DOT_FRACTION, [C_IMAG], S_IMAG);
+
+  on(S_EXP, [C_SIGN], S_EXP_SIGN);
+  on(S_EXP, digits, S_EXP_DIGITS);
+  on(S_EXP_SIGN, digits, S_EXP_DIGITS);
+  on(S_EXP_DIGITS, digits, S_EXP_DIGITS);
+  on(S_EXP_DIGITS, [C_IMAG], S_IMAG);
+
+  on(S_BIN_PREFIX, [C_ZERO, C_ONE], S_BIN);
+  on(S_BIN, [C_ZERO, C_ONE], S_BIN);
+  on(S_BIN, [C_IMAG], S_IMAG);
+
+  on(S_OCT_PREFIX, [C_ZERO, C_ONE, C_OCT], S_OCT);
+  on(S_OCT, [C_ZERO, C_ONE, C_OCT], S_OCT);
+  on(S_OCT, [C_IMAG], S_IMAG);
+
+  on(S_HEX_PREFIX, hexDigits, S_HEX);
+  on(S_HEX, hexDigits, S_HEX);
+  on(S_HEX, [C_IMAG], S_IMAG);
+
+  for (const state of [S_ZERO, S_INT, S_FRACTION, S_DOT_FRACTION, S_EXP_DIGITS, S_BIN, S_OCT, S_HEX]) {
+    NUMBER_ACCEPT[state] = CalculatorParser.NUMBER;
+  }
+  NUMBER_ACCEPT[S_IMAG] = CalculatorParser.IMAG;
+
+  const single: Array<[string, number]> = [
+    ["+", CalculatorParser.PLUS],
+    ["-", CalculatorParser.MINUS],
+    ["*", CalculatorParser.MULT],
+    ["%", CalculatorParser.MOD],
+    ["^", CalculatorParser.POW],
+    ["(", CalculatorParser.LPAREN],
+    [")", CalculatorParser.RPAREN],
+    ["[", CalculatorParser.LBRACK],
+    ["]", CalculatorParser.RBRACK],
+    [",", CalculatorParser.COMMA],
+    [";", CalculatorParser.SEMICOLON],
+    ["\n", CalculatorParser.NEWLINE],
+  ];
+  for (const [ch, type] of single) {
+    SINGLE_CHAR[ch.charCodeAt(0)] = type;
+  }
+
+  for (let c = 0; c < 128; c += 1) {
+    const ch = String.fromCharCode(c);
+    if (/[a-zA-Z_]/.test(ch)) {
+      IDENT_CHAR[c] = 1;
+    } else if (/[0-9]/.test(ch)) {
+      IDENT_CHAR[c] = 2;
+    }
+  }
+}
+
+initTables();
+
+const CH_SLASH = 0x2f;
+const CH_STAR = 0x2a;
+const CH_EQUALS = 0x3d;
+const CH_BANG = 0x21;
+const CH_LESS = 0x3c;
+const CH_GREATER = 0x3e;
+const CH_CR = 0x0d;
+const CH_LF = 0x0a;
+const CH_SPACE = 0x20;
+const CH_TAB = 0x09;
+
+const INITIAL_CAPACITY = 1024;
+
+// 手写的表驱动词法分析器, token 词表与 CalculatorParser 一致 (VAR=1 … NEWLINE=34)
+// 结果写入并行的基本类型数组, 不为每个 token 分配对象
+export class TableLexer {
+  public types: Int32Array;
+  public starts: Int32Array;
+  public stops: Int32Array;
+  public lines: Int32Array;
+  public columns: Int32Array;
+  // NUMBER/IMAG 在词法分析时解码好的数值 (IMAG 为虚部), 其他 token 为 0
+  public values: Float64Array;
+  public count = 0;
+  public errors = 0;
+
+  private line = 1;
+  private lineStart = 0;
+  private lastAccept = S_DEAD;
+  // 最近一次接受的字面量去掉虚数后缀后的状态, 决定按哪种进制解码
+  private literalState = S_DEAD;
+
+  // firstLine/firstColumn: source 是大文档中的一段时, token 使用它在原文档中的位置
+  constructor(public readonly source: string, public readonly firstLine = 1, public readonly firstColumn = 0) {
+    this.line = firstLine;
+    this.lineStart = -firstColumn;
+    // 从较小的容量开始按需翻倍, 大输入不会一开始就为 length/4 个 token 各分配 6 列
+    const capacity = Math.min((source.length >> 2) + 16, INITIAL_CAPACITY);
+    this.types = new Int32Array(capacity);
+    this.starts = new Int32Array(capacity);
+    this.stops = new Int32Array(capacity);
+    this.lines = new Int32Array(capacity);
+    this.columns = new Int32Array(capacity);
+    this.values = new Float64Array(capacity);
+  }
+
+  public static tokenize(source: string, firstLine = 1, firstColumn = 0): TableLexer {
+    const lexer = new TableLexer(source, firstLine, firstColumn);
+    lexer.run();
+    return lexer;
+  }
+
+  // 扫描全部输入, 最后一个 token 是 EOF
+  public run(): void {
+    const text = this.source;
+    const length = text.length;
+    let i = 0;
+    while (i < length) {
+      const c = text.charCodeAt(i);
+
+      if (c === CH_SPACE || c === CH_TAB || c === CH_CR) {
+        if (c === CH_CR && i + 1 < length && text.charCodeAt(i + 1) === CH_LF) {
+          this.emit(CalculatorParser.NEWLINE, i, i + 1);
+          i += 2;
+          this.newLine(i);
+          continue;
+        }
+        i += 1;
+        while (i < length) {
+          const w = text.charCodeAt(i);
+          if (w !== CH_SPACE && w !== CH_TAB && w !== CH_CR) {
+            break;
+          }
+          i += 1;
+        }
+        continue;
+      }
+
+      if (c < 128 && IDENT_CHAR[c] === 1) {
+        let end = i + 1;
+        while (end < length) {
+          const n = text.charCodeAt(end);
+          if (n >= 128 || IDENT_CHAR[n] === 0) {
+            break;
+          }
+          end += 1;
+        }
+        this.emit(this.keywordOrId(i, end), i, end - 1);
+        i = end;
+        continue;
+      }
+
+      if (c < 128 && (CHAR_CLASS[c] <= C_DEC || c === 0x2e)) {
+        const end = this.scanNumber(i);
+        if (end > i) {
+          const type = NUMBER_ACCEPT[this.lastAccept];
+          this.emit(type, i, end - 1);
+          this.values[this.count - 1] = this.decodeLiteral(i, type === CalculatorParser.IMAG ? end - 1 : end);
+          i = end;
+          continue;
+        }
+      }
+
+      const single = c < 128 ? SINGLE_CHAR[c] : 0;
+      if (single !== 0) {
+        this.emit(single, i, i);
+        i += 1;
+        if (single === CalculatorParser.NEWLINE) {
+          this.newLine(i);
+        }
+        continue;
+      }
+
+      const next = i + 1 < length ? text.charCodeAt(i + 1) : -1;
+      switch (c) {
+        case CH_SLASH:
+          if (next === CH_SLASH) {
+            i += 2;
+            while (i < length) {
+              const n = text.charCodeAt(i);
+              if (n === CH_CR || n === CH_LF) {
+                break;
+              }
+              i += 1;
+            }
+            continue;
+          }
+          if (next === CH_STAR) {
+            const close = text.indexOf("*/", i + 2);
+            if (close >= 0) {
+              this.skipLines(i, close + 2);
+              i = close + 2;
+              continue;
+            }
+          }
+          this.emit(CalculatorParser.DIV, i, i);
+          i += 1;
+          continue;
+        case CH_EQUALS:
+          i += this.emitOneOrTwo(i, next === CH_EQUALS, CalculatorParser.EQUAL, CalculatorParser.ASSIGN);
+          continue;
+        case CH_BANG:
+          i += this.emitOneOrTwo(i, next === CH_EQUALS, CalculatorParser.NOT_EQUAL, CalculatorParser.FACT);
+          continue;
+        case CH_LESS:
+          i += this.emitOneOrTwo(i, next === CH_EQUALS, CalculatorParser.LESS_EQUAL, CalculatorParser.LESS);
+          continue;
+        case CH_GREATER:
+          i += this.emitOneOrTwo(i, next === CH_EQUALS, CalculatorParser.GREATER_EQUAL, CalculatorParser.GREATER);
+          continue;
+        default:
+          // 与 ANTLR 词法分析器一致: 报告错误并跳过一个字符
+          this.errors += 1;
+          i += 1;
+      }
+    }
+    this.emit(Token.EOF, length, length - 1);
+  }
+
+  // 按状态表做最长匹配, 返回匹配结束位置 (不含), 不匹配时返回 start
+  private scanNumber(start: number): number {
+    const text = this.source;
+    let state = S_START;
+    let acceptEnd = start;
+    this.lastAccept = S_DEAD;
+    for (let i = start; i < text.length; i += 1) {
+      const c = text.charCodeAt(i);
+      const cls = c < 128 ? CHAR_CLASS[c] : C_OTHER;
+      const next = NUMBER_TABLE[state * CLASS_COUNT + cls];
+      if (next === S_DEAD) {
+        break;
+      }
+      if (NUMBER_ACCEPT[next] !== 0) {
+        acceptEnd = i + 1;
+        this.lastAccept = next;
+        this.literalState = next === S_IMAG ? state : next;
+      }
+      state = next;
+    }
+    return acceptEnd;
+  }
+
+  // 按扫描时确定的字面量种类直接解码, 不再重新识别 0b/0o/0x 前缀
+  private decodeLiteral(start: number, end: number): number {
+    switch (this.literalState) {
+      case S_BIN:
+        return this.decodeRadix(start + 2, end, 2, 1);
+      case S_OCT:
+        return this.decodeRadix(start + 2, end, 8, 3);
+      case S_HEX:
+        return this.decodeRadix(start + 2, end, 16, 4);
+      default:
+        return parseDecimal(this.source, start, end);
+    }
+  }
+
+  // 结果能被 double 精确表示时逐位累加, 否则交给 parseInt 保证舍入一致
+  private decodeRadix(start: number, end: number, radix: number, bitsPerDigit: number): number {
+    if ((end - start) * bitsPerDigit > 52) {
+      return parseInt(this.source.substring(start, end), radix);
+    }
+    let value = 0;
+    for (let i = start; i < end; i += 1) {
+      const c = this.source.charCodeAt(i) | 0x20;
+      value = value * radix + (c <= 0x39 ? c - 0x30 : c - 0x57);
+    }
+    return value;
+  }
+
+  private keywordOrId(start: number, end: number): number {
+    const text = this.source;
+    switch (end - start) {
+      case 1:
+        return text.charCodeAt(start) === 0x65 ? CalculatorParser.E : CalculatorParser.ID;
+      case 2:
+        if (text.startsWith("pi", start)) {
+          return CalculatorParser.PI;
+        }
+        return text.startsWith("or", start) ? CalculatorParser.OR : CalculatorParser.ID;
+      case 3:
+        if (text.startsWith("var", start)) {
+          return CalculatorParser.VAR;
+        }
+        if (text.startsWith("and", start)) {
+          return CalculatorParser.AND;
+        }
+        return text.startsWith("not", start) ? CalculatorParser.NOT : CalculatorParser.ID;
+      case 5:
+        return text.startsWith("print", start) ? CalculatorParser.PRINT : CalculatorParser.ID;
+      default:
+        return CalculatorParser.ID;
+    }
+  }
+
+  private emitOneOrTwo(start: number, two: boolean, twoType: number, oneType: number): number {
+    if (two) {
+      this.emit(twoType, start, start + 1);
+      return 2;
+    }
+    this.emit(oneType, start, start);
+    return 1;
+  }
+
+  private emit(type: number, start: number, stop: number): void {
+    if (this.count === this.types.length) {
+      this.grow();
+    }
+    const index = this.count;
+    this.types[index] = type;
+    this.starts[index] = start;
+    this.stops[index] = stop;
+    this.lines[index] = this.line;
+    this.columns[index] = start - this.lineStart;
+    this.count = index + 1;
+  }
+
+  private newLine(nextLineStart: number): void {
+    this.line += 1;
+    this.lineStart = nextLineStart;
+  }
+
+  private skipLines(start: number, end: number): void {
+    let newline = this.source.indexOf("\n", start);
+    while (newline >= 0 && newline < end) {
+      this.newLine(newline + 1);
+      newline = this.source.indexOf("\n", newline + 1);
+    }
+  }
+
+  private grow(): void {
+    const capacity = this.types.length * 2;
+    const resize = (array: Int32Array) => {
+      const next = new Int32Array(capacity);
+      next.set(array);
+      return next;
+    };
+    this.types = resize(this.types);
+    this.starts = resize(this.starts);
+    this.stops = resize(this.stops);
+    this.lines = resize(this.lines);
+    this.columns = resize(this.columns);
+    const values = new Float64Array(capacity);
+    values.set(this.values);
+    this.values = values;
+  }
+}
+
+// 让 CalculatorParser 通过 CommonTokenStream 消费 TableLexer 的结果
+// token 的起止位置是 UTF-16 下标, 按需截取文本用的字符流也必须按 UTF-16 下标寻址.
+// CharStreams.fromString 按码点寻址, 源码里出现 BMP 以外的字符后截取的文本会整体错位
+export function sourceStream(source: string): CharStream {
+  return new ANTLRInputStream(source);
+}
+
+export class TableTokenSource implements TokenSource {
+  private index = 0;
+  private factory: TokenFactory = NumericTokenFactory.INSTANCE;
+  private stream: CharStream | undefined;
+
+  constructor(private readonly lexer: TableLexer) {
+    if (lexer.count === 0) {
+      lexer.run();
+    }
+  }
+
+  public static fromString(source: string): TableTokenSource {
+    return new TableTokenSource(TableLexer.tokenize(source));
+  }
+
+  public nextToken(): Token {
+    const lexer = this.lexer;
+    const i = Math.min(this.index, lexer.count - 1);
+    if (this.index < lexer.count - 1) {
+      this.index += 1;
+    }
+    const type = lexer.types[i];
+    if (isNumericType(type) && this.factory === NumericTokenFactory.INSTANCE) {
+      const token = new NumericToken(type, undefined, { source: this, stream: this.inputStream }, Token.DEFAULT_CHANNEL, lexer.starts[i], lexer.stops[i]);
+      token.line = lexer.lines[i];
+      token.charPositionInLine = lexer.columns[i];
+      token.numericValue = lexer.values[i];
+      return token;
+    }
+    return this.factory.create(
+      { source: this, stream: this.inputStream },
+      lexer.types[i],
+      undefined,
+      Token.DEFAULT_CHANNEL,
+      lexer.starts[i],
+      lexer.stops[i],
+      lexer.lines[i],
+      lexer.columns[i]
+    );
+  }
+
+  public get line(): number {
+    return this.lexer.lines[Math.min(this.index, this.lexer.count - 1)];
+  }
+
+  public get charPositionInLine(): number {
+    return this.lexer.columns[Math.min(this.index, this.lexer.count - 1)];
+  }
+
+  // token 文本按需从字符流中截取
+  public get inputStream(): CharStream {
+    if (!this.stream) {
+      this.stream = sourceStream(this.lexer.source);
+    }
+    return this.stream;
+  }
+
+  public get sourceName(): string {
+    return this.inputStream.sourceName;
+  }
+
+  public get tokenFactory(): TokenFactory {
+    return this.factory;
+  }
+
+  public set tokenFactory(factory: TokenFactory) {
+    this.factory = factory;
+  }
+}
@@ -0,0 +1,79 @@
+import { ANTLRErrorListener, BailErrorStrategy, CharStreams, CommonTokenStream, Token } from "antlr4ts";
+import { PredictionMode } from "antlr4ts/atn/PredictionMode";
+import { ParseCancellationException } from "antlr4ts/misc/ParseCancellationException";
+import { CalculatorLexer } from "../../generated/grammar/CalculatorLexer";
+import { CalculatorParser, ProgramContext } from "../../generated/grammar/CalculatorParser";
+import { DfaCacheGuard } from "./dfa-cache";
+
+export interface TwoStageStats {
+  parses: number;
+  sllSuccesses: number;
+  llFallbacks: number;
+}
+
+// 两阶段解析: 先用 SLL + 快速失败, 只有 SLL 失败时才用完整 LL 重新解析
+export class TwoStageParser {
+  private readonly counters: TwoStageStats = { parses: 0, sllSuccesses: 0, llFallbacks: 0 };
+
+  constructor(private readonly cacheGuard?: DfaCacheGuard) {}
+
+  public parse(source: string): ProgramContext {
+    const lexer = new CalculatorLexer(CharStreams.fromString(source));
+    const tokenStream = new CommonTokenStream(lexer);
+    const parser = new CalculatorParser(tokenStream);
+    return this.parseWith(parser);
+  }
+
+  public parseWith(parser: CalculatorParser): ProgramContext {
+    try {
+      return this.parseTwoStage(parser);
+    } finally {
+      this.cacheGuard?.check();
+    }
+  }
+
+  private parseTwoStage(parser: CalculatorParser): ProgramContext {
+    this.counters.parses += 1;
+    const listeners: ANTLRErrorListener<Token>[] = [...parser.getErrorListeners()];
+    const errorHandler = parser.errorHandler;
+
+    // 第一阶段: SLL, 遇到错误直接放弃, 不输出错误信息
+    parser.interpreter.setPredictionMode(PredictionMode.SLL);
+    parser.errorHandler = new BailErrorStrategy();
+    parser.removeErrorListeners();
+    try {
+      const tree = parser.program();
+      this.counters.sllSuccesses += 1;
+      return tree;
+    } catch (error) {
+      if (!(error instanceof ParseCancellationException)) {
+        throw error;
+      }
+    } finally {
+      for (const listener of listeners) {
+        parser.addErrorListener(listener);
+      }
+      parser.errorHandler = errorHandler;
+    }
+
+    // 第二阶段: 回到输入起点, 用完整 LL 重新解析并正常报告错误
+    this.counters.llFallbacks += 1;
+    parser.reset();
+    parser.interpreter.setPredictionMode(PredictionMode.LL);
+    return parser.program();
+  }
+
+  public get stats(): TwoStageStats {
+    return { ...this.counters };
+  }
+
+  public get fallbackRate(): number {
+    return this.counters.parses === 0 ? 0 : this.counters.llFallbacks / this.counters.parses;
+  }
+
+  public resetStats(): void {
+    this.counters.parses = 0;
+    this.counters.sllSuccesses = 0;
+    this.counters.llFallbacks = 0;
+  }
+}
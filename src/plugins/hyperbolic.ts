@@ -0,0 +1,19 @@
+import { BuiltinDefinition } from "../runtime/registry";
+import { RuntimeValue, toNumber } from "../runtime/values";
+
+// 示例插件: 通过 CALCULATOR_PLUGINS=./src/plugins/hyperbolic 或 REGISTRY.load 注册双曲函数
+
+function unary(name: string, fn: (value: number) => number): BuiltinDefinition {
+  return {
+    name,
+    generic: (...args: RuntimeValue[]) => {
+      if (args.length !== 1) {
+        throw new Error(`${name} expects 1 argument(s)`);
+      }
+      return fn(toNumber(args[0], name));
+    },
+    unary: fn,
+  };
+}
+
+export const builtins: BuiltinDefinition[] = [unary("sinh", Math.sinh), unary("cosh", Math.cosh), unary("tanh", Math.tanh)];
@@ -0,0 +1,145 @@
+import { realAdd } from "./real";
+import { Builtin, BuiltinRegistry, RealBinary, RealUnary } from "./registry";
+import { add, fromComplex, isComplex, multiply, RuntimeValue, toNumber } from "./values";
+
+export type { Builtin } from "./registry";
+
+export const CONSTANTS: ReadonlyMap<string, number> = new Map([
+  ["pi", Math.PI],
+  ["e", Math.E],
+]);
+
+function expectArgCount(name: string, args: RuntimeValue[], count: number): void {
+  if (args.length !== count) {
+    throw new Error(`${name} expects ${count} argument(s)`);
+  }
+}
+
+function numberUnary(name: string, args: RuntimeValue[], fn: (value: number) => number): RuntimeValue {
+  expectArgCount(name, args, 1);
+  return fn(toNumber(args[0], name));
+}
+
+function numberVariadic(name: string, args: RuntimeValue[], fn: (...values: number[]) => number): RuntimeValue {
+  if (args.length === 1 && Array.isArray(args[0])) {
+    const numbers = args[0].map((item) => toNumber(item, name));
+    return fn(...numbers);
+  }
+  if (args.length === 0) {
+    throw new Error(`${name} expects at least one argument`);
+  }
+  const numbers = args.map((item) => toNumber(item, name));
+  return fn(...numbers);
+}
+
+// 内置函数都是无状态的, 所有求值器共用一份
+export const BUILTINS: Readonly<Record<string, Builtin>> = {
+  abs: (...args) => {
+    expectArgCount("abs", args, 1);
+    const value = args[0];
+    if (isComplex(value)) {
+      return Math.hypot(value.real, value.imag);
+    }
+    return Math.abs(toNumber(value, "abs"));
+  },
+  ceil: (...args) => numberUnary("ceil", args, Math.ceil),
+  cos: (...args) => numberUnary("cos", args, Math.cos),
+  exp: (...args) => numberUnary("exp", args, Math.exp),
+  floor: (...args) => numberUnary("floor", args, Math.floor),
+  len: (...args) => {
+    expectArgCount("len", args, 1);
+    const target = args[0];
+    if (Array.isArray(target)) {
+      return target.length;
+    }
+    if (typeof target === "string") {
+      return target.length;
+    }
+    throw new Error("len expects an array or string");
+  },
+  log: (...args) => {
+    if (args.length === 1) {
+      return Math.log(toNumber(args[0], "log"));
+    }
+    if (args.length === 2) {
+      const value = toNumber(args[0], "log");
+      const base = toNumber(args[1], "log");
+      if (base <= 0 || base === 1) {
+        throw new Error("log base must be positive and not equal to 1");
+      }
+      return Math.log(value) / Math.log(base);
+    }
+    throw new Error("log expects one or two arguments");
+  },
+  max: (...args) => numberVariadic("max", args, Math.max),
+  min: (...args) => numberVariadic("min", args, Math.min),
+  round: (...args) => numberUnary("round", args, Math.round),
+  sin: (...args) => numberUnary("sin", args, Math.sin),
+  sqrt: (...args) => {
+    expectArgCount("sqrt", args, 1);
+    const value = toNumber(args[0], "sqrt");
+    if (value < 0) {
+      const magnitude = Math.sqrt(Math.abs(value));
+      return fromComplex({ kind: "complex", real: 0, imag: magnitude });
+    }
+    return Math.sqrt(value);
+  },
+  sum: (...args) => {
+    if (args.length === 1 && Array.isArray(args[0])) {
+      const list = args[0] as RuntimeValue[];
+      return list.reduce<RuntimeValue>((total, item) => add(total, item), 0);
+    }
+    return args.reduce<RuntimeValue>((total, item) => add(total, item), 0);
+  },
+  tan: (...args) => numberUnary("tan", args, Math.tan),
+};
+
+// 参数都是实数时的固定参数入口, 与上面的通用实现逐位一致; 返回 undefined 的情况交给通用实现
+const REAL_ENTRIES: Readonly<Record<string, { unary?: RealUnary; binary?: RealBinary }>> = {
+  abs: { unary: Math.abs },
+  ceil: { unary: Math.ceil },
+  cos: { unary: Math.cos },
+  exp: { unary: Math.exp },
+  floor: { unary: Math.floor },
+  // 底数非法时由通用实现报错
+  log: { unary: Math.log, binary: (value, base) => (base <= 0 || base === 1 ? undefined : Math.log(value) / Math.log(base)) },
+  max: { unary: (value) => Math.max(value), binary: Math.max },
+  min: { unary: (value) => Math.min(value), binary: Math.min },
+  round: { unary: Math.round },
+  sin: { unary: Math.sin },
+  // 负数的平方根是复数
+  sqrt: { unary: (value) => (value < 0 ? undefined : Math.sqrt(value)) },
+  sum: { unary: (value) => realAdd(0, value), binary: (left, right) => realAdd(realAdd(0, left), right) },
+  tan: { unary: Math.tan },
+};
+
+// 所有求值器共用的内置函数表, 插件可以向其中注册新函数
+export const REGISTRY = new BuiltinRegistry(Object.entries(BUILTINS).map(([name, generic]) => ({ name, generic, ...REAL_ENTRIES[name] })));
+
+// 变量优先, 其次是 pi/e 常量
+export function resolveIdentifier(variables: ReadonlyMap<string, RuntimeValue>, name: string): RuntimeValue {
+  const value = variables.get(name);
+  if (value !== undefined) {
+    return value;
+  }
+  const constant = CONSTANTS.get(name);
+  if (constant !== undefined) {
+    return constant;
+  }
+  throw new Error(`Identifier '${name}' is not defined`);
+}
+
+// name(args): 内置函数优先; 否则变量或常量乘以唯一的参数
+export function callFunction(variables: ReadonlyMap<string, RuntimeValue>, name: string, args: RuntimeValue[]): RuntimeValue {
+  const entry = REGISTRY.lookup(name);
+  if (entry) {
+    return entry.call(args);
+  }
+  if (args.length === 1) {
+    const left = variables.has(name) ? variables.get(name) : CONSTANTS.get(name);
+    if (left !== undefined) {
+      return multiply(left, args[0]);
+    }
+  }
+  throw new Error(`Unknown function '${name}'`);
+}
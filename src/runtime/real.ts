@@ -0,0 +1,80 @@
+import { approxZero, isInteger, normalizeNumber } from "./values";
+
+// 实数快速路径: 参数都是 number 时, 结果与 values.ts 中的通用运算逐位相同, 但不创建复数对象
+// 返回 undefined 表示通用运算在这里会得到复数 (操作数或中间结果为 Infinity/NaN 时虚部为 NaN),
+// 调用方需要改走通用路径
+
+export function realAdd(a: number, b: number): number {
+  return normalizeNumber(a + b);
+}
+
+export function realSubtract(a: number, b: number): number {
+  return normalizeNumber(a - b);
+}
+
+export function realMultiply(a: number, b: number): number | undefined {
+  if (!Number.isFinite(a) || !Number.isFinite(b)) {
+    return undefined;
+  }
+  return normalizeNumber(a * b);
+}
+
+export function realDivide(a: number, b: number): number | undefined {
+  if (!Number.isFinite(a) || !Number.isFinite(b)) {
+    return undefined;
+  }
+  const denom = b * b;
+  if (approxZero(denom)) {
+    throw new Error("Division by zero");
+  }
+  return normalizeNumber((a * b) / denom);
+}
+
+export function realModulo(a: number, b: number): number {
+  if (approxZero(b)) {
+    throw new Error("Modulo by zero");
+  }
+  return a % b;
+}
+
+// 与 power() 相同: 整数指数 (允许 EPSILON 误差) 按逐次相乘计算, 每一步都做归一化
+export function realPower(base: number, exponent: number): number | undefined {
+  if (!isInteger(exponent)) {
+    return Math.pow(base, exponent);
+  }
+  if (!Number.isFinite(base)) {
+    return undefined;
+  }
+  let result = 1;
+  const iterations = Math.abs(exponent);
+  for (let i = 0; i < iterations; i += 1) {
+    result = result * base;
+    if (!Number.isFinite(result)) {
+      return undefined;
+    }
+    result = normalizeNumber(result);
+  }
+  if (exponent < 0) {
+    const denom = result * result;
+    if (approxZero(denom)) {
+      throw new Error("Division by zero");
+    }
+    result = normalizeNumber(result / denom);
+  }
+  return result;
+}
+
+export function realNegate(value: number): number | undefined {
+  if (!Number.isFinite(value)) {
+    return undefined;
+  }
+  return normalizeNumber(-value);
+}
+
+export function realEquals(a: number, b: number): boolean {
+  return approxZero(a - b);
+}
+
+export function realTruthy(value: number): boolean {
+  return !approxZero(value);
+}
@@ -0,0 +1,131 @@
+import { resolve } from "path";
+import { RuntimeValue } from "./values";
+
+export type Builtin = (...args: RuntimeValue[]) => RuntimeValue;
+export type RealUnary = (value: number) => number | undefined;
+export type RealBinary = (left: number, right: number) => number | undefined;
+
+// 一个内置函数: generic 处理任意参数; unary/binary 是参数个数固定且都是实数时的入口,
+// 结果必须与 generic 逐位相同, 返回 undefined 表示交给 generic (例如结果是复数或需要报错).
+// pure 为 false 的函数 (随机数、读取外部状态) 不参与常量折叠和公共子表达式消除
+export interface BuiltinDefinition {
+  readonly name: string;
+  readonly generic: Builtin;
+  readonly unary?: RealUnary;
+  readonly binary?: RealBinary;
+  readonly pure?: boolean;
+}
+
+// 插件模块的导出形式
+export interface BuiltinPlugin {
+  readonly builtins: readonly BuiltinDefinition[];
+}
+
+// 注册后的入口. call1/call2 在注册时就生成好, 调用点可以直接持有它们,
+// 单参数、双参数调用不再创建参数数组
+export class BuiltinEntry {
+  public readonly call1: (value: RuntimeValue) => RuntimeValue;
+  public readonly call2: (left: RuntimeValue, right: RuntimeValue) => RuntimeValue;
+
+  constructor(public readonly definition: BuiltinDefinition) {
+    const { generic, unary, binary } = definition;
+    this.call1 = unary ? (value) => (typeof value === "number" ? unary(value) ?? generic(value) : generic(value)) : (value) => generic(value);
+    this.call2 = binary
+      ? (left, right) =>
+          typeof left === "number" && typeof right === "number" ? binary(left, right) ?? generic(left, right) : generic(left, right)
+      : (left, right) => generic(left, right);
+  }
+
+  public get name(): string {
+    return this.definition.name;
+  }
+
+  public get unary(): RealUnary | undefined {
+    return this.definition.unary;
+  }
+
+  public get binary(): RealBinary | undefined {
+    return this.definition.binary;
+  }
+
+  public get pure(): boolean {
+    return this.definition.pure !== false;
+  }
+
+  public call(args: RuntimeValue[]): RuntimeValue {
+    switch (args.length) {
+      case 1:
+        return this.call1(args[0]);
+      case 2:
+        return this.call2(args[0], args[1]);
+      default:
+        return this.definition.generic(...args);
+    }
+  }
+}
+
+const NAME = /^[A-Za-z_][A-Za-z0-9_]*$/;
+
+// 内置函数表. 注册时复制一份新表再整体替换 (写时复制), 查找方总是读到一个完整的快照, 不需要加锁;
+// generation 在每次注册后增加, 按旧表编译的程序据此判断是否需要重新解析
+export class BuiltinRegistry {
+  private entries: ReadonlyMap<string, BuiltinEntry> = new Map();
+  private version = 0;
+
+  constructor(definitions: Iterable<BuiltinDefinition> = []) {
+    this.register(...definitions);
+  }
+
+  public get generation(): number {
+    return this.version;
+  }
+
+  public lookup(name: string): BuiltinEntry | undefined {
+    return this.entries.get(name);
+  }
+
+  public has(name: string): boolean {
+    return this.entries.has(name);
+  }
+
+  public names(): string[] {
+    return [...this.entries.keys()];
+  }
+
+  public register(...definitions: BuiltinDefinition[]): void {
+    if (definitions.length === 0) {
+      return;
+    }
+    const next = new Map(this.entries);
+    for (const definition of definitions) {
+      if (!NAME.test(definition.name)) {
+        throw new Error(`Invalid builtin name '${definition.name}'`);
+      }
+      if (typeof definition.generic !== "function") {
+        throw new Error(`Builtin '${definition.name}' has no generic implementation`);
+      }
+      next.set(definition.name, new BuiltinEntry(definition));
+    }
+    this.entries = next;
+    this.version += 1;
+  }
+
+  // 加载导出 builtins 的插件模块 (包名, 或相对当前目录的路径), 返回注册的函数名
+  public load(moduleId: string): string[] {
+    const plugin = require(moduleId.startsWith(".") ? resolve(moduleId) : moduleId) as Partial<BuiltinPlugin>;
+    if (!Array.isArray(plugin.builtins)) {
+      throw new Error(`Plugin '${moduleId}' does not export builtins`);
+    }
+    this.register(...plugin.builtins);
+    return plugin.builtins.map((definition) => definition.name);
+  }
+
+  // 环境变量中逗号分隔的插件列表, 例如 CALCULATOR_PLUGINS=./plugins/stats,calc-bessel
+  public loadFromEnvironment(variable = "CALCULATOR_PLUGINS"): string[] {
+    const modules = (process.env[variable] ?? "")
+      .split(",")
+      .map((id) => id.trim())
+      .filter((id) => id.length > 0);
+    return modules.flatMap((id) => this.load(id));
+  }
+}
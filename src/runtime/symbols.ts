@@ -0,0 +1,44 @@
+import { REGISTRY } from "./builtins";
+import { BuiltinRegistry } from "./registry";
+
+// 编译期符号表: 运行时一定存在的变量名, 以及内置函数.
+// 调用 name(x) 的解析结果只取决于这两者; generation 变化时, 按旧符号表解析过的程序需要重新解析
+export class SymbolTable {
+  private readonly variables = new Set<string>();
+  private version = 0;
+
+  constructor(variables: Iterable<string> = [], private readonly registry: BuiltinRegistry = REGISTRY) {
+    for (const name of variables) {
+      this.variables.add(name);
+    }
+  }
+
+  // 注册新的内置函数同样会改变解析结果
+  public get generation(): number {
+    return this.version + this.registry.generation;
+  }
+
+  public has(name: string): boolean {
+    return this.variables.has(name);
+  }
+
+  public isBuiltin(name: string): boolean {
+    return this.registry.has(name);
+  }
+
+  public names(): string[] {
+    return [...this.variables];
+  }
+
+  // 普通变量只会让原本留到运行时判断的调用变得可解析, 旧结果仍然正确;
+  // 与内置函数同名的变量才会使 generation 增加
+  public define(name: string): void {
+    if (this.variables.has(name)) {
+      return;
+    }
+    this.variables.add(name);
+    if (this.isBuiltin(name)) {
+      this.version += 1;
+    }
+  }
+}
@@ -0,0 +1,237 @@
+export interface ComplexValue {
+  kind: "complex";
+  real: number;
+  imag: number;
+}
+
+export type RuntimeValue = number | boolean | string | ComplexValue | RuntimeValue[];
+
+// 值运算: 语法树访问者和各个执行后端共用同一套语义
+
+export const EPSILON = 1e-9;
+
+export function approxZero(value: number): boolean {
+  return Math.abs(value) <= EPSILON;
+}
+
+export function normalizeNumber(value: number): number {
+  return approxZero(value) ? 0 : value;
+}
+
+export function isInteger(value: number): boolean {
+  return Math.abs(value - Math.round(value)) <= EPSILON;
+}
+
+export function isComplex(value: RuntimeValue): value is ComplexValue {
+  return typeof value === "object" && value !== null && !Array.isArray(value) && (value as ComplexValue).kind === "complex";
+}
+
+// 虚部为 0 的复数退化为实数
+export function fromComplex(value: ComplexValue): RuntimeValue {
+  const real = normalizeNumber(value.real);
+  const imag = normalizeNumber(value.imag);
+  if (approxZero(imag)) {
+    return real;
+  }
+  return { kind: "complex", real, imag };
+}
+
+export function toComplex(value: RuntimeValue, context: string): ComplexValue {
+  if (typeof value === "number") {
+    return { kind: "complex", real: value, imag: 0 };
+  }
+  if (typeof value === "boolean") {
+    return { kind: "complex", real: value ? 1 : 0, imag: 0 };
+  }
+  if (isComplex(value)) {
+    return value;
+  }
+  throw new Error(`${context} expects numeric arguments`);
+}
+
+export function toNumber(value: RuntimeValue, context: string): number {
+  if (typeof value === "number") {
+    return value;
+  }
+  if (typeof value === "boolean") {
+    return value ? 1 : 0;
+  }
+  if (isComplex(value)) {
+    if (!approxZero(value.imag)) {
+      throw new Error(`${context} does not support complex values`);
+    }
+    return value.real;
+  }
+  throw new Error(`${context} expects numeric arguments`);
+}
+
+export function add(left: RuntimeValue, right: RuntimeValue): RuntimeValue {
+  const a = toComplex(left, "addition");
+  const b = toComplex(right, "addition");
+  return fromComplex({ kind: "complex", real: a.real + b.real, imag: a.imag + b.imag });
+}
+
+export function subtract(left: RuntimeValue, right: RuntimeValue): RuntimeValue {
+  const a = toComplex(left, "subtraction");
+  const b = toComplex(right, "subtraction");
+  return fromComplex({ kind: "complex", real: a.real - b.real, imag: a.imag - b.imag });
+}
+
+export function multiply(left: RuntimeValue, right: RuntimeValue): RuntimeValue {
+  const a = toComplex(left, "multiplication");
+  const b = toComplex(right, "multiplication");
+  const real = a.real * b.real - a.imag * b.imag;
+  const imag = a.real * b.imag + a.imag * b.real;
+  return fromComplex({ kind: "complex", real, imag });
+}
+
+export function divide(left: RuntimeValue, right: RuntimeValue): RuntimeValue {
+  const a = toComplex(left, "division");
+  const b = toComplex(right, "division");
+  const denom = b.real * b.real + b.imag * b.imag;
+  if (approxZero(denom)) {
+    throw new Error("Division by zero");
+  }
+  const real = (a.real * b.real + a.imag * b.imag) / denom;
+  const imag = (a.imag * b.real - a.real * b.imag) / denom;
+  return fromComplex({ kind: "complex", real, imag });
+}
+
+export function modulo(left: RuntimeValue, right: RuntimeValue): RuntimeValue {
+  const dividend = toNumber(left, "modulo");
+  const divisor = toNumber(right, "modulo");
+  if (approxZero(divisor)) {
+    throw new Error("Modulo by zero");
+  }
+  return dividend % divisor;
+}
+
+export function power(base: RuntimeValue, exponent: RuntimeValue): RuntimeValue {
+  const exp = toComplex(exponent, "power");
+  if (!approxZero(exp.imag)) {
+    throw new Error("Complex exponents are not supported");
+  }
+
+  const exponentValue = exp.real;
+  const baseComplex = toComplex(base, "power");
+
+  if (isInteger(exponentValue)) {
+    let result: ComplexValue = { kind: "complex", real: 1, imag: 0 };
+    const iterations = Math.abs(exponentValue);
+    for (let i = 0; i < iterations; i += 1) {
+      result = toComplex(multiply(result, baseComplex), "power");
+    }
+    if (exponentValue < 0) {
+      result = toComplex(divide(1, result), "power");
+    }
+    return fromComplex(result);
+  }
+
+  if (!approxZero(baseComplex.imag)) {
+    throw new Error("Non-integer powers of complex numbers are not supported");
+  }
+
+  return Math.pow(baseComplex.real, exponentValue);
+}
+
+export function factorial(value: RuntimeValue): RuntimeValue {
+  const number = toNumber(value, "factorial");
+  if (number < 0 || !isInteger(number)) {
+    throw new Error("Factorial expects a non-negative integer");
+  }
+  let result = 1;
+  for (let i = 2; i <= number; i += 1) {
+    result *= i;
+  }
+  return result;
+}
+
+export function compare(operator: string, left: RuntimeValue, right: RuntimeValue): boolean {
+  switch (operator) {
+    case "==":
+      return equals(left, right);
+    case "!=":
+      return !equals(left, right);
+    case "<":
+      return toNumber(left, "comparison") < toNumber(right, "comparison");
+    case "<=":
+      return toNumber(left, "comparison") <= toNumber(right, "comparison");
+    case ">":
+      return toNumber(left, "comparison") > toNumber(right, "comparison");
+    case ">=":
+      return toNumber(left, "comparison") >= toNumber(right, "comparison");
+    default:
+      throw new Error(`Unsupported operator '${operator}'`);
+  }
+}
+
+export function equals(left: RuntimeValue, right: RuntimeValue): boolean {
+  if (typeof left === "number" || typeof right === "number" || typeof left === "boolean" || typeof right === "boolean" || isComplex(left) || isComplex(right)) {
+    const a = toComplex(left, "equality");
+    const b = toComplex(right, "equality");
+    return approxZero(a.real - b.real) && approxZero(a.imag - b.imag);
+  }
+
+  if (typeof left === "string" && typeof right === "string") {
+    return left === right;
+  }
+
+  if (Array.isArray(left) && Array.isArray(right)) {
+    if (left.length !== right.length) {
+      return false;
+    }
+    for (let i = 0; i < left.length; i += 1) {
+      if (!equals(left[i], right[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  return false;
+}
+
+export function isTruthy(value: RuntimeValue | undefined): boolean {
+  if (value === undefined) {
+    return false;
+  }
+  if (typeof value === "boolean") {
+    return value;
+  }
+  if (typeof value === "number") {
+    return !approxZero(value);
+  }
+  if (typeof value === "string") {
+    return value.length > 0;
+  }
+  if (Array.isArray(value)) {
+    return value.length > 0;
+  }
+  if (isComplex(value)) {
+    return !approxZero(value.real) || !approxZero(value.imag);
+  }
+  return false;
+}
+
+export function stringify(value: RuntimeValue): string {
+  if (typeof value === "string" || typeof value === "number" || typeof value === "boolean") {
+    return String(value);
+  }
+  if (isComplex(value)) {
+    const realPart = approxZero(value.real) ? 0 : normalizeNumber(value.real);
+    const imagPart = approxZero(value.imag) ? 0 : normalizeNumber(value.imag);
+    if (approxZero(imagPart)) {
+      return String(realPart);
+    }
+    if (approxZero(realPart)) {
+      return `${imagPart}i`;
+    }
+    const sign = imagPart >= 0 ? "+" : "-";
+    return `${realPart} ${sign} ${Math.abs(imagPart)}i`;
+  }
+  if (Array.isArray(value)) {
+    const items = value.map((item) => stringify(item));
+    return `[${items.join(", ")}]`;
+  }
+  return "undefined";
+}
@@ -0,0 +1,463 @@
+import { applyBinary, applyCompare, applyUnary } from "../ast/evaluator";
+import { BinaryOperator, CompareOperator, UnaryOperator } from "../ast/nodes";
+import { callFunction, REGISTRY, resolveIdentifier } from "../runtime/builtins";
+import { realAdd, realDivide, realEquals, realMultiply, realNegate, realPower, realSubtract, realTruthy } from "../runtime/real";
+import { RealUnary } from "../runtime/registry";
+import { equals, isTruthy, RuntimeValue, stringify } from "../runtime/values";
+
+export type Frame = Map<string, RuntimeValue>;
+
+interface NodeParent {
+  replaceChild(child: ExprNode, replacement: ExprNode): void;
+}
+
+// 自我特化的求值节点: 先按纯实数执行, 第一次遇到复数、布尔或向量时把自己替换成通用节点,
+// 之后的执行直接走新节点, 不再检查
+export abstract class ExprNode implements NodeParent {
+  public parent: NodeParent | undefined;
+
+  public abstract execute(frame: Frame): RuntimeValue;
+
+  public replaceChild(child: ExprNode, replacement: ExprNode): void {
+    // 叶子节点没有子节点
+  }
+
+  // 节点当前的特化状态, 用于调试
+  public get specialization(): string {
+    return "generic";
+  }
+
+  protected adopt<T extends ExprNode>(child: T): T {
+    child.parent = this;
+    return child;
+  }
+
+  protected replace<T extends ExprNode>(replacement: T): T {
+    replacement.parent = this.parent;
+    this.parent?.replaceChild(this, replacement);
+    return replacement;
+  }
+}
+
+export class LiteralNode extends ExprNode {
+  constructor(private readonly value: RuntimeValue) {
+    super();
+  }
+
+  public execute(): RuntimeValue {
+    return this.value;
+  }
+}
+
+export class ReadVariableNode extends ExprNode {
+  constructor(private readonly name: string) {
+    super();
+  }
+
+  public execute(frame: Frame): RuntimeValue {
+    return resolveIdentifier(frame, this.name);
+  }
+}
+
+// 优化器引入的临时槽位, 同一个程序的 Bind/TempRef 共享一个数组
+export class TempNode extends ExprNode {
+  constructor(private readonly temps: RuntimeValue[], private readonly slot: number) {
+    super();
+  }
+
+  public execute(): RuntimeValue {
+    return this.temps[this.slot];
+  }
+}
+
+abstract class UnaryNode extends ExprNode {
+  constructor(protected operand: ExprNode) {
+    super();
+    this.adopt(operand);
+  }
+
+  public replaceChild(child: ExprNode, replacement: ExprNode): void {
+    if (this.operand === child) {
+      this.operand = replacement;
+    }
+  }
+}
+
+export class BindNode extends UnaryNode {
+  constructor(private readonly temps: RuntimeValue[], private readonly slot: number, value: ExprNode) {
+    super(value);
+  }
+
+  public execute(frame: Frame): RuntimeValue {
+    const value = this.operand.execute(frame);
+    this.temps[this.slot] = value;
+    return value;
+  }
+}
+
+export class GenericUnaryNode extends UnaryNode {
+  constructor(private readonly operator: UnaryOperator, operand: ExprNode) {
+    super(operand);
+  }
+
+  public execute(frame: Frame): RuntimeValue {
+    return this.apply(this.operand.execute(frame));
+  }
+
+  public apply(value: RuntimeValue): RuntimeValue {
+    return applyUnary(this.operator, value);
+  }
+}
+
+export class RealNegateNode extends UnaryNode {
+  public get specialization(): string {
+    return "real";
+  }
+
+  public execute(frame: Frame): RuntimeValue {
+    const value = this.operand.execute(frame);
+    if (typeof value === "number") {
+      const result = realNegate(value);
+      if (result !== undefined) {
+        return result;
+      }
+    }
+    return this.replace(new GenericUnaryNode(UnaryOperator.Negate, this.operand)).apply(value);
+  }
+}
+
+export class NotNode extends UnaryNode {
+  public execute(frame: Frame): RuntimeValue {
+    const value = this.operand.execute(frame);
+    return typeof value === "number" ? !realTruthy(value) : !isTruthy(value);
+  }
+}
+
+abstract class BinaryNode extends ExprNode {
+  constructor(protected left: ExprNode, protected right: ExprNode) {
+    super();
+    this.adopt(left);
+    this.adopt(right);
+  }
+
+  public replaceChild(child: ExprNode, replacement: ExprNode): void {
+    if (this.left === child) {
+      this.left = replacement;
+    }
+    if (this.right === child) {
+      this.right = replacement;
+    }
+  }
+}
+
+// 通用节点: 复数提升、布尔参与运算、向量报错都由共享的运行时处理
+export class GenericBinaryNode extends BinaryNode {
+  constructor(private readonly operator: BinaryOperator, left: ExprNode, right: ExprNode) {
+    super(left, right);
+  }
+
+  public execute(frame: Frame): RuntimeValue {
+    return this.apply(this.left.execute(frame), this.right.execute(frame));
+  }
+
+  public apply(left: RuntimeValue, right: RuntimeValue): RuntimeValue {
+    return applyBinary(this.operator, left, right);
+  }
+}
+
+// + - * / ^ 的纯实数特化, 实数路径上不创建任何对象
+export class RealArithmeticNode extends BinaryNode {
+  constructor(private readonly operator: BinaryOperator, left: ExprNode, right: ExprNode) {
+    super(left, right);
+  }
+
+  public get specialization(): string {
+    return "real";
+  }
+
+  public execute(frame: Frame): RuntimeValue {
+    const left = this.left.execute(frame);
+    const right = this.right.execute(frame);
+    if (typeof left === "number" && typeof right === "number") {
+      const result = this.real(left, right);
+      if (result !== undefined) {
+        return result;
+      }
+    }
+    return this.replace(new GenericBinaryNode(this.operator, this.left, this.right)).apply(left, right);
+  }
+
+  private real(left: number, right: number): number | undefined {
+    switch (this.operator) {
+      case BinaryOperator.Add:
+        return realAdd(left, right);
+      case BinaryOperator.Subtract:
+        return realSubtract(left, right);
+      case BinaryOperator.Multiply:
+        return realMultiply(left, right);
+      case BinaryOperator.Divide:
+        return realDivide(left, right);
+      case BinaryOperator.Power:
+        return realPower(left, right);
+      default:
+        return undefined;
+    }
+  }
+}
+
+export class AndNode extends BinaryNode {
+  public execute(frame: Frame): RuntimeValue {
+    return isTruthy(this.left.execute(frame)) && isTruthy(this.right.execute(frame));
+  }
+}
+
+export class OrNode extends BinaryNode {
+  public execute(frame: Frame): RuntimeValue {
+    return isTruthy(this.left.execute(frame)) || isTruthy(this.right.execute(frame));
+  }
+}
+
+abstract class CompareChainNode extends ExprNode {
+  constructor(protected readonly operands: ExprNode[], protected readonly operators: readonly CompareOperator[]) {
+    super();
+    operands.forEach((operand) => this.adopt(operand));
+  }
+
+  public replaceChild(child: ExprNode, replacement: ExprNode): void {
+    const index = this.operands.indexOf(child);
+    if (index >= 0) {
+      this.operands[index] = replacement;
+    }
+  }
+}
+
+export class GenericCompareChainNode extends CompareChainNode {
+  public execute(frame: Frame): RuntimeValue {
+    return this.resume(frame, 0, this.operands[0].execute(frame));
+  }
+
+  // 从第 index 个比较继续, current 为其左操作数
+  public resume(frame: Frame, index: number, current: RuntimeValue, next?: RuntimeValue): boolean {
+    for (let i = index; i < this.operators.length; i += 1) {
+      const right = i === index && next !== undefined ? next : this.operands[i + 1].execute(frame);
+      if (!applyCompare(this.operators[i], current, right)) {
+        return false;
+      }
+      current = right;
+    }
+    return true;
+  }
+}
+
+export class RealCompareChainNode extends CompareChainNode {
+  public get specialization(): string {
+    return "real";
+  }
+
+  public execute(frame: Frame): RuntimeValue {
+    let current = this.operands[0].execute(frame);
+    for (let i = 0; i < this.operators.length; i += 1) {
+      const next = this.operands[i + 1].execute(frame);
+      if (typeof current !== "number" || typeof next !== "number") {
+        return this.replace(new GenericCompareChainNode(this.operands, this.operators)).resume(frame, i, current, next);
+      }
+      if (!RealCompareChainNode.compare(this.operators[i], current, next)) {
+        return false;
+      }
+      current = next;
+    }
+    return true;
+  }
+
+  private static compare(operator: CompareOperator, left: number, right: number): boolean {
+    switch (operator) {
+      case CompareOperator.Equal:
+        return realEquals(left, right);
+      case CompareOperator.NotEqual:
+        return !realEquals(left, right);
+      case CompareOperator.Less:
+        return left < right;
+      case CompareOperator.LessEqual:
+        return left <= right;
+      case CompareOperator.Greater:
+        return left > right;
+      case CompareOperator.GreaterEqual:
+        return left >= right;
+    }
+  }
+}
+
+export class GenericCallNode extends ExprNode {
+  constructor(private readonly name: string, private readonly args: ExprNode[]) {
+    super();
+    args.forEach((arg) => this.adopt(arg));
+  }
+
+  public replaceChild(child: ExprNode, replacement: ExprNode): void {
+    const index = this.args.indexOf(child);
+    if (index >= 0) {
+      this.args[index] = replacement;
+    }
+  }
+
+  public execute(frame: Frame): RuntimeValue {
+    return this.apply(frame, this.args.map((arg) => arg.execute(frame)));
+  }
+
+  public apply(frame: Frame, args: RuntimeValue[]): RuntimeValue {
+    return callFunction(frame, this.name, args);
+  }
+}
+
+// 单参数内置函数的实数特化, 直接调用注册表中的实数入口而不经过变长参数的通用实现
+// 实数入口返回 undefined (例如 sqrt 遇到负数得到复数) 时改写为通用节点
+export class RealFunctionNode extends UnaryNode {
+  constructor(private readonly name: string, private readonly fn: RealUnary, argument: ExprNode) {
+    super(argument);
+  }
+
+  public static supports(name: string, arity: number): boolean {
+    return arity === 1 && REGISTRY.lookup(name)?.unary !== undefined;
+  }
+
+  public static create(name: string, argument: ExprNode): RealFunctionNode {
+    return new RealFunctionNode(name, REGISTRY.lookup(name)!.unary!, argument);
+  }
+
+  public get specialization(): string {
+    return "real";
+  }
+
+  public execute(frame: Frame): RuntimeValue {
+    const value = this.operand.execute(frame);
+    if (typeof value === "number") {
+      const result = this.fn(value);
+      if (result !== undefined) {
+        return result;
+      }
+    }
+    return this.replace(new GenericCallNode(this.name, [this.operand])).apply(frame, [value]);
+  }
+}
+
+export class VectorNode extends ExprNode {
+  constructor(private readonly items: ExprNode[]) {
+    super();
+    items.forEach((item) => this.adopt(item));
+  }
+
+  public replaceChild(child: ExprNode, replacement: ExprNode): void {
+    const index = this.items.indexOf(child);
+    if (index >= 0) {
+      this.items[index] = replacement;
+    }
+  }
+
+  public execute(frame: Frame): RuntimeValue {
+    return this.items.map((item) => item.execute(frame));
+  }
+}
+
+export class MatrixNode extends ExprNode {
+  constructor(private readonly rows: VectorNode[]) {
+    super();
+    rows.forEach((row) => this.adopt(row));
+  }
+
+  public execute(frame: Frame): RuntimeValue {
+    return this.rows.map((row) => row.execute(frame));
+  }
+}
+
+// 语句节点是表达式树的根, 负责接收根表达式的替换
+export abstract class StatementNode implements NodeParent {
+  public abstract execute(frame: Frame): RuntimeValue | undefined;
+
+  public replaceChild(child: ExprNode, replacement: ExprNode): void {
+    // 由含有表达式的语句覆盖
+  }
+}
+
+abstract class ValueStatementNode extends StatementNode {
+  constructor(protected value: ExprNode) {
+    super();
+    value.parent = this;
+  }
+
+  public replaceChild(child: ExprNode, replacement: ExprNode): void {
+    if (this.value === child) {
+      this.value = replacement;
+    }
+  }
+}
+
+export class DefineNode extends ValueStatementNode {
+  constructor(private readonly name: string, value: ExprNode) {
+    super(value);
+  }
+
+  public execute(frame: Frame): RuntimeValue {
+    if (frame.has(this.name)) {
+      throw new Error(`Variable '${this.name}' already defined`);
+    }
+    const value = this.value.execute(frame);
+    frame.set(this.name, value);
+    return value;
+  }
+}
+
+export class AssignNode extends ValueStatementNode {
+  constructor(private readonly name: string, value: ExprNode) {
+    super(value);
+  }
+
+  public execute(frame: Frame): RuntimeValue {
+    if (!frame.has(this.name)) {
+      throw new Error(`Variable '${this.name}' is not defined`);
+    }
+    const value = this.value.execute(frame);
+    frame.set(this.name, value);
+    return value;
+  }
+}
+
+export class PrintNode extends ValueStatementNode {
+  public execute(frame: Frame): RuntimeValue {
+    const value = this.value.execute(frame);
+    console.log(stringify(value));
+    return value;
+  }
+}
+
+export class ExprStatementNode extends ValueStatementNode {
+  public execute(frame: Frame): RuntimeValue {
+    return this.value.execute(frame);
+  }
+}
+
+export class EquationNode extends StatementNode {
+  constructor(private left: ExprNode, private right: ExprNode) {
+    super();
+    left.parent = this;
+    right.parent = this;
+  }
+
+  public replaceChild(child: ExprNode, replacement: ExprNode): void {
+    if (this.left === child) {
+      this.left = replacement;
+    }
+    if (this.right === child) {
+      this.right = replacement;
+    }
+  }
+
+  public execute(frame: Frame): RuntimeValue {
+    return equals(this.left.execute(frame), this.right.execute(frame));
+  }
+}
+
+export class EmptyNode extends StatementNode {
+  public execute(): undefined {
+    return undefined;
+  }
+}
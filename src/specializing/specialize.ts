@@ -0,0 +1,119 @@
+import { BinaryOperator, Expr, NodeKind, Program, Statement, UnaryOperator } from "../ast/nodes";
+import { RuntimeValue } from "../runtime/values";
+import {
+  AndNode,
+  AssignNode,
+  BindNode,
+  DefineNode,
+  EmptyNode,
+  EquationNode,
+  ExprNode,
+  ExprStatementNode,
+  Frame,
+  GenericBinaryNode,
+  GenericCallNode,
+  GenericUnaryNode,
+  LiteralNode,
+  MatrixNode,
+  NotNode,
+  OrNode,
+  PrintNode,
+  ReadVariableNode,
+  RealArithmeticNode,
+  RealCompareChainNode,
+  RealFunctionNode,
+  RealNegateNode,
+  StatementNode,
+  TempNode,
+  VectorNode,
+} from "./nodes";
+
+// 可以反复执行的特化节点树; 节点在执行中改写自己, 特化结果在多次执行之间保留
+export class SpecializedProgram {
+  private constructor(private readonly statements: StatementNode[]) {}
+
+  public static from(program: Program): SpecializedProgram {
+    const temps: RuntimeValue[] = [];
+    return new SpecializedProgram(program.statements.map((statement) => buildStatement(statement, temps)));
+  }
+
+  public run(initialVariables?: Record<string, RuntimeValue>): RuntimeValue | undefined {
+    return this.runWith(new Map(initialVariables ? Object.entries(initialVariables) : []));
+  }
+
+  public runWith(frame: Frame): RuntimeValue | undefined {
+    let result: RuntimeValue | undefined;
+    for (const statement of this.statements) {
+      result = statement.execute(frame);
+    }
+    return result;
+  }
+}
+
+function buildStatement(statement: Statement, temps: RuntimeValue[]): StatementNode {
+  switch (statement.kind) {
+    case NodeKind.Define:
+      return new DefineNode(statement.name, buildExpr(statement.value, temps));
+    case NodeKind.Assign:
+      return new AssignNode(statement.name, buildExpr(statement.value, temps));
+    case NodeKind.Equation:
+      return new EquationNode(buildExpr(statement.left, temps), buildExpr(statement.right, temps));
+    case NodeKind.Print:
+      return new PrintNode(buildExpr(statement.value, temps));
+    case NodeKind.ExprStmt:
+      return new ExprStatementNode(buildExpr(statement.value, temps));
+    case NodeKind.Empty:
+      return new EmptyNode();
+  }
+}
+
+// 能按实数执行的节点都从实数特化开始
+function buildExpr(expr: Expr, temps: RuntimeValue[]): ExprNode {
+  switch (expr.kind) {
+    case NodeKind.Literal:
+      return new LiteralNode(expr.value);
+    case NodeKind.VarRef:
+      return new ReadVariableNode(expr.name);
+    case NodeKind.UnaryOp: {
+      const operand = buildExpr(expr.operand, temps);
+      switch (expr.operator) {
+        case UnaryOperator.Negate:
+          return new RealNegateNode(operand);
+        case UnaryOperator.Not:
+          return new NotNode(operand);
+        default:
+          return new GenericUnaryNode(expr.operator, operand);
+      }
+    }
+    case NodeKind.BinaryOp: {
+      const left = buildExpr(expr.left, temps);
+      const right = buildExpr(expr.right, temps);
+      switch (expr.operator) {
+        case BinaryOperator.And:
+          return new AndNode(left, right);
+        case BinaryOperator.Or:
+          return new OrNode(left, right);
+        case BinaryOperator.Modulo:
+          // 取模本来就只接受实数, 通用实现也不会分配对象
+          return new GenericBinaryNode(expr.operator, left, right);
+        default:
+          return new RealArithmeticNode(expr.operator, left, right);
+      }
+    }
+    case NodeKind.CompareChain:
+      return new RealCompareChainNode(expr.operands.map((item) => buildExpr(item, temps)), expr.operators);
+    case NodeKind.Call:
+      if (RealFunctionNode.supports(expr.name, expr.args.length)) {
+        return RealFunctionNode.create(expr.name, buildExpr(expr.args[0], temps));
+      }
+      return new GenericCallNode(expr.name, expr.args.map((item) => buildExpr(item, temps)));
+    case NodeKind.VectorLit:
+      return new VectorNode(expr.items.map((item) => buildExpr(item, temps)));
+    case NodeKind.MatrixLit:
+      return new MatrixNode(expr.rows.map((row) => new VectorNode(row.map((item) => buildExpr(item, temps)))));
+    case NodeKind.Bind:
+      return new BindNode(temps, expr.slot, buildExpr(expr.value, temps));
+    case NodeKind.TempRef:
+      return new TempNode(temps, expr.slot);
+  }
+}